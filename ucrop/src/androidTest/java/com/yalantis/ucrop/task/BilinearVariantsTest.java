@@ -0,0 +1,24 @@
+package com.yalantis.ucrop.task;
+
+import android.os.Build;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs the native self-check of bilinear sampling on the device ABI, so NEON is covered on ARM devices and
+ * SSE2 and AVX2 on x86 emulators.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BilinearVariantsTest {
+
+    @Test
+    public void simdVariantsMatchFloatMath() {
+        assertNull("Bilinear variant is off on " + Build.SUPPORTED_ABIS[0], BitmapCropTask.checkBilinearVariants());
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.yalantis.ucrop.task;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.RectF;
+
+import androidx.exifinterface.media.ExifInterface;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.yalantis.ucrop.model.CropParameters;
+import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.model.ImageState;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Once sharpness is previewed the view bitmap holds sharpened pixels, a crop with sharpness set must give the same
+ * result whether the view bitmap is at full resolution or the source is decoded from file.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapCropTaskSharpnessTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final float SHARPNESS = 2;
+
+    private Context mContext;
+    private File mSource, mFromBitmap, mFromFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mSource = new File(mContext.getCacheDir(), "sharpness-source.png");
+        mFromBitmap = new File(mContext.getCacheDir(), "sharpness-from-bitmap.png");
+        mFromFile = new File(mContext.getCacheDir(), "sharpness-from-file.png");
+
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Random random = new Random(1);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        Bitmap source = Bitmap.createBitmap(pixels, WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        source.setHasAlpha(false);
+        OutputStream stream = new FileOutputStream(mSource);
+        try {
+            source.compress(Bitmap.CompressFormat.PNG, 100, stream);
+        } finally {
+            stream.close();
+        }
+        source.recycle();
+    }
+
+    @After
+    public void tearDown() {
+        mSource.delete();
+        mFromBitmap.delete();
+        mFromFile.delete();
+    }
+
+    @Test
+    public void sharpenedViewBitmapIsNotSharpenedAgain() {
+        // Stands for the preview after SharpnessScriptTask: full resolution, pixels differ from the source
+        Bitmap sharpenedPreview = BitmapFactory.decodeFile(mSource.getPath());
+        sharpenedPreview.eraseColor(0xFF808080);
+        crop(sharpenedPreview, WIDTH, HEIGHT, mFromBitmap);
+
+        // Half size preview is never used as the source, the crop decodes the file
+        Bitmap halfSizePreview = Bitmap.createBitmap(WIDTH / 2, HEIGHT / 2, Bitmap.Config.ARGB_8888);
+        crop(halfSizePreview, WIDTH / 2, HEIGHT / 2, mFromFile);
+
+        assertArrayEquals(readPixels(mFromFile), readPixels(mFromBitmap));
+    }
+
+    private void crop(Bitmap viewBitmap, int viewWidth, int viewHeight, File output) {
+        RectF imageRect = new RectF(0, 0, viewWidth, viewHeight);
+        ImageState imageState = new ImageState(new RectF(imageRect), imageRect, 1, 0);
+        CropParameters cropParameters = new CropParameters(0, 0, Bitmap.CompressFormat.PNG, 100,
+                mSource.getPath(), output.getPath(), new ExifInfo(ExifInterface.ORIENTATION_NORMAL, 0, 1),
+                0, 0, 0, SHARPNESS);
+        BitmapCropTask task = new BitmapCropTask(mContext, viewBitmap, imageState, cropParameters, null);
+        assertNull(task.doInBackground());
+        viewBitmap.recycle();
+    }
+
+    private static int[] readPixels(File file) {
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        bitmap.recycle();
+        return pixels;
+    }
+
+}
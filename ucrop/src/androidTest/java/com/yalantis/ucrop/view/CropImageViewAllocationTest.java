@@ -0,0 +1,234 @@
+package com.yalantis.ucrop.view;
+
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Gesture and animation frames of {@link GestureCropImageView} must not allocate, otherwise a long gesture ends up
+ * in GC pauses. Touch events go through the gesture detectors, pending transforms and animator frames are applied
+ * the way Choreographer would, all on the main thread and counted with {@link Debug} allocation counting.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CropImageViewAllocationTest {
+
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1440;
+    private static final int FRAME_COUNT = 240;
+
+    private static final int MOVE_EVENTS = 20;
+    // Samples batched into every move event, as high rate touchscreens deliver them
+    private static final int SAMPLES_PER_EVENT = 3;
+    private static final long SAMPLE_INTERVAL_MS = 4;
+    private static final long FRAME_INTERVAL_NANOS = 16_666_667L;
+    private static final int MAX_ANIMATION_FRAMES = 120;
+    // Longer than the double tap timeout, so gestures are not taken for double taps
+    private static final long GESTURE_GAP_MS = 1000;
+
+    @Test
+    public void gestureFramesDoNotAllocate() {
+        final int[] allocationCount = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                GestureCropImageView view = createLaidOutView();
+                long time = SystemClock.uptimeMillis();
+                MotionEvent[][] warmUp = {buildDrag(time), buildPinch(time + GESTURE_GAP_MS)};
+                MotionEvent[][] counted = {buildDrag(time + 2 * GESTURE_GAP_MS), buildPinch(time + 3 * GESTURE_GAP_MS)};
+                // First pass initializes classes and lazily created state, so only the second one is counted
+                driveFrames(view, warmUp);
+                allocationCount[0] = countAllocations(view, counted);
+                recycle(warmUp);
+                recycle(counted);
+                view.getViewBitmap().recycle();
+            }
+        });
+        assertEquals("Objects allocated by gesture frames", 0, allocationCount[0]);
+    }
+
+    private static GestureCropImageView createLaidOutView() {
+        GestureCropImageView view = new GestureCropImageView(InstrumentationRegistry.getInstrumentation().getTargetContext());
+        view.setImageBitmap(Bitmap.createBitmap(1600, 1200, Bitmap.Config.ARGB_8888));
+        view.setTargetAspectRatio(1f);
+        view.measure(View.MeasureSpec.makeMeasureSpec(VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+        return view;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int countAllocations(GestureCropImageView view, MotionEvent[][] gestures) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            driveFrames(view, gestures);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return Debug.getThreadAllocCount();
+    }
+
+    /**
+     * Gestures, each followed by the animation it starts, then frames of a pinch with rotation and drag driven
+     * through the view methods directly, each followed by the crop bounds check, and the final move of the image
+     * back into the crop bounds.
+     */
+    private static void driveFrames(GestureCropImageView view, MotionEvent[][] gestures) {
+        for (int g = 0; g < gestures.length; g++) {
+            MotionEvent[] events = gestures[g];
+            for (int e = 0; e < events.length; e++) {
+                view.onTouchEvent(events[e]);
+                // One frame per event, the last one is applied by the gesture end
+                view.applyPendingTransform();
+            }
+            runAnimation(view.getImageAnimator());
+        }
+
+        float centerX = VIEW_WIDTH / 2f, centerY = VIEW_HEIGHT / 2f;
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            float direction = frame < FRAME_COUNT / 2 ? 1 : -1;
+            view.postScale(1 + 0.01f * direction, centerX, centerY);
+            view.postRotate(0.5f * direction);
+            view.postTranslate(4 * direction, -3 * direction);
+            view.isImageWrapCropBounds();
+        }
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            float fraction = (float) frame / FRAME_COUNT;
+            view.applyAnimatedTransform(centerX + 40 * fraction, centerY - 30 * fraction,
+                    view.getCurrentScale() * 1.001f, view.getCurrentAngle() + 0.25f);
+            view.setImageToWrapCropBounds(false);
+        }
+        view.postRotate(15);
+        view.postTranslate(VIEW_WIDTH / 3f, VIEW_HEIGHT / 3f);
+        view.setImageToWrapCropBounds(false);
+    }
+
+    /**
+     * Runs the fling or spring animation frame by frame, removing the callback each frame posts as Choreographer
+     * does once it runs it. Stops the animation if it takes longer than expected.
+     */
+    private static void runAnimation(CropImageAnimator animator) {
+        Choreographer choreographer = Choreographer.getInstance();
+        long frameTimeNanos = System.nanoTime();
+        for (int frame = 0; frame < MAX_ANIMATION_FRAMES && animator.isRunning(); frame++) {
+            frameTimeNanos += FRAME_INTERVAL_NANOS;
+            choreographer.removeFrameCallback(animator);
+            animator.doFrame(frameTimeNanos);
+        }
+        animator.cancel();
+    }
+
+    /**
+     * Fast single finger drag that ends with a fling.
+     */
+    private static MotionEvent[] buildDrag(long downTime) {
+        MotionEvent[] events = new MotionEvent[MOVE_EVENTS + 2];
+        float[] x = {VIEW_WIDTH / 2f}, y = {VIEW_HEIGHT / 2f};
+        long time = downTime;
+        events[0] = obtain(downTime, time, MotionEvent.ACTION_DOWN, x, y, 1);
+        for (int e = 1; e <= MOVE_EVENTS; e++) {
+            for (int s = 0; s < SAMPLES_PER_EVENT; s++) {
+                time += SAMPLE_INTERVAL_MS;
+                x[0] += 12;
+                y[0] -= 9;
+                events[e] = addSample(events[e], downTime, time, x, y, 1);
+            }
+        }
+        events[MOVE_EVENTS + 1] = obtain(downTime, time, MotionEvent.ACTION_UP, x, y, 1);
+        return events;
+    }
+
+    /**
+     * Two finger pinch out with rotation, ends with the image animated back into the crop bounds if needed.
+     */
+    private static MotionEvent[] buildPinch(long downTime) {
+        MotionEvent[] events = new MotionEvent[MOVE_EVENTS + 4];
+        float[] x = new float[2], y = new float[2];
+        long time = downTime;
+        placeFingers(x, y, 150, 0);
+        events[0] = obtain(downTime, time, MotionEvent.ACTION_DOWN, x, y, 1);
+        time += SAMPLE_INTERVAL_MS;
+        events[1] = obtain(downTime, time, pointerAction(MotionEvent.ACTION_POINTER_DOWN, 1), x, y, 2);
+        int sampleCount = MOVE_EVENTS * SAMPLES_PER_EVENT;
+        for (int e = 0; e < MOVE_EVENTS; e++) {
+            for (int s = 0; s < SAMPLES_PER_EVENT; s++) {
+                float progress = (float) (e * SAMPLES_PER_EVENT + s + 1) / sampleCount;
+                time += SAMPLE_INTERVAL_MS;
+                placeFingers(x, y, 150 + 250 * progress, 60 * progress);
+                events[e + 2] = addSample(events[e + 2], downTime, time, x, y, 2);
+            }
+        }
+        events[MOVE_EVENTS + 2] = obtain(downTime, time, pointerAction(MotionEvent.ACTION_POINTER_UP, 1), x, y, 2);
+        events[MOVE_EVENTS + 3] = obtain(downTime, time, MotionEvent.ACTION_UP, x, y, 1);
+        return events;
+    }
+
+    private static void placeFingers(float[] x, float[] y, float radius, float angleDegrees) {
+        double angle = Math.toRadians(angleDegrees);
+        float dx = (float) (Math.cos(angle) * radius), dy = (float) (Math.sin(angle) * radius);
+        x[0] = VIEW_WIDTH / 2f - dx;
+        y[0] = VIEW_HEIGHT / 2f - dy;
+        x[1] = VIEW_WIDTH / 2f + dx;
+        y[1] = VIEW_HEIGHT / 2f + dy;
+    }
+
+    private static int pointerAction(int action, int pointerIndex) {
+        return action | (pointerIndex << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+    }
+
+    /**
+     * @return - move event with given sample added, samples added before it become historical
+     */
+    private static MotionEvent addSample(MotionEvent move, long downTime, long time, float[] x, float[] y,
+                                         int pointerCount) {
+        if (move == null) {
+            return obtain(downTime, time, MotionEvent.ACTION_MOVE, x, y, pointerCount);
+        }
+        move.addBatch(time, createCoords(x, y, pointerCount), 0);
+        return move;
+    }
+
+    private static MotionEvent obtain(long downTime, long time, int action, float[] x, float[] y, int pointerCount) {
+        MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[pointerCount];
+        for (int i = 0; i < pointerCount; i++) {
+            properties[i] = new MotionEvent.PointerProperties();
+            properties[i].id = i;
+            properties[i].toolType = MotionEvent.TOOL_TYPE_FINGER;
+        }
+        return MotionEvent.obtain(downTime, time, action, pointerCount, properties, createCoords(x, y, pointerCount),
+                0, 0, 1, 1, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+    }
+
+    private static MotionEvent.PointerCoords[] createCoords(float[] x, float[] y, int pointerCount) {
+        MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[pointerCount];
+        for (int i = 0; i < pointerCount; i++) {
+            coords[i] = new MotionEvent.PointerCoords();
+            coords[i].x = x[i];
+            coords[i].y = y[i];
+            coords[i].pressure = 1;
+            coords[i].size = 1;
+        }
+        return coords;
+    }
+
+    private static void recycle(MotionEvent[][] gestures) {
+        for (MotionEvent[] events : gestures) {
+            for (MotionEvent event : events) {
+                event.recycle();
+            }
+        }
+    }
+
+}
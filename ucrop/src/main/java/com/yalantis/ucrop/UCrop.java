@@ -12,6 +12,9 @@ import android.os.Bundle;
 import android.os.Parcelable;
 
 import com.yalantis.ucrop.model.AspectRatio;
+import com.yalantis.ucrop.task.BitmapCropTask;
+import com.yalantis.ucrop.util.OutputCommitter;
+import com.yalantis.ucrop.view.CropImageView;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -47,6 +50,11 @@ public class UCrop {
     public static final String EXTRA_OUTPUT_IMAGE_HEIGHT = EXTRA_PREFIX + ".ImageHeight";
     public static final String EXTRA_OUTPUT_OFFSET_X = EXTRA_PREFIX + ".OffsetX";
     public static final String EXTRA_OUTPUT_OFFSET_Y = EXTRA_PREFIX + ".OffsetY";
+    public static final String EXTRA_OUTPUT_FORMAT = EXTRA_PREFIX + ".OutputFormat";
+    public static final String EXTRA_OUTPUT_MIME_TYPE = EXTRA_PREFIX + ".OutputMimeType";
+    public static final String EXTRA_OUTPUT_COMPRESSION_QUALITY = EXTRA_PREFIX + ".OutputCompressionQuality";
+    public static final String EXTRA_OUTPUT_FILE_SIZE = EXTRA_PREFIX + ".OutputFileSize";
+    public static final String EXTRA_OUTPUT_QUALITY_SCORE = EXTRA_PREFIX + ".OutputQualityScore";
     public static final String EXTRA_ERROR = EXTRA_PREFIX + ".Error";
 
     public static final String EXTRA_ASPECT_RATIO_X = EXTRA_PREFIX + ".AspectRatioX";
@@ -254,6 +262,58 @@ public class UCrop {
         return intent.getFloatExtra(EXTRA_OUTPUT_CROP_ASPECT_RATIO, 0f);
     }
 
+    /**
+     * Retrieve the format of the cropped image
+     *
+     * @param intent crop result intent
+     * @return one of {@link com.yalantis.ucrop.task.BitmapCropTask} FORMAT_* constants
+     */
+    public static int getOutputFormat(@NonNull Intent intent) {
+        return intent.getIntExtra(EXTRA_OUTPUT_FORMAT, BitmapCropTask.FORMAT_SOURCE);
+    }
+
+    /**
+     * Retrieve MIME type of the cropped image, useful when the format was picked automatically
+     *
+     * @param intent crop result intent
+     * @return MIME type or null if the source image was copied as is
+     */
+    @Nullable
+    public static String getOutputMimeType(@NonNull Intent intent) {
+        return intent.getStringExtra(EXTRA_OUTPUT_MIME_TYPE);
+    }
+
+    /**
+     * Retrieve compression quality the cropped image was saved with
+     *
+     * @param intent crop result intent
+     * @return quality [0-100] or -1 if the source image was copied as is
+     */
+    public static int getOutputCompressionQuality(@NonNull Intent intent) {
+        return intent.getIntExtra(EXTRA_OUTPUT_COMPRESSION_QUALITY, -1);
+    }
+
+    /**
+     * Retrieve the size of the cropped image file
+     *
+     * @param intent crop result intent
+     * @return size in bytes or -1 if unknown
+     */
+    public static long getOutputFileSize(@NonNull Intent intent) {
+        return intent.getLongExtra(EXTRA_OUTPUT_FILE_SIZE, -1);
+    }
+
+    /**
+     * Retrieve perceptual quality (SSIM) of the cropped image, measured when
+     * {@link Options#setTargetQualityScore(float)} is used
+     *
+     * @param intent crop result intent
+     * @return score in [0, 1] or -1 if it was not measured
+     */
+    public static float getOutputQualityScore(@NonNull Intent intent) {
+        return intent.getFloatExtra(EXTRA_OUTPUT_QUALITY_SCORE, -1f);
+    }
+
     /**
      * Method retrieves error from the result intent.
      *
@@ -283,6 +343,7 @@ public class UCrop {
 
         public static final String EXTRA_DIMMED_LAYER_COLOR = EXTRA_PREFIX + ".DimmedLayerColor";
         public static final String EXTRA_CIRCLE_DIMMED_LAYER = EXTRA_PREFIX + ".CircleDimmedLayer";
+        public static final String EXTRA_COMPOSITE_RENDERING = EXTRA_PREFIX + ".CompositeRendering";
 
         public static final String EXTRA_SHOW_CROP_FRAME = EXTRA_PREFIX + ".ShowCropFrame";
         public static final String EXTRA_CROP_FRAME_COLOR = EXTRA_PREFIX + ".CropFrameColor";
@@ -319,6 +380,14 @@ public class UCrop {
         public static final String EXTRA_SATURATION = EXTRA_PREFIX + ".Saturation";
         public static final String EXTRA_SHARPNESS = EXTRA_PREFIX + ".Sharpness";
 
+        public static final String EXTRA_OUTPUT_FSYNC_MODE = EXTRA_PREFIX + ".OutputFsyncMode";
+        public static final String EXTRA_AVIF_COMPRESSION = EXTRA_PREFIX + ".AvifCompression";
+        public static final String EXTRA_MAX_RESULT_FILE_SIZE = EXTRA_PREFIX + ".MaxResultFileSize";
+        public static final String EXTRA_TARGET_QUALITY_SCORE = EXTRA_PREFIX + ".TargetQualityScore";
+        public static final String EXTRA_AUTO_FORMAT = EXTRA_PREFIX + ".AutoFormat";
+        public static final String EXTRA_RESAMPLING = EXTRA_PREFIX + ".Resampling";
+        public static final String EXTRA_THREAD_COUNT = EXTRA_PREFIX + ".ThreadCount";
+
         private final Bundle mOptionBundle;
 
         public Options() {
@@ -344,6 +413,85 @@ public class UCrop {
             mOptionBundle.putInt(EXTRA_COMPRESSION_QUALITY, compressQuality);
         }
 
+        /**
+         * Set to true to encode resulting image as AVIF. {@link Bitmap.CompressFormat} has no AVIF value,
+         * so compression format set with {@link #setCompressionFormat(Bitmap.CompressFormat)} is used
+         * when the AVIF encoder is not available. Compression quality applies to AVIF as well.
+         */
+        public void setAvifCompressionEnabled(boolean enabled) {
+            mOptionBundle.putBoolean(EXTRA_AVIF_COMPRESSION, enabled);
+        }
+
+        /**
+         * Set maximum size of resulting file in bytes. Compression quality set with
+         * {@link #setCompressionQuality(int)} becomes the upper bound and is lowered until the result fits.
+         * Lossless formats (PNG, lossless WebP) are not affected. Embedded Exif counts towards the limit.
+         * If the result does not fit even at the lowest quality the crop fails with an IOException
+         * and the output is left untouched.
+         */
+        public void setMaxResultFileSize(@IntRange(from = 0) long maxFileSize) {
+            mOptionBundle.putLong(EXTRA_MAX_RESULT_FILE_SIZE, maxFileSize);
+        }
+
+        /**
+         * Set perceptual quality the result should keep, as SSIM between the cropped pixels and the encoded image
+         * (e.g. 0.95). Instead of a fixed compression quality the lowest quality that reaches the score is used,
+         * {@link #setCompressionQuality(int)} is the upper bound. Flat images get smaller, detailed ones keep
+         * their detail. Applies to lossy formats; combined with {@link #setMaxResultFileSize(long)}
+         * the size limit wins.
+         */
+        public void setTargetQualityScore(@FloatRange(from = 0, to = 1) float score) {
+            mOptionBundle.putFloat(EXTRA_TARGET_QUALITY_SCORE, score);
+        }
+
+        /**
+         * Let the output format be picked from the cropped image: photos become JPEG (or lossy WebP),
+         * screenshots, logos and other graphics PNG (or lossless WebP), images with transparency never JPEG.
+         * Compression format set with {@link #setCompressionFormat(Bitmap.CompressFormat)} is ignored.
+         * Picked format is reported with {@link UCrop#getOutputFormat(Intent)} and {@link UCrop#getOutputMimeType(Intent)}.
+         *
+         * @param autoFormat - {@link CropImageView#AUTO_FORMAT_DISABLE} (default), {@link CropImageView#AUTO_FORMAT_JPEG_PNG}
+         *                   or {@link CropImageView#AUTO_FORMAT_WEBP}
+         */
+        public void setAutoFormat(@CropImageView.AutoFormat int autoFormat) {
+            mOptionBundle.putInt(EXTRA_AUTO_FORMAT, autoFormat);
+        }
+
+        /**
+         * Choose the filter used to sample the source into resulting image. Bilinear is fast and good enough
+         * for small changes of scale, bicubic and Lanczos keep more detail, area averages source pixels weighted
+         * by how much of each the output pixel covers and suits strong downscaling, nearest keeps hard pixel edges.
+         * Downscales above 2x are pre-filtered by bilinear, bicubic and Lanczos, area needs it only above 15x.
+         *
+         * @param resampling - {@link CropImageView#RESAMPLING_NEAREST}, {@link CropImageView#RESAMPLING_BILINEAR} (default),
+         *                   {@link CropImageView#RESAMPLING_BICUBIC}, {@link CropImageView#RESAMPLING_LANCZOS3}
+         *                   or {@link CropImageView#RESAMPLING_AREA}
+         */
+        public void setResampling(@CropImageView.Resampling int resampling) {
+            mOptionBundle.putInt(EXTRA_RESAMPLING, resampling);
+        }
+
+        /**
+         * Set number of threads the native crop uses to sample, analyze and compress the result.
+         * By default (0) it runs on all big cores of the device, little cores are left alone
+         * because they would finish their share last.
+         */
+        public void setThreadCount(@IntRange(from = 0) int threadCount) {
+            mOptionBundle.putInt(EXTRA_THREAD_COUNT, threadCount);
+        }
+
+        /**
+         * Choose how resulting image is flushed to the storage before it replaces the output.
+         * File outputs are replaced atomically, content outputs are only written once the result is complete.
+         * Syncing additionally protects the output from power loss.
+         *
+         * @param fsyncMode - {@link OutputCommitter#FSYNC_NONE} (default), {@link OutputCommitter#FSYNC_DATA}
+         *                  or {@link OutputCommitter#FSYNC_FULL}
+         */
+        public void setOutputFsyncMode(@OutputCommitter.FsyncMode int fsyncMode) {
+            mOptionBundle.putInt(EXTRA_OUTPUT_FSYNC_MODE, fsyncMode);
+        }
+
         /**
          * Choose what set of gestures will be enabled on each tab - if any.
          */
@@ -394,6 +542,13 @@ public class UCrop {
             mOptionBundle.putBoolean(EXTRA_CIRCLE_DIMMED_LAYER, isCircle);
         }
 
+        /**
+         * @param enabled - set to true to draw the image, dimmed layer, crop frame and grid in a single view pass
+         */
+        public void setCompositeRenderingEnabled(boolean enabled) {
+            mOptionBundle.putBoolean(EXTRA_COMPOSITE_RENDERING, enabled);
+        }
+
         /**
          * @param show - set to true if you want to see a crop frame rectangle on top of an image
          */
@@ -2,6 +2,7 @@ package com.yalantis.ucrop;
 
 import android.annotation.TargetApi;
 import android.content.Intent;
+import android.content.res.ColorStateList;
 import android.graphics.Bitmap;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.Animatable;
@@ -22,11 +23,13 @@ import android.view.animation.AccelerateInterpolator;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import com.yalantis.ucrop.callback.BitmapCropCallback;
 import com.yalantis.ucrop.model.AspectRatio;
+import com.yalantis.ucrop.model.OutputInfo;
 import com.yalantis.ucrop.util.SelectedStateListDrawable;
 import com.yalantis.ucrop.view.CropImageView;
 import com.yalantis.ucrop.view.GestureCropImageView;
@@ -119,6 +122,7 @@ public class UCropActivity extends AppCompatActivity {
             mTextViewBrightness, mTextViewContrast, mTextViewSaturation,
             mTextViewSharpness;
     private View mBlockingView;
+    private ProgressBar mCropProgressBar;
 
     private Transition mControlsTransition;
 
@@ -192,14 +196,32 @@ public class UCropActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (UCropFrameMetrics.isEnabled()) {
+            UCropFrameMetrics.attach(getWindow());
+        }
+    }
+
     @Override
     protected void onStop() {
         super.onStop();
+        UCropFrameMetrics.detach(getWindow());
         if (mGestureCropImageView != null) {
             mGestureCropImageView.cancelAllAnimations();
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Views of a window that was never shown are not detached
+        if (mGestureCropImageView != null) {
+            mGestureCropImageView.cancelBackgroundWork();
+        }
+    }
+
     /**
      * This method extracts all data from the incoming intent and setups views properly.
      */
@@ -247,12 +269,20 @@ public class UCropActivity extends AppCompatActivity {
         mGestureCropImageView.setMaxBitmapSize(intent.getIntExtra(UCrop.Options.EXTRA_MAX_BITMAP_SIZE, CropImageView.DEFAULT_MAX_BITMAP_SIZE));
         mGestureCropImageView.setMaxScaleMultiplier(intent.getFloatExtra(UCrop.Options.EXTRA_MAX_SCALE_MULTIPLIER, CropImageView.DEFAULT_MAX_SCALE_MULTIPLIER));
         mGestureCropImageView.setImageToWrapCropBoundsAnimDuration(intent.getIntExtra(UCrop.Options.EXTRA_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION, CropImageView.DEFAULT_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION));
+        mGestureCropImageView.setOutputFsyncMode(intent.getIntExtra(UCrop.Options.EXTRA_OUTPUT_FSYNC_MODE, CropImageView.DEFAULT_OUTPUT_FSYNC_MODE));
+        mGestureCropImageView.setAvifCompressionEnabled(intent.getBooleanExtra(UCrop.Options.EXTRA_AVIF_COMPRESSION, CropImageView.DEFAULT_AVIF_COMPRESSION));
+        mGestureCropImageView.setMaxResultFileSize(intent.getLongExtra(UCrop.Options.EXTRA_MAX_RESULT_FILE_SIZE, CropImageView.DEFAULT_MAX_RESULT_FILE_SIZE));
+        mGestureCropImageView.setTargetQualityScore(intent.getFloatExtra(UCrop.Options.EXTRA_TARGET_QUALITY_SCORE, CropImageView.DEFAULT_TARGET_QUALITY_SCORE));
+        mGestureCropImageView.setAutoFormat(intent.getIntExtra(UCrop.Options.EXTRA_AUTO_FORMAT, CropImageView.DEFAULT_AUTO_FORMAT));
+        mGestureCropImageView.setResampling(intent.getIntExtra(UCrop.Options.EXTRA_RESAMPLING, CropImageView.DEFAULT_RESAMPLING));
+        mGestureCropImageView.setThreadCount(intent.getIntExtra(UCrop.Options.EXTRA_THREAD_COUNT, CropImageView.DEFAULT_THREAD_COUNT));
 
         // Overlay view options
         mOverlayView.setFreestyleCropEnabled(intent.getBooleanExtra(UCrop.Options.EXTRA_FREE_STYLE_CROP, OverlayView.DEFAULT_FREESTYLE_CROP_MODE != OverlayView.FREESTYLE_CROP_MODE_DISABLE));
 
         mOverlayView.setDimmedColor(intent.getIntExtra(UCrop.Options.EXTRA_DIMMED_LAYER_COLOR, getResources().getColor(R.color.ucrop_color_default_dimmed)));
         mOverlayView.setCircleDimmedLayer(intent.getBooleanExtra(UCrop.Options.EXTRA_CIRCLE_DIMMED_LAYER, OverlayView.DEFAULT_CIRCLE_DIMMED_LAYER));
+        mUCropView.setCompositeRenderingEnabled(intent.getBooleanExtra(UCrop.Options.EXTRA_COMPOSITE_RENDERING, false));
 
         mOverlayView.setShowCropFrame(intent.getBooleanExtra(UCrop.Options.EXTRA_SHOW_CROP_FRAME, OverlayView.DEFAULT_SHOW_CROP_FRAME));
         mOverlayView.setCropFrameColor(intent.getIntExtra(UCrop.Options.EXTRA_CROP_FRAME_COLOR, getResources().getColor(R.color.ucrop_color_default_crop_frame)));
@@ -404,6 +434,9 @@ public class UCropActivity extends AppCompatActivity {
 
         ((ImageView) findViewById(R.id.image_view_logo)).setColorFilter(mLogoColor, PorterDuff.Mode.SRC_ATOP);
 
+        mCropProgressBar = findViewById(R.id.crop_progress);
+        mCropProgressBar.setProgressTintList(ColorStateList.valueOf(mActiveControlsWidgetColor));
+
         findViewById(R.id.ucrop_frame).setBackgroundColor(mRootViewBackgroundColor);
         if (!mShowBottomControls) {
             RelativeLayout.LayoutParams params = (RelativeLayout.LayoutParams) findViewById(R.id.ucrop_frame).getLayoutParams();
@@ -859,15 +892,29 @@ public class UCropActivity extends AppCompatActivity {
         mBlockingView.setClickable(true);
         mShowLoader = true;
         supportInvalidateOptionsMenu();
+        mCropProgressBar.setProgress(0);
+        mCropProgressBar.setVisibility(View.VISIBLE);
 
         mGestureCropImageView.cropAndSaveImage(mCompressFormat, mCompressQuality, new BitmapCropCallback() {
 
+            @Override
+            public void onProgress(float progress) {
+                mCropProgressBar.setProgress(Math.round(progress * mCropProgressBar.getMax()));
+            }
+
             @Override
             public void onBitmapCropped(@NonNull Uri resultUri, int offsetX, int offsetY, int imageWidth, int imageHeight) {
                 setResultUri(resultUri, mGestureCropImageView.getTargetAspectRatio(), offsetX, offsetY, imageWidth, imageHeight);
                 finish();
             }
 
+            @Override
+            public void onBitmapCropped(@NonNull Uri resultUri, int offsetX, int offsetY, int imageWidth, int imageHeight,
+                                        @NonNull OutputInfo outputInfo) {
+                setResultUri(resultUri, mGestureCropImageView.getTargetAspectRatio(), offsetX, offsetY, imageWidth, imageHeight, outputInfo);
+                finish();
+            }
+
             @Override
             public void onCropFailure(@NonNull Throwable t) {
                 setResultError(t);
@@ -887,6 +934,23 @@ public class UCropActivity extends AppCompatActivity {
         );
     }
 
+    protected void setResultUri(Uri uri, float resultAspectRatio, int offsetX, int offsetY, int imageWidth, int imageHeight,
+                                @NonNull OutputInfo outputInfo) {
+        setResult(RESULT_OK, new Intent()
+                .putExtra(UCrop.EXTRA_OUTPUT_URI, uri)
+                .putExtra(UCrop.EXTRA_OUTPUT_CROP_ASPECT_RATIO, resultAspectRatio)
+                .putExtra(UCrop.EXTRA_OUTPUT_IMAGE_WIDTH, imageWidth)
+                .putExtra(UCrop.EXTRA_OUTPUT_IMAGE_HEIGHT, imageHeight)
+                .putExtra(UCrop.EXTRA_OUTPUT_OFFSET_X, offsetX)
+                .putExtra(UCrop.EXTRA_OUTPUT_OFFSET_Y, offsetY)
+                .putExtra(UCrop.EXTRA_OUTPUT_FORMAT, outputInfo.getFormat())
+                .putExtra(UCrop.EXTRA_OUTPUT_MIME_TYPE, outputInfo.getMimeType())
+                .putExtra(UCrop.EXTRA_OUTPUT_COMPRESSION_QUALITY, outputInfo.getCompressQuality())
+                .putExtra(UCrop.EXTRA_OUTPUT_FILE_SIZE, outputInfo.getFileSize())
+                .putExtra(UCrop.EXTRA_OUTPUT_QUALITY_SCORE, outputInfo.getQualityScore())
+        );
+    }
+
     protected void setResultError(Throwable throwable) {
         setResult(UCrop.RESULT_ERROR, new Intent().putExtra(UCrop.EXTRA_ERROR, throwable));
     }
@@ -20,6 +20,7 @@ import android.widget.TextView;
 
 import com.yalantis.ucrop.callback.BitmapCropCallback;
 import com.yalantis.ucrop.model.AspectRatio;
+import com.yalantis.ucrop.model.OutputInfo;
 import com.yalantis.ucrop.util.SelectedStateListDrawable;
 import com.yalantis.ucrop.view.CropImageView;
 import com.yalantis.ucrop.view.GestureCropImageView;
@@ -128,6 +129,28 @@ public class UCropFragment extends Fragment {
                     + " must implement UCropFragmentCallback");
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        if (UCropFrameMetrics.isEnabled()) {
+            UCropFrameMetrics.attach(requireActivity().getWindow());
+        }
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        UCropFrameMetrics.detach(requireActivity().getWindow());
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (mGestureCropImageView != null) {
+            mGestureCropImageView.cancelBackgroundWork();
+        }
+    }
+
     public void setCallback(UCropFragmentCallback callback) {
         this.callback = callback;
     }
@@ -247,12 +270,20 @@ public class UCropFragment extends Fragment {
         mGestureCropImageView.setMaxBitmapSize(bundle.getInt(UCrop.Options.EXTRA_MAX_BITMAP_SIZE, CropImageView.DEFAULT_MAX_BITMAP_SIZE));
         mGestureCropImageView.setMaxScaleMultiplier(bundle.getFloat(UCrop.Options.EXTRA_MAX_SCALE_MULTIPLIER, CropImageView.DEFAULT_MAX_SCALE_MULTIPLIER));
         mGestureCropImageView.setImageToWrapCropBoundsAnimDuration(bundle.getInt(UCrop.Options.EXTRA_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION, CropImageView.DEFAULT_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION));
+        mGestureCropImageView.setOutputFsyncMode(bundle.getInt(UCrop.Options.EXTRA_OUTPUT_FSYNC_MODE, CropImageView.DEFAULT_OUTPUT_FSYNC_MODE));
+        mGestureCropImageView.setAvifCompressionEnabled(bundle.getBoolean(UCrop.Options.EXTRA_AVIF_COMPRESSION, CropImageView.DEFAULT_AVIF_COMPRESSION));
+        mGestureCropImageView.setMaxResultFileSize(bundle.getLong(UCrop.Options.EXTRA_MAX_RESULT_FILE_SIZE, CropImageView.DEFAULT_MAX_RESULT_FILE_SIZE));
+        mGestureCropImageView.setTargetQualityScore(bundle.getFloat(UCrop.Options.EXTRA_TARGET_QUALITY_SCORE, CropImageView.DEFAULT_TARGET_QUALITY_SCORE));
+        mGestureCropImageView.setAutoFormat(bundle.getInt(UCrop.Options.EXTRA_AUTO_FORMAT, CropImageView.DEFAULT_AUTO_FORMAT));
+        mGestureCropImageView.setResampling(bundle.getInt(UCrop.Options.EXTRA_RESAMPLING, CropImageView.DEFAULT_RESAMPLING));
+        mGestureCropImageView.setThreadCount(bundle.getInt(UCrop.Options.EXTRA_THREAD_COUNT, CropImageView.DEFAULT_THREAD_COUNT));
 
         // Overlay view options
         mOverlayView.setFreestyleCropEnabled(bundle.getBoolean(UCrop.Options.EXTRA_FREE_STYLE_CROP, OverlayView.DEFAULT_FREESTYLE_CROP_MODE != OverlayView.FREESTYLE_CROP_MODE_DISABLE));
 
         mOverlayView.setDimmedColor(bundle.getInt(UCrop.Options.EXTRA_DIMMED_LAYER_COLOR, getResources().getColor(R.color.ucrop_color_default_dimmed)));
         mOverlayView.setCircleDimmedLayer(bundle.getBoolean(UCrop.Options.EXTRA_CIRCLE_DIMMED_LAYER, OverlayView.DEFAULT_CIRCLE_DIMMED_LAYER));
+        mUCropView.setCompositeRenderingEnabled(bundle.getBoolean(UCrop.Options.EXTRA_COMPOSITE_RENDERING, false));
 
         mOverlayView.setShowCropFrame(bundle.getBoolean(UCrop.Options.EXTRA_SHOW_CROP_FRAME, OverlayView.DEFAULT_SHOW_CROP_FRAME));
         mOverlayView.setCropFrameColor(bundle.getInt(UCrop.Options.EXTRA_CROP_FRAME_COLOR, getResources().getColor(R.color.ucrop_color_default_crop_frame)));
@@ -744,12 +775,24 @@ public class UCropFragment extends Fragment {
 
         mGestureCropImageView.cropAndSaveImage(mCompressFormat, mCompressQuality, new BitmapCropCallback() {
 
+            @Override
+            public void onProgress(float progress) {
+                callback.cropProgress(progress);
+            }
+
             @Override
             public void onBitmapCropped(@NonNull Uri resultUri, int offsetX, int offsetY, int imageWidth, int imageHeight) {
                 callback.onCropFinish(getResult(resultUri, mGestureCropImageView.getTargetAspectRatio(), offsetX, offsetY, imageWidth, imageHeight));
                 callback.loadingProgress(false);
             }
 
+            @Override
+            public void onBitmapCropped(@NonNull Uri resultUri, int offsetX, int offsetY, int imageWidth, int imageHeight,
+                                        @NonNull OutputInfo outputInfo) {
+                callback.onCropFinish(getResult(resultUri, mGestureCropImageView.getTargetAspectRatio(), offsetX, offsetY, imageWidth, imageHeight, outputInfo));
+                callback.loadingProgress(false);
+            }
+
             @Override
             public void onCropFailure(@NonNull Throwable t) {
                 callback.onCropFinish(getError(t));
@@ -768,6 +811,23 @@ public class UCropFragment extends Fragment {
         );
     }
 
+    protected UCropResult getResult(Uri uri, float resultAspectRatio, int offsetX, int offsetY, int imageWidth, int imageHeight,
+                                    @NonNull OutputInfo outputInfo) {
+        return new UCropResult(RESULT_OK, new Intent()
+                .putExtra(UCrop.EXTRA_OUTPUT_URI, uri)
+                .putExtra(UCrop.EXTRA_OUTPUT_CROP_ASPECT_RATIO, resultAspectRatio)
+                .putExtra(UCrop.EXTRA_OUTPUT_IMAGE_WIDTH, imageWidth)
+                .putExtra(UCrop.EXTRA_OUTPUT_IMAGE_HEIGHT, imageHeight)
+                .putExtra(UCrop.EXTRA_OUTPUT_OFFSET_X, offsetX)
+                .putExtra(UCrop.EXTRA_OUTPUT_OFFSET_Y, offsetY)
+                .putExtra(UCrop.EXTRA_OUTPUT_FORMAT, outputInfo.getFormat())
+                .putExtra(UCrop.EXTRA_OUTPUT_MIME_TYPE, outputInfo.getMimeType())
+                .putExtra(UCrop.EXTRA_OUTPUT_COMPRESSION_QUALITY, outputInfo.getCompressQuality())
+                .putExtra(UCrop.EXTRA_OUTPUT_FILE_SIZE, outputInfo.getFileSize())
+                .putExtra(UCrop.EXTRA_OUTPUT_QUALITY_SCORE, outputInfo.getQualityScore())
+        );
+    }
+
     protected UCropResult getError(Throwable throwable) {
         return new UCropResult(UCrop.RESULT_ERROR, new Intent().putExtra(UCrop.EXTRA_ERROR, throwable));
     }
@@ -8,6 +8,13 @@ public interface UCropFragmentCallback {
      */
     void loadingProgress(boolean showLoader);
 
+    /**
+     * Return progress of the running crop, while the loader is shown
+     * @param progress - from 0 to 1
+     */
+    default void cropProgress(float progress) {
+    }
+
     /**
      * Return cropping result or error
      * @param result
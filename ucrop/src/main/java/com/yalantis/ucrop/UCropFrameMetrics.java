@@ -0,0 +1,321 @@
+package com.yalantis.ucrop;
+
+import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.FrameMetrics;
+import android.view.MotionEvent;
+import android.view.Window;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Opt-in frame time instrumentation of uCrop editor views, meant to be forwarded to app telemetry.
+ * <p/>
+ * While a {@link Listener} is set, the views measure their draw and layout passes, image matrix updates and
+ * listener dispatch, and the time from a touch event to the first draw after it. Measurements are reported once per
+ * frame in which any of them happened. With no listener every hook is a single field check.
+ * <p/>
+ * Window frame durations and dropped frames come from {@link Window.OnFrameMetricsAvailableListener} on API 24+,
+ * once {@link #attach(Window)} is called. Allocation counting during touch gestures is a separate opt-in,
+ * see {@link #setCountGestureAllocations(boolean)}.
+ * <p/>
+ * All methods must be called on the main thread.
+ */
+public final class UCropFrameMetrics {
+
+    public static final int VIEW_CROP_IMAGE = 0;
+    public static final int VIEW_OVERLAY = 1;
+    public static final int VIEW_PROGRESS_WHEEL = 2;
+    public static final int VIEW_COUNT = 3;
+
+    public static final int SECTION_DRAW = 0;
+    public static final int SECTION_LAYOUT = 1;
+    public static final int SECTION_MATRIX = 2;
+    public static final int SECTION_LISTENERS = 3;
+    public static final int SECTION_COUNT = 4;
+
+    private static final long NO_INPUT = -1;
+
+    @Nullable
+    private static Listener sListener;
+    private static boolean sCountGestureAllocations;
+
+    private static final Frame sFrame = new Frame();
+    private static boolean sFrameReportPosted;
+    // Oldest touch event not yet followed by a draw, uptime nanoseconds
+    private static long sPendingInputNanos = NO_INPUT;
+
+    private static boolean sGestureActive;
+    private static long sGestureStartNanos;
+
+    @Nullable
+    private static Window sWindow;
+    @Nullable
+    private static Object sWindowListener;
+
+    private static final Choreographer.FrameCallback sReportFrame = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            sFrameReportPosted = false;
+            if (sListener != null) {
+                sListener.onFrame(sFrame);
+            }
+            sFrame.reset();
+        }
+    };
+
+    private UCropFrameMetrics() {
+    }
+
+    /**
+     * @param listener - receiver of measurements, null turns instrumentation off
+     */
+    public static void setListener(@Nullable Listener listener) {
+        sListener = listener;
+        if (listener == null) {
+            if (sFrameReportPosted) {
+                Choreographer.getInstance().removeFrameCallback(sReportFrame);
+                sFrameReportPosted = false;
+            }
+            sFrame.reset();
+            sPendingInputNanos = NO_INPUT;
+            endGesture();
+        }
+    }
+
+    public static boolean isEnabled() {
+        return sListener != null;
+    }
+
+    /**
+     * Counts objects allocated on the main thread from touch down to touch up with {@link Debug} allocation
+     * counting. Counting slows the runtime down, so it is best enabled only for profiling sessions.
+     *
+     * @param countGestureAllocations - whether {@link Listener#onGestureEnd(long, int, int)} gets allocation counts
+     */
+    public static void setCountGestureAllocations(boolean countGestureAllocations) {
+        sCountGestureAllocations = countGestureAllocations;
+    }
+
+    /**
+     * Starts reporting frame durations of the window that shows uCrop views. Does nothing below API 24.
+     * Only one window is observed at a time, call {@link #detach(Window)} when the window goes away.
+     */
+    public static void attach(@NonNull Window window) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N || sWindow == window) {
+            return;
+        }
+        if (sWindow != null) {
+            detach(sWindow);
+        }
+        sWindow = window;
+        sWindowListener = WindowFrameMetrics.attach(window);
+    }
+
+    public static void detach(@NonNull Window window) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N || sWindow != window) {
+            return;
+        }
+        WindowFrameMetrics.detach(window, sWindowListener);
+        sWindow = null;
+        sWindowListener = null;
+    }
+
+    /**
+     * Starts measuring a section of a uCrop view.
+     *
+     * @return - start time to pass to {@link #end(int, int, long)}, 0 if instrumentation is off
+     */
+    public static long begin() {
+        return sListener != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @param startNanos - value returned by {@link #begin()}
+     */
+    public static void end(@ViewId int view, @Section int section, long startNanos) {
+        if (startNanos == 0 || sListener == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        sFrame.mDurations[view * SECTION_COUNT + section] += now - startNanos;
+        if (section == SECTION_DRAW && sPendingInputNanos != NO_INPUT) {
+            sFrame.mInputToDrawNanos = Math.max(sFrame.mInputToDrawNanos, now - sPendingInputNanos);
+            sPendingInputNanos = NO_INPUT;
+        }
+        if (!sFrameReportPosted) {
+            sFrameReportPosted = true;
+            Choreographer.getInstance().postFrameCallback(sReportFrame);
+        }
+    }
+
+    /**
+     * Called by uCrop views for every touch event they handle.
+     */
+    public static void onTouchEvent(@NonNull MotionEvent event) {
+        if (sListener == null) {
+            return;
+        }
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                startGesture();
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                endGesture();
+                break;
+        }
+        if (sPendingInputNanos == NO_INPUT) {
+            // Event time is uptime, the same clock as System.nanoTime() on Android
+            sPendingInputNanos = event.getEventTime() * 1000000L;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void startGesture() {
+        if (sGestureActive) {
+            return;
+        }
+        sGestureActive = true;
+        sGestureStartNanos = System.nanoTime();
+        if (sCountGestureAllocations) {
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void endGesture() {
+        if (!sGestureActive) {
+            return;
+        }
+        sGestureActive = false;
+        int allocationCount = -1, allocationBytes = -1;
+        if (sCountGestureAllocations) {
+            Debug.stopAllocCounting();
+            allocationCount = Debug.getThreadAllocCount();
+            allocationBytes = Debug.getThreadAllocSize();
+        }
+        if (sListener != null) {
+            sListener.onGestureEnd(System.nanoTime() - sGestureStartNanos, allocationCount, allocationBytes);
+        }
+    }
+
+    /**
+     * Work uCrop views did in one frame. The instance is reused, values are only valid inside
+     * {@link Listener#onFrame(Frame)}.
+     */
+    public static final class Frame {
+
+        private final long[] mDurations = new long[VIEW_COUNT * SECTION_COUNT];
+        private long mInputToDrawNanos = NO_INPUT;
+
+        private Frame() {
+        }
+
+        public long getDurationNanos(@ViewId int view, @Section int section) {
+            return mDurations[view * SECTION_COUNT + section];
+        }
+
+        /**
+         * @return - time from the oldest touch event of the frame to the end of the first draw after it,
+         * -1 if there was no touch input
+         */
+        public long getInputToDrawNanos() {
+            return mInputToDrawNanos;
+        }
+
+        private void reset() {
+            for (int i = 0; i < mDurations.length; i++) {
+                mDurations[i] = 0;
+            }
+            mInputToDrawNanos = NO_INPUT;
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * Called on the next frame after uCrop views did some measured work.
+         */
+        void onFrame(@NonNull Frame frame);
+
+        /**
+         * Called for every frame of the attached window, API 24+ only.
+         *
+         * @param totalDurationNanos - {@link FrameMetrics#TOTAL_DURATION} of the frame
+         * @param droppedFrames      - display refreshes the frame took beyond the first one
+         */
+        void onWindowFrame(long totalDurationNanos, int droppedFrames);
+
+        /**
+         * Called when a touch gesture on a uCrop view ends.
+         *
+         * @param allocationCount - objects allocated on the main thread during the gesture,
+         *                        -1 unless {@link #setCountGestureAllocations(boolean)} is on
+         * @param allocationBytes - bytes of those objects, -1 unless counted
+         */
+        void onGestureEnd(long durationNanos, int allocationCount, int allocationBytes);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    private static final class WindowFrameMetrics {
+
+        static Object attach(@NonNull Window window) {
+            final float refreshRate = getDisplay(window).getRefreshRate();
+            final long refreshIntervalNanos = (long) (1e9 / (refreshRate > 0 ? refreshRate : 60));
+            Window.OnFrameMetricsAvailableListener listener = new Window.OnFrameMetricsAvailableListener() {
+                @Override
+                public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCountSinceLastInvocation) {
+                    if (sListener == null || frameMetrics.getMetric(FrameMetrics.FIRST_DRAW_FRAME) == 1) {
+                        return;
+                    }
+                    long total = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+                    long interval = refreshIntervalNanos;
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                        interval = Math.max(1, frameMetrics.getMetric(FrameMetrics.DEADLINE));
+                    }
+                    sListener.onWindowFrame(total, (int) (Math.max(0, total - 1) / interval));
+                }
+            };
+            window.addOnFrameMetricsAvailableListener(listener, new Handler(Looper.getMainLooper()));
+            return listener;
+        }
+
+        @SuppressWarnings("deprecation")
+        private static Display getDisplay(@NonNull Window window) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                return window.getContext().getDisplay();
+            }
+            return window.getWindowManager().getDefaultDisplay();
+        }
+
+        static void detach(@NonNull Window window, @Nullable Object listener) {
+            if (listener != null) {
+                window.removeOnFrameMetricsAvailableListener((Window.OnFrameMetricsAvailableListener) listener);
+            }
+        }
+    }
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({VIEW_CROP_IMAGE, VIEW_OVERLAY, VIEW_PROGRESS_WHEEL})
+    public @interface ViewId {
+    }
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({SECTION_DRAW, SECTION_LAYOUT, SECTION_MATRIX, SECTION_LISTENERS})
+    public @interface Section {
+    }
+
+}
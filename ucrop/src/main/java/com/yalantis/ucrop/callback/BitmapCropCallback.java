@@ -4,10 +4,30 @@ import android.net.Uri;
 
 import androidx.annotation.NonNull;
 
+import com.yalantis.ucrop.model.OutputInfo;
+
 public interface BitmapCropCallback {
 
     void onBitmapCropped(@NonNull Uri resultUri, int offsetX, int offsetY, int imageWidth, int imageHeight);
 
+    /**
+     * Same as {@link #onBitmapCropped(Uri, int, int, int, int)} with details on how the result was encoded.
+     * It is the one called by the crop task; by default it just drops the details.
+     */
+    default void onBitmapCropped(@NonNull Uri resultUri, int offsetX, int offsetY, int imageWidth, int imageHeight,
+                                 @NonNull OutputInfo outputInfo) {
+        onBitmapCropped(resultUri, offsetX, offsetY, imageWidth, imageHeight);
+    }
+
     void onCropFailure(@NonNull Throwable t);
 
-}
\ No newline at end of file
+    /**
+     * Called on the main thread while the crop runs, a cancelled crop ends with
+     * {@link #onCropFailure(Throwable)} and a {@link java.util.concurrent.CancellationException}.
+     *
+     * @param progress - share of the crop done, from 0 to 1, never decreases
+     */
+    default void onProgress(float progress) {
+    }
+
+}
@@ -1,6 +1,11 @@
 package com.yalantis.ucrop.model;
 
 import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.yalantis.ucrop.task.NativeCropSession;
+import com.yalantis.ucrop.util.OutputCommitter;
+import com.yalantis.ucrop.view.CropImageView;
 
 /**
  * Created by Oleksii Shliama [https://github.com/shliama] on 6/21/16.
@@ -19,6 +24,16 @@ public class CropParameters {
     private float mSaturation;
     private float mSharpness;
 
+    private Uri mImageOutputUri;
+    private int mOutputFsyncMode = OutputCommitter.FSYNC_NONE;
+    private boolean mAvifCompressionEnabled;
+    private long mMaxResultFileSize;
+    private float mTargetQualityScore;
+    private int mAutoFormat;
+    private int mResampling = CropImageView.DEFAULT_RESAMPLING;
+    private int mThreadCount = CropImageView.DEFAULT_THREAD_COUNT;
+    private NativeCropSession mNativeCropSession;
+
     public CropParameters(int maxResultImageSizeX, int maxResultImageSizeY,
                           Bitmap.CompressFormat compressFormat, int compressQuality,
                           String imageInputPath, String imageOutputPath, ExifInfo exifInfo,
@@ -80,4 +95,100 @@ public class CropParameters {
     public float getSharpness() {
         return mSharpness;
     }
+
+    /**
+     * @return - destination Uri; when null the result is written to {@link #getImageOutputPath()}
+     */
+    public Uri getImageOutputUri() {
+        return mImageOutputUri;
+    }
+
+    public void setImageOutputUri(Uri imageOutputUri) {
+        mImageOutputUri = imageOutputUri;
+    }
+
+    public int getOutputFsyncMode() {
+        return mOutputFsyncMode;
+    }
+
+    public void setOutputFsyncMode(@OutputCommitter.FsyncMode int outputFsyncMode) {
+        mOutputFsyncMode = outputFsyncMode;
+    }
+
+    /**
+     * @return - true if result should be encoded as AVIF when the native encoder supports it
+     */
+    public boolean isAvifCompressionEnabled() {
+        return mAvifCompressionEnabled;
+    }
+
+    public void setAvifCompressionEnabled(boolean avifCompressionEnabled) {
+        mAvifCompressionEnabled = avifCompressionEnabled;
+    }
+
+    /**
+     * @return - maximum size of the result in bytes, 0 if not limited
+     */
+    public long getMaxResultFileSize() {
+        return mMaxResultFileSize;
+    }
+
+    public void setMaxResultFileSize(long maxResultFileSize) {
+        mMaxResultFileSize = maxResultFileSize;
+    }
+
+    /**
+     * @return - SSIM the result should reach with the lowest possible quality, 0 if compress quality is used as is
+     */
+    public float getTargetQualityScore() {
+        return mTargetQualityScore;
+    }
+
+    public void setTargetQualityScore(float targetQualityScore) {
+        mTargetQualityScore = targetQualityScore;
+    }
+
+    /**
+     * @return - one of CropImageView AUTO_FORMAT_* constants
+     */
+    public int getAutoFormat() {
+        return mAutoFormat;
+    }
+
+    public void setAutoFormat(@CropImageView.AutoFormat int autoFormat) {
+        mAutoFormat = autoFormat;
+    }
+
+    /**
+     * @return - one of CropImageView RESAMPLING_* constants
+     */
+    public int getResampling() {
+        return mResampling;
+    }
+
+    public void setResampling(@CropImageView.Resampling int resampling) {
+        mResampling = resampling;
+    }
+
+    /**
+     * @return - number of threads for the native crop, 0 to use all big cores
+     */
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        mThreadCount = threadCount;
+    }
+
+    /**
+     * @return - session whose native buffers the crop reuses, null to allocate them for this crop only
+     */
+    public NativeCropSession getNativeCropSession() {
+        return mNativeCropSession;
+    }
+
+    public void setNativeCropSession(NativeCropSession nativeCropSession) {
+        mNativeCropSession = nativeCropSession;
+    }
 }
@@ -0,0 +1,66 @@
+package com.yalantis.ucrop.model;
+
+import androidx.annotation.Nullable;
+
+import com.yalantis.ucrop.task.BitmapCropTask;
+
+/**
+ * Describes how the crop result was encoded.
+ */
+public class OutputInfo {
+
+    private final int mFormat;
+    private final int mCompressQuality;
+    private final long mFileSize;
+    private final float mQualityScore;
+
+    /**
+     * @param format          - one of BitmapCropTask FORMAT_* constants
+     * @param compressQuality - quality the result was encoded with
+     * @param fileSize        - size of the result in bytes
+     * @param qualityScore    - SSIM of the result against the cropped pixels, -1 if not measured
+     */
+    public OutputInfo(int format, int compressQuality, long fileSize, float qualityScore) {
+        mFormat = format;
+        mCompressQuality = compressQuality;
+        mFileSize = fileSize;
+        mQualityScore = qualityScore;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getCompressQuality() {
+        return mCompressQuality;
+    }
+
+    public long getFileSize() {
+        return mFileSize;
+    }
+
+    public float getQualityScore() {
+        return mQualityScore;
+    }
+
+    /**
+     * @return - MIME type of the result or null if the source image was copied as is
+     */
+    @Nullable
+    public String getMimeType() {
+        switch (mFormat) {
+            case BitmapCropTask.FORMAT_JPEG:
+                return "image/jpeg";
+            case BitmapCropTask.FORMAT_PNG:
+                return "image/png";
+            case BitmapCropTask.FORMAT_WEBP:
+            case BitmapCropTask.FORMAT_WEBP_LOSSY:
+            case BitmapCropTask.FORMAT_WEBP_LOSSLESS:
+                return "image/webp";
+            case BitmapCropTask.FORMAT_AVIF:
+                return "image/avif";
+            default:
+                return null;
+        }
+    }
+}
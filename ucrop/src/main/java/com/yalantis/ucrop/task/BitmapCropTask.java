@@ -3,19 +3,14 @@ package com.yalantis.ucrop.task;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
 import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Matrix;
-import android.graphics.Paint;
+import android.graphics.ColorSpace;
 import android.graphics.RectF;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
-import android.renderscript.Allocation;
-import android.renderscript.Element;
-import android.renderscript.RenderScript;
-import android.renderscript.ScriptIntrinsicConvolve3x3;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -26,31 +21,84 @@ import com.yalantis.ucrop.callback.BitmapCropCallback;
 import com.yalantis.ucrop.model.CropParameters;
 import com.yalantis.ucrop.model.ExifInfo;
 import com.yalantis.ucrop.model.ImageState;
+import com.yalantis.ucrop.model.OutputInfo;
 import com.yalantis.ucrop.util.ColorFilterGenerator;
 import com.yalantis.ucrop.util.FileUtils;
 import com.yalantis.ucrop.util.ImageHeaderParser;
+import com.yalantis.ucrop.util.OutputCommitter;
+import com.yalantis.ucrop.view.CropImageView;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 
 /**
  * Crops part of image that fills the crop bounds.
  * <p/>
  * First image is downscaled if max size was set and if resulting image is larger that max size.
+ * Source is decoded from file, unless the view bitmap already holds it at full resolution.
  * Then image is rotated accordingly.
  * Finally new Bitmap object is created and saved to file.
+ * <p/>
+ * Result is written through {@link OutputCommitter}, so a failed or cancelled crop leaves the output Uri untouched.
+ * <p/>
+ * Progress is reported to {@link BitmapCropCallback#onProgress(float)} while the crop runs and {@link #cancelCrop()}
+ * stops it, native crop included, with a {@link CancellationException} passed to the callback.
  */
 public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
 
     private static final String TAG = "BitmapCropTask";
 
+    /**
+     * Native output formats. Values up to {@link #FORMAT_WEBP_LOSSLESS} match {@link Bitmap.CompressFormat} ordinals.
+     */
+    public static final int FORMAT_JPEG = 0;
+    public static final int FORMAT_PNG = 1;
+    public static final int FORMAT_WEBP = 2;
+    public static final int FORMAT_WEBP_LOSSY = 3;
+    public static final int FORMAT_WEBP_LOSSLESS = 4;
+    public static final int FORMAT_AVIF = 5;
+    /**
+     * Requests for a format picked from image content, never reported as a result format.
+     */
+    private static final int FORMAT_AUTO = 6;
+    private static final int FORMAT_AUTO_WEBP = 7;
+    /**
+     * Result is a copy of the source image.
+     */
+    public static final int FORMAT_SOURCE = -1;
+
+    /**
+     * Slots of the array that native crop fills with encoding details.
+     */
+    private static final int ENCODE_INFO_FORMAT = 0;
+    private static final int ENCODE_INFO_QUALITY = 1;
+    private static final int ENCODE_INFO_FILE_SIZE = 2;
+    private static final int ENCODE_INFO_SCORE = 3;
+    private static final int ENCODE_INFO_SIZE = 4;
+
+    /**
+     * Layout of the buffer shared with native crop, see progress.h: cancellation flag and progress,
+     * both 32 bit ints in native byte order. Progress is in 1/PROGRESS_SCALE units.
+     */
+    private static final int CONTROL_CANCELLED = 0;
+    private static final int CONTROL_PROGRESS = 4;
+    private static final int CONTROL_SIZE = 8;
+    private static final float PROGRESS_SCALE = 10000f;
+
+    private static final long PROGRESS_POLL_INTERVAL_MS = 50;
+
     static {
         System.loadLibrary("ucrop");
     }
 
     private Context mContext;
     private Bitmap mViewBitmap;
+    private boolean mViewBitmapFullResolution;
 
     private final RectF mCropRect;
     private final RectF mCurrentImageRect;
@@ -60,7 +108,16 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
 
     private final Bitmap.CompressFormat mCompressFormat;
     private final int mCompressQuality;
+    private final boolean mAvifCompressionEnabled;
+    private final long mMaxResultFileSize;
+    private final float mTargetQualityScore;
+    private final int mAutoFormat;
+    private final int mResampling;
+    private final int mThreadCount;
+    private final NativeCropSession mNativeCropSession;
     private final String mImageInputPath, mImageOutputPath;
+    private final Uri mImageOutputUri;
+    private final int mOutputFsyncMode;
     private final ExifInfo mExifInfo;
     private final BitmapCropCallback mCropCallback;
 
@@ -72,6 +129,21 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
 
     private int mCroppedImageWidth, mCroppedImageHeight;
     private int cropOffsetX, cropOffsetY;
+    private OutputInfo mOutputInfo;
+
+    private final ByteBuffer mNativeControl = ByteBuffer.allocateDirect(CONTROL_SIZE).order(ByteOrder.nativeOrder());
+    private volatile boolean mCropCancelled;
+    private final List<String> mDeleteWhenDone = new ArrayList<>();
+    private final Handler mProgressHandler = new Handler(Looper.getMainLooper());
+    private float mReportedProgress;
+
+    private final Runnable mProgressPoll = new Runnable() {
+        @Override
+        public void run() {
+            reportProgress(mNativeControl.getInt(CONTROL_PROGRESS) / PROGRESS_SCALE);
+            mProgressHandler.postDelayed(this, PROGRESS_POLL_INTERVAL_MS);
+        }
+    };
 
     public BitmapCropTask(@NonNull Context context, @Nullable Bitmap viewBitmap, @NonNull ImageState imageState, @NonNull CropParameters cropParameters,
                           @Nullable BitmapCropCallback cropCallback) {
@@ -87,9 +159,19 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
 
         mCompressFormat = cropParameters.getCompressFormat();
         mCompressQuality = cropParameters.getCompressQuality();
+        mAvifCompressionEnabled = cropParameters.isAvifCompressionEnabled();
+        mMaxResultFileSize = cropParameters.getMaxResultFileSize();
+        mTargetQualityScore = cropParameters.getTargetQualityScore();
+        mAutoFormat = cropParameters.getAutoFormat();
+        mResampling = cropParameters.getResampling();
+        mThreadCount = cropParameters.getThreadCount();
+        mNativeCropSession = cropParameters.getNativeCropSession();
 
         mImageInputPath = cropParameters.getImageInputPath();
         mImageOutputPath = cropParameters.getImageOutputPath();
+        mImageOutputUri = cropParameters.getImageOutputUri() != null
+                ? cropParameters.getImageOutputUri() : Uri.fromFile(new File(mImageOutputPath));
+        mOutputFsyncMode = cropParameters.getOutputFsyncMode();
         mExifInfo = cropParameters.getExifInfo();
 
         mBrightness = cropParameters.getBrightness();
@@ -101,10 +183,54 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
         mCropCallback = cropCallback;
     }
 
+    /**
+     * Stops the crop as soon as possible, between row bands while the native crop samples and encodes.
+     * Output is left untouched and the callback gets {@link BitmapCropCallback#onCropFailure(Throwable)}
+     * with a {@link CancellationException}. Can be called from any thread.
+     */
+    public void cancelCrop() {
+        mCropCancelled = true;
+        mNativeControl.putInt(CONTROL_CANCELLED, 1);
+    }
+
+    public boolean isCropCancelled() {
+        return mCropCancelled;
+    }
+
+    /**
+     * Deletes given file once the crop is done, right away if it is done already.
+     * Lets the crop finish reading a source copy that its view does not need anymore.
+     * Must be called from the main thread.
+     *
+     * @param path - file to delete
+     */
+    public void deleteWhenDone(@NonNull String path) {
+        if (getStatus() == Status.FINISHED) {
+            deleteFile(path);
+        } else {
+            mDeleteWhenDone.add(path);
+        }
+    }
+
+    private static void deleteFile(@NonNull String path) {
+        if (!new File(path).delete()) {
+            Log.d(TAG, "Cannot delete " + path);
+        }
+    }
+
+    @Override
+    protected void onPreExecute() {
+        if (mCropCallback != null) {
+            mProgressHandler.post(mProgressPoll);
+        }
+    }
+
     @Override
     @Nullable
     protected Throwable doInBackground(Void... params) {
-        if (mViewBitmap == null) {
+        if (mCropCancelled) {
+            return new CancellationException("Crop was cancelled");
+        } else if (mViewBitmap == null) {
             return new NullPointerException("ViewBitmap is null");
         } else if (mViewBitmap.isRecycled()) {
             return new NullPointerException("ViewBitmap is recycled");
@@ -116,54 +242,6 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
 
         try {
             crop(resizeScale);
-
-            if (mBrightness != 0.0f || mContrast != 0.0f || mSaturation != 0.0f || mSharpness != 0.0f) {
-                Bitmap sourceBitmap = BitmapFactory.decodeFile(mImageOutputPath);
-                Bitmap alteredBitmap = Bitmap.createBitmap(sourceBitmap.getWidth(), sourceBitmap.getHeight(), sourceBitmap.getConfig());
-
-                ColorMatrix cm = new ColorMatrix();
-                ColorFilterGenerator.adjustBrightness(cm, mBrightness);
-                ColorFilterGenerator.adjustContrast(cm, mContrast);
-                ColorFilterGenerator.adjustSaturation(cm, mSaturation);
-
-                ColorMatrixColorFilter colorFilter = new ColorMatrixColorFilter(cm);
-
-                Canvas canvas = new Canvas(alteredBitmap);
-                Paint paint = new Paint();
-                paint.setColorFilter(colorFilter);
-                Matrix matrix = new Matrix();
-                canvas.drawBitmap(sourceBitmap, matrix, paint);
-
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && mSharpness != 0.0f) {
-                    RenderScript rs = RenderScript.create(mContext);
-
-                    // Allocate buffers
-                    Allocation inAllocation = Allocation.createFromBitmap(rs, sourceBitmap);
-                    Allocation outAllocation = Allocation.createFromBitmap(rs, alteredBitmap);
-
-                    // Load script
-                    ScriptIntrinsicConvolve3x3 sharpnessScript = ScriptIntrinsicConvolve3x3.create(rs, Element.U8_4(rs));
-                    sharpnessScript.setInput(inAllocation);
-                    float[] coefficients = {
-                            0, -mSharpness, 0,
-                            -mSharpness, 1 + (4 * mSharpness), -mSharpness,
-                            0, -mSharpness, 0};
-                    sharpnessScript.setCoefficients(coefficients);
-                    sharpnessScript.forEach(outAllocation);
-                    outAllocation.copyTo(alteredBitmap);
-
-                    inAllocation.destroy();
-                    outAllocation.destroy();
-                    sharpnessScript.destroy();
-                    rs.destroy();
-                }
-
-                File file = new File(mImageOutputPath);
-                FileOutputStream fileOutputStream = new FileOutputStream(file);
-                alteredBitmap.compress(Bitmap.CompressFormat.JPEG, 100, fileOutputStream);
-                fileOutputStream.close();
-            }
-
             mViewBitmap = null;
         } catch (Throwable throwable) {
             return throwable;
@@ -182,6 +260,7 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
         float scaleY = (swapSides ? options.outWidth : options.outHeight) / (float) mViewBitmap.getHeight();
 
         float resizeScale = Math.min(scaleX, scaleY);
+        mViewBitmapFullResolution = scaleX == 1 && scaleY == 1;
 
         mCurrentScale /= resizeScale;
 
@@ -210,22 +289,135 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
         mCroppedImageWidth = Math.round(mCropRect.width() / mCurrentScale);
         mCroppedImageHeight = Math.round(mCropRect.height() / mCurrentScale);
 
-        boolean shouldCrop = shouldCrop(mCroppedImageWidth, mCroppedImageHeight);
+        boolean shouldCrop = shouldCrop(mCroppedImageWidth, mCroppedImageHeight) || hasAdjustments()
+                || exceedsMaxFileSize(mImageInputPath);
         Log.i(TAG, "Should crop: " + shouldCrop);
 
-        if (shouldCrop) {
-            boolean cropped = cropCImg(mImageInputPath, mImageOutputPath,
-                    cropOffsetX, cropOffsetY, mCroppedImageWidth, mCroppedImageHeight,
-                    mCurrentAngle, resizeScale, mCompressFormat.ordinal(), mCompressQuality,
-                    mExifInfo.getExifDegrees(), mExifInfo.getExifTranslation());
-            if (cropped && mCompressFormat.equals(Bitmap.CompressFormat.JPEG)) {
-                ImageHeaderParser.copyExif(originalExif, mCroppedImageWidth, mCroppedImageHeight, mImageOutputPath);
+        OutputCommitter committer = OutputCommitter.open(mContext, mImageOutputUri, mOutputFsyncMode);
+        try {
+            if (shouldCrop) {
+                int format = getOutputFormat();
+                double[] encodeInfo = new double[ENCODE_INFO_SIZE];
+                // Exif is embedded by the encoder, PNG is left without it
+                byte[] exif = format != FORMAT_PNG ? ImageHeaderParser.buildExif(originalExif,
+                        mCroppedImageWidth, mCroppedImageHeight, mContext.getCacheDir()) : null;
+                throwIfCancelled();
+                long sessionHandle = mNativeCropSession != null ? mNativeCropSession.acquire() : 0;
+                boolean cropped;
+                try {
+                    cropped = cropCImg(mImageInputPath, committer.getWritePath(),
+                            cropOffsetX, cropOffsetY, mCroppedImageWidth, mCroppedImageHeight,
+                            mCurrentAngle, resizeScale, format, mCompressQuality,
+                            mExifInfo.getExifDegrees(), mExifInfo.getExifTranslation(), mResampling, mThreadCount,
+                            getColorMatrix(), mSharpness,
+                            mMaxResultFileSize, mTargetQualityScore, encodeInfo, sessionHandle,
+                            canCropFromViewBitmap() ? mViewBitmap : null, exif, mNativeControl);
+                } finally {
+                    if (mNativeCropSession != null) {
+                        mNativeCropSession.release();
+                    }
+                }
+                if (!cropped) {
+                    return false;
+                }
+                // Automatic format is resolved natively, the file is final as written
+                format = (int) encodeInfo[ENCODE_INFO_FORMAT];
+                long fileSize = new File(committer.getWritePath()).length();
+                if (mMaxResultFileSize > 0 && fileSize > mMaxResultFileSize && isSizeLimited(format)) {
+                    throw new IOException("Result is " + fileSize + " bytes, limit is " + mMaxResultFileSize);
+                }
+                mOutputInfo = new OutputInfo(format, (int) encodeInfo[ENCODE_INFO_QUALITY], fileSize, (float) encodeInfo[ENCODE_INFO_SCORE]);
+                throwIfCancelled();
+                committer.commit();
+                return true;
+            } else {
+                mOutputInfo = new OutputInfo(FORMAT_SOURCE, -1, new File(mImageInputPath).length(), -1);
+                FileUtils.copyFile(mImageInputPath, committer.getWritePath());
+                throwIfCancelled();
+                committer.commit();
+                return false;
             }
-            return cropped;
-        } else {
-            FileUtils.copyFile(mImageInputPath, mImageOutputPath);
+        } finally {
+            committer.abort();
+        }
+    }
+
+    /**
+     * @return - AVIF if it was requested and the encoder is available, then automatic format if enabled,
+     * otherwise the format that matches compress format
+     */
+    private int getOutputFormat() {
+        if (mAvifCompressionEnabled && isFormatSupported(FORMAT_AVIF)) {
+            return FORMAT_AVIF;
+        } else if (mAutoFormat == CropImageView.AUTO_FORMAT_JPEG_PNG) {
+            return FORMAT_AUTO;
+        } else if (mAutoFormat == CropImageView.AUTO_FORMAT_WEBP) {
+            return FORMAT_AUTO_WEBP;
+        }
+        return mCompressFormat.ordinal();
+    }
+
+    /**
+     * The preview bitmap can replace the source file when it was decoded without subsampling and holds
+     * the same pixels: opaque, 8 bits per channel and not converted from another color space.
+     * Sharpness preview replaces it with a sharpened copy, native crop would sharpen it once more.
+     */
+    private boolean canCropFromViewBitmap() {
+        if (!mViewBitmapFullResolution || mSharpness != 0 || mViewBitmap.isRecycled()
+                || mViewBitmap.getConfig() != Bitmap.Config.ARGB_8888 || mViewBitmap.hasAlpha()) {
             return false;
         }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            ColorSpace colorSpace = mViewBitmap.getColorSpace();
+            return colorSpace == null || colorSpace.equals(ColorSpace.get(ColorSpace.Named.SRGB));
+        }
+        return true;
+    }
+
+    private void throwIfCancelled() {
+        if (mCropCancelled) {
+            throw new CancellationException("Crop was cancelled");
+        }
+    }
+
+    /**
+     * Progress only moves forward, bands finished out of order or a late poll must not step it back.
+     */
+    private void reportProgress(float progress) {
+        if (mCropCallback != null && progress > mReportedProgress) {
+            mReportedProgress = progress;
+            mCropCallback.onProgress(Math.min(1, progress));
+        }
+    }
+
+    /**
+     * Formats whose quality is lowered to fit the max file size, same as isQualitySearchable() of native crop.
+     */
+    private static boolean isSizeLimited(int format) {
+        return format == FORMAT_JPEG || format == FORMAT_WEBP || format == FORMAT_WEBP_LOSSY || format == FORMAT_AVIF;
+    }
+
+    private boolean exceedsMaxFileSize(@NonNull String path) {
+        return mMaxResultFileSize > 0 && new File(path).length() > mMaxResultFileSize;
+    }
+
+    private boolean hasAdjustments() {
+        return mBrightness != 0.0f || mContrast != 0.0f || mSaturation != 0.0f || mSharpness != 0.0f;
+    }
+
+    /**
+     * @return - color matrix that matches the preview color filter or null if colors are not changed.
+     */
+    @Nullable
+    private float[] getColorMatrix() {
+        if (mBrightness == 0.0f && mContrast == 0.0f && mSaturation == 0.0f) {
+            return null;
+        }
+        ColorMatrix cm = new ColorMatrix();
+        ColorFilterGenerator.adjustBrightness(cm, mBrightness);
+        ColorFilterGenerator.adjustContrast(cm, mContrast);
+        ColorFilterGenerator.adjustSaturation(cm, mSaturation);
+        return cm.getArray();
     }
 
     /**
@@ -247,20 +439,52 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
                 || mCurrentAngle != 0;
     }
 
+    /**
+     * @param format - one of FORMAT_* constants
+     * @return - true if native encoder for given format is compiled in and usable on this device
+     */
+    @SuppressWarnings("JniMissingFunction")
+    native public static boolean isFormatSupported(int format);
+
+    /**
+     * Runs the self-check of bilinear sampling variants (scalar and the SIMD ones this device supports).
+     *
+     * @return - name of the first variant that does not match float math within 1 LSB or the scalar variant,
+     * null if all of them pass
+     */
+    @Nullable
+    @SuppressWarnings("JniMissingFunction")
+    native static String checkBilinearVariants();
+
     @SuppressWarnings("JniMissingFunction")
     native public static boolean
     cropCImg(String inputPath, String outputPath,
              int left, int top, int width, int height,
              float angle, float resizeScale,
              int format, int quality,
-             int exifDegrees, int exifTranslation) throws IOException, OutOfMemoryError;
+             int exifDegrees, int exifTranslation, int resampling, int threadCount,
+             @Nullable float[] colorMatrix, float sharpness,
+             long maxFileSize, float targetQualityScore, @Nullable double[] encodeInfo,
+             long sessionHandle, @Nullable Bitmap sourceBitmap, @Nullable byte[] exif,
+             @Nullable ByteBuffer control) throws IOException, OutOfMemoryError, CancellationException;
+
+    @Override
+    protected void onCancelled(@Nullable Throwable t) {
+        mProgressHandler.removeCallbacks(mProgressPoll);
+    }
 
     @Override
     protected void onPostExecute(@Nullable Throwable t) {
+        mProgressHandler.removeCallbacks(mProgressPoll);
+        for (String path : mDeleteWhenDone) {
+            deleteFile(path);
+        }
+        mDeleteWhenDone.clear();
         if (mCropCallback != null) {
             if (t == null) {
-                Uri uri = Uri.fromFile(new File(mImageOutputPath));
-                mCropCallback.onBitmapCropped(uri, cropOffsetX, cropOffsetY, mCroppedImageWidth, mCroppedImageHeight);
+                reportProgress(1);
+                mCropCallback.onBitmapCropped(mImageOutputUri, cropOffsetX, cropOffsetY, mCroppedImageWidth, mCroppedImageHeight,
+                        mOutputInfo);
             } else {
                 mCropCallback.onCropFailure(t);
             }
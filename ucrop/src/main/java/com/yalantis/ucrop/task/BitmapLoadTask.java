@@ -18,10 +18,14 @@ import com.yalantis.ucrop.util.BitmapLoadUtils;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
 
+import okhttp3.Call;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -33,6 +37,12 @@ import okio.Sink;
  * Creates and returns a Bitmap for a given Uri(String url).
  * inSampleSize is calculated based on requiredWidth property. However can be adjusted if OOM occurs.
  * If any EXIF config is found - bitmap is transformed properly.
+ * <p/>
+ * {@link #cancelLoad()} stops the download or copy, aborts decoding and recycles a bitmap that is already decoded.
+ * The callback is not called for a cancelled load.
+ * <p/>
+ * Remote and content inputs are copied to a temp file in the cache directory first, see {@link #isLocalCopy}.
+ * The task deletes the copy unless the load succeeds, then it belongs to whoever gets the callback.
  */
 public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapWorkerResult> {
 
@@ -40,6 +50,10 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
 
     private static final int MAX_BITMAP_SIZE = 100 * 1024 * 1024;   // 100 MB
 
+    // Name of the source copy kept in the cache directory for remote and content inputs
+    private static final String LOCAL_COPY_PREFIX = "ucrop-";
+    private static final String LOCAL_COPY_SUFFIX = ".source";
+
     private final Context mContext;
     private Uri mInputUri;
     private Uri mOutputUri;
@@ -48,6 +62,12 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
 
     private final BitmapLoadCallback mBitmapLoadCallback;
 
+    private File mLocalCopy;
+
+    // Touched from the main thread to cancel the load
+    private volatile Call mDownloadCall;
+    private volatile BitmapFactory.Options mDecodeOptions;
+
     public static class BitmapWorkerResult {
 
         Bitmap mBitmapResult;
@@ -77,9 +97,36 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
         mBitmapLoadCallback = loadCallback;
     }
 
+    /**
+     * Cancels the load from the main thread. A running download is cancelled right away, a copy or decode
+     * stops at its next read.
+     */
+    @SuppressWarnings("deprecation")
+    public void cancelLoad() {
+        cancel(false);
+        Call call = mDownloadCall;
+        if (call != null) {
+            call.cancel();
+        }
+        BitmapFactory.Options options = mDecodeOptions;
+        if (options != null) {
+            // Ignored since API 24, the cancellable stream stops the decode there
+            options.requestCancelDecode();
+        }
+    }
+
     @Override
     @NonNull
     protected BitmapWorkerResult doInBackground(Void... params) {
+        BitmapWorkerResult result = load();
+        if (result.mBitmapWorkerException != null) {
+            deleteLocalCopy();
+        }
+        return result;
+    }
+
+    @NonNull
+    private BitmapWorkerResult load() {
         if (mInputUri == null) {
             return new BitmapWorkerResult(new NullPointerException("Input Uri cannot be null"));
         }
@@ -89,8 +136,12 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
         } catch (NullPointerException | IOException e) {
             return new BitmapWorkerResult(e);
         }
+        if (isCancelled()) {
+            return cancelledResult(null);
+        }
 
         final BitmapFactory.Options options = new BitmapFactory.Options();
+        mDecodeOptions = options;
         options.inJustDecodeBounds = true;
         options.inSampleSize = BitmapLoadUtils.calculateInSampleSize(options, mRequiredWidth, mRequiredHeight);
         options.inJustDecodeBounds = false;
@@ -102,7 +153,10 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
             try {
                 InputStream stream = mContext.getContentResolver().openInputStream(mInputUri);
                 try {
-                    decodeSampledBitmap = BitmapFactory.decodeStream(stream, null, options);
+                    decodeSampledBitmap = BitmapFactory.decodeStream(stream != null ? new CancellableInputStream(stream) : null, null, options);
+                    if (isCancelled()) {
+                        return cancelledResult(decodeSampledBitmap);
+                    }
                     if (options.outWidth == -1 || options.outHeight == -1) {
                         return new BitmapWorkerResult(new IllegalArgumentException("Bounds for bitmap could not be retrieved from the Uri: [" + mInputUri + "]"));
                     }
@@ -138,24 +192,39 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
             matrix.postScale(exifTranslation, 1);
         }
         if (!matrix.isIdentity()) {
-            return new BitmapWorkerResult(BitmapLoadUtils.transformBitmap(decodeSampledBitmap, matrix), exifInfo);
+            Bitmap transformedBitmap = BitmapLoadUtils.transformBitmap(decodeSampledBitmap, matrix);
+            if (transformedBitmap != decodeSampledBitmap) {
+                decodeSampledBitmap.recycle();
+            }
+            decodeSampledBitmap = transformedBitmap;
+        }
+        if (isCancelled()) {
+            return cancelledResult(decodeSampledBitmap);
         }
 
         return new BitmapWorkerResult(decodeSampledBitmap, exifInfo);
     }
 
+    @NonNull
+    private BitmapWorkerResult cancelledResult(@Nullable Bitmap bitmap) {
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+        return new BitmapWorkerResult(new CancellationException("Bitmap loading was cancelled"));
+    }
+
     private void processInputUri() throws NullPointerException, IOException {
         Log.d(TAG, "Uri scheme: " + mInputUri.getScheme());
         if (isDownloadUri(mInputUri)) {
             try {
-                downloadFile(mInputUri, mOutputUri);
+                downloadFile(mInputUri);
             } catch (NullPointerException | IOException e) {
                 Log.e(TAG, "Downloading failed", e);
                 throw e;
             }
         } else if (isContentUri(mInputUri)) {
             try {
-                copyFile(mInputUri, mOutputUri);
+                copyFile(mInputUri);
             } catch (NullPointerException | IOException e) {
                 Log.e(TAG, "Copying failed", e);
                 throw e;
@@ -167,13 +236,10 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
         }
     }
 
-    private void copyFile(@NonNull Uri inputUri, @Nullable Uri outputUri) throws NullPointerException, IOException {
+    private void copyFile(@NonNull Uri inputUri) throws NullPointerException, IOException {
         Log.d(TAG, "copyFile");
 
-        if (outputUri == null) {
-            throw new NullPointerException("Output Uri is null - cannot copy image");
-        }
-
+        File localCopy = createLocalCopy();
         InputStream inputStream = null;
         OutputStream outputStream = null;
         try {
@@ -181,12 +247,9 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
             if (inputStream == null) {
                 throw new NullPointerException("InputStream for given input Uri is null");
             }
+            inputStream = new CancellableInputStream(inputStream);
 
-            if (isContentUri(outputUri)) {
-                outputStream = mContext.getContentResolver().openOutputStream(outputUri);
-            } else {
-                outputStream = new FileOutputStream(new File(outputUri.getPath()));
-            }
+            outputStream = new FileOutputStream(localCopy);
 
             byte buffer[] = new byte[1024];
             int length;
@@ -196,22 +259,18 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
         } finally {
             BitmapLoadUtils.close(outputStream);
             BitmapLoadUtils.close(inputStream);
-
-            // swap uris, because input image was copied to the output destination
-            // (cropped image will override it later)
-            mInputUri = mOutputUri;
         }
+
+        // swap uris, because input image was copied to the local copy
+        mInputUri = Uri.fromFile(localCopy);
     }
 
-    private void downloadFile(@NonNull Uri inputUri, @Nullable Uri outputUri) throws NullPointerException, IOException {
+    private void downloadFile(@NonNull Uri inputUri) throws NullPointerException, IOException {
         Log.d(TAG, "downloadFile");
 
-        if (outputUri == null) {
-            throw new NullPointerException("Output Uri is null - cannot download image");
-        }
-
         OkHttpClient client = UCropHttpClientStore.INSTANCE.getClient();
 
+        File localCopy = createLocalCopy();
         BufferedSource source = null;
         Sink sink = null;
         Response response = null;
@@ -219,35 +278,59 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
             Request request = new Request.Builder()
                 .url(inputUri.toString())
                 .build();
-            response = client.newCall(request).execute();
-            source = response.body().source();
-
-            OutputStream outputStream;
-
-            if (isContentUri(mOutputUri)) {
-                outputStream = mContext.getContentResolver().openOutputStream(outputUri);
-            } else {
-                outputStream = new FileOutputStream(new File(outputUri.getPath()));
+            Call call = client.newCall(request);
+            mDownloadCall = call;
+            if (isCancelled()) {
+                call.cancel();
             }
+            response = call.execute();
+            source = response.body().source();
 
-            if (outputStream != null) {
-                sink = Okio.sink(outputStream);
-                source.readAll(sink);
-            } else {
-                throw new NullPointerException("OutputStream for given output Uri is null");
-            }
+            OutputStream outputStream = new FileOutputStream(localCopy);
+            sink = Okio.sink(outputStream);
+            source.readAll(sink);
         } finally {
             BitmapLoadUtils.close(source);
             BitmapLoadUtils.close(sink);
             if (response != null) {
                 BitmapLoadUtils.close(response.body());
             }
-            client.dispatcher().cancelAll();
+            // Calls of other loads that share the client are left alone
+            mDownloadCall = null;
+        }
+
+        // swap uris, because input image was downloaded to the local copy
+        mInputUri = Uri.fromFile(localCopy);
+    }
+
+    /**
+     * Native crop reads its source from a file path, so remote and content inputs are copied to a file first.
+     * Every load gets its own file in the cache directory, the output is not touched until the crop commits.
+     */
+    @NonNull
+    private File createLocalCopy() throws IOException {
+        mLocalCopy = File.createTempFile(LOCAL_COPY_PREFIX, LOCAL_COPY_SUFFIX, mContext.getCacheDir());
+        return mLocalCopy;
+    }
 
-            // swap uris, because input image was downloaded to the output destination
-            // (cropped image will override it later)
-            mInputUri = mOutputUri;
+    /**
+     * Drops the copy of a load that failed or was cancelled, partially written copies included.
+     */
+    private void deleteLocalCopy() {
+        if (mLocalCopy != null && mLocalCopy.exists() && !mLocalCopy.delete()) {
+            Log.w(TAG, "Cannot delete source copy " + mLocalCopy);
         }
+        mLocalCopy = null;
+    }
+
+    /**
+     * @return - true if path is a source copy made by a load, it is deleted once the image is not needed anymore
+     */
+    public static boolean isLocalCopy(@NonNull Context context, @NonNull String path) {
+        File file = new File(path);
+        String name = file.getName();
+        return context.getCacheDir().equals(file.getParentFile())
+                && name.startsWith(LOCAL_COPY_PREFIX) && name.endsWith(LOCAL_COPY_SUFFIX);
     }
 
     @Override
@@ -259,9 +342,20 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
         }
     }
 
+    @Override
+    protected void onCancelled(@Nullable BitmapWorkerResult result) {
+        // Finished before it noticed the cancellation
+        if (result != null && result.mBitmapResult != null) {
+            result.mBitmapResult.recycle();
+        }
+        deleteLocalCopy();
+    }
+
     private boolean checkSize(Bitmap bitmap, BitmapFactory.Options options) {
         int bitmapSize = bitmap != null ? bitmap.getByteCount() : 0;
         if (bitmapSize > MAX_BITMAP_SIZE) {
+            // Decoded again with a larger sample size
+            bitmap.recycle();
             options.inSampleSize *= 2;
             return true;
         }
@@ -282,4 +376,38 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
         final String schema = uri.getScheme();
         return schema.equals("file");
     }
+
+    /**
+     * Fails the next read once the task is cancelled, which also makes {@link BitmapFactory} give up decoding.
+     */
+    private class CancellableInputStream extends FilterInputStream {
+
+        CancellableInputStream(@NonNull InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkCancelled();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkCancelled();
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            checkCancelled();
+            return super.skip(n);
+        }
+
+        private void checkCancelled() throws InterruptedIOException {
+            if (isCancelled()) {
+                throw new InterruptedIOException("Bitmap loading was cancelled");
+            }
+        }
+    }
 }
\ No newline at end of file
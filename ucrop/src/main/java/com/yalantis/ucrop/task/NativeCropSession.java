@@ -0,0 +1,95 @@
+package com.yalantis.ucrop.task;
+
+import java.io.Closeable;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Native buffers shared by consecutive crops, so batch or multi-output crops do not allocate
+ * decode, warp and result buffers again for every image.
+ * <p/>
+ * Buffers keep the size of the largest crop until the session is closed. Crops that use the same session
+ * run one after another, {@link #close()} waits for a running crop and must always be called.
+ */
+public class NativeCropSession implements Closeable {
+
+    static {
+        System.loadLibrary("ucrop");
+    }
+
+    private final ReentrantLock mCropLock = new ReentrantLock();
+    private long mHandle;
+
+    public NativeCropSession() {
+        mHandle = nativeCreate();
+    }
+
+    /**
+     * @return - bytes of native buffers the session holds now, 0 once it is closed
+     */
+    public synchronized long getCurrentNativeBytes() {
+        return mHandle != 0 ? nativeGetCurrentBytes(mHandle) : 0;
+    }
+
+    /**
+     * @return - largest number of native bytes the session has held, 0 once it is closed
+     */
+    public synchronized long getPeakNativeBytes() {
+        return mHandle != 0 ? nativeGetPeakBytes(mHandle) : 0;
+    }
+
+    public synchronized boolean isClosed() {
+        return mHandle == 0;
+    }
+
+    /**
+     * Releases all native buffers. Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        mCropLock.lock();
+        try {
+            synchronized (this) {
+                if (mHandle != 0) {
+                    nativeRelease(mHandle);
+                    mHandle = 0;
+                }
+            }
+        } finally {
+            mCropLock.unlock();
+        }
+    }
+
+    /**
+     * Takes the session for one crop, every call must be followed by {@link #release()}.
+     *
+     * @return - native handle to pass to the crop
+     * @throws IllegalStateException - if the session is closed
+     */
+    long acquire() {
+        mCropLock.lock();
+        synchronized (this) {
+            if (mHandle == 0) {
+                mCropLock.unlock();
+                throw new IllegalStateException("NativeCropSession is closed");
+            }
+            return mHandle;
+        }
+    }
+
+    void release() {
+        mCropLock.unlock();
+    }
+
+    @SuppressWarnings("JniMissingFunction")
+    native private static long nativeCreate() throws OutOfMemoryError;
+
+    @SuppressWarnings("JniMissingFunction")
+    native private static void nativeRelease(long handle);
+
+    @SuppressWarnings("JniMissingFunction")
+    native private static long nativeGetCurrentBytes(long handle);
+
+    @SuppressWarnings("JniMissingFunction")
+    native private static long nativeGetPeakBytes(long handle);
+
+}
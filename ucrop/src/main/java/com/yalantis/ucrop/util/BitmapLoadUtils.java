@@ -32,13 +32,18 @@ public class BitmapLoadUtils {
 
     private static final String TAG = "BitmapLoadUtils";
 
-    public static void decodeBitmapInBackground(@NonNull Context context,
-                                                @NonNull Uri uri, @Nullable Uri outputUri,
-                                                int requiredWidth, int requiredHeight,
-                                                BitmapLoadCallback loadCallback) {
-
-        new BitmapLoadTask(context, uri, outputUri, requiredWidth, requiredHeight, loadCallback)
-                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    /**
+     * @return - started task, {@link BitmapLoadTask#cancelLoad()} stops it
+     */
+    @NonNull
+    public static BitmapLoadTask decodeBitmapInBackground(@NonNull Context context,
+                                                          @NonNull Uri uri, @Nullable Uri outputUri,
+                                                          int requiredWidth, int requiredHeight,
+                                                          BitmapLoadCallback loadCallback) {
+
+        BitmapLoadTask task = new BitmapLoadTask(context, uri, outputUri, requiredWidth, requiredHeight, loadCallback);
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return task;
     }
 
     public static Bitmap transformBitmap(@NonNull Bitmap bitmap, @NonNull Matrix transformMatrix) {
@@ -30,15 +30,21 @@
 
 package com.yalantis.ucrop.util;
 
+import android.graphics.Bitmap;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 
+import androidx.annotation.Nullable;
 import androidx.exifinterface.media.ExifInterface;
 
 /**
@@ -377,6 +383,93 @@ public class ImageHeaderParser {
     }
 
     public static void copyExif(ExifInterface originalExif, int width, int height, String imageOutputPath) {
+        try {
+            copyExif(originalExif, width, height, new ExifInterface(imageOutputPath));
+        } catch (IOException e) {
+            Log.d(TAG, e.getMessage());
+        }
+    }
+
+    /**
+     * Builds the Exif payload (TIFF header onwards) with the same tags {@link #copyExif(ExifInterface, int, int, String)}
+     * writes, so the encoder can embed it while the result is written and nothing edits the result afterwards.
+     * ExifInterface only edits whole files, so the tags are written into a 1x1 JPEG in scratchDirectory,
+     * which is deleted before returning.
+     *
+     * @return - Exif payload or null if it could not be built
+     */
+    @Nullable
+    public static byte[] buildExif(ExifInterface originalExif, int width, int height, File scratchDirectory) {
+        File scratchFile = null;
+        Bitmap pixel = null;
+        try {
+            scratchFile = File.createTempFile("ucrop-exif", ".jpg", scratchDirectory);
+            pixel = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+            OutputStream outputStream = new FileOutputStream(scratchFile);
+            try {
+                pixel.compress(Bitmap.CompressFormat.JPEG, 0, outputStream);
+            } finally {
+                outputStream.close();
+            }
+            copyExif(originalExif, width, height, new ExifInterface(scratchFile.getAbsolutePath()));
+
+            RandomAccessFile file = new RandomAccessFile(scratchFile, "r");
+            byte[] jpeg;
+            try {
+                jpeg = new byte[(int) file.length()];
+                file.readFully(jpeg);
+            } finally {
+                file.close();
+            }
+            return findExifPayload(jpeg);
+        } catch (IOException e) {
+            Log.d(TAG, "buildExif: " + e.getMessage());
+            return null;
+        } finally {
+            if (pixel != null) {
+                pixel.recycle();
+            }
+            if (scratchFile != null && !scratchFile.delete()) {
+                Log.d(TAG, "buildExif: cannot delete " + scratchFile);
+            }
+        }
+    }
+
+    /**
+     * @return - payload of the first Exif APP1 segment of the JPEG or null if there is none
+     */
+    @Nullable
+    private static byte[] findExifPayload(byte[] jpeg) {
+        int offset = 2;
+        while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xFF) == SEGMENT_START_ID) {
+            int segmentType = jpeg[offset + 1] & 0xFF;
+            int segmentLength = ((jpeg[offset + 2] & 0xFF) << 8) | (jpeg[offset + 3] & 0xFF);
+            if (segmentType == SEGMENT_SOS || segmentType == MARKER_EOI || segmentLength < 2
+                    || offset + 2 + segmentLength > jpeg.length) {
+                break;
+            }
+            int payload = offset + 4 + JPEG_EXIF_SEGMENT_PREAMBLE_BYTES.length;
+            if (segmentType == EXIF_SEGMENT_TYPE && payload <= offset + 2 + segmentLength
+                    && hasExifPreamble(jpeg, offset + 4)) {
+                byte[] exif = new byte[offset + 2 + segmentLength - payload];
+                System.arraycopy(jpeg, payload, exif, 0, exif.length);
+                return exif;
+            }
+            offset += 2 + segmentLength;
+        }
+        return null;
+    }
+
+    private static boolean hasExifPreamble(byte[] data, int offset) {
+        for (int i = 0; i < JPEG_EXIF_SEGMENT_PREAMBLE_BYTES.length; i++) {
+            if (data[offset + i] != JPEG_EXIF_SEGMENT_PREAMBLE_BYTES[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void copyExif(ExifInterface originalExif, int width, int height, ExifInterface newExif) throws IOException {
         String[] attributes = new String[]{
                 ExifInterface.TAG_F_NUMBER,
                 ExifInterface.TAG_DATETIME,
@@ -402,24 +495,18 @@ public class ImageHeaderParser {
                 ExifInterface.TAG_WHITE_BALANCE
         };
 
-        try {
-            ExifInterface newExif = new ExifInterface(imageOutputPath);
-            String value;
-            for (String attribute : attributes) {
-                value = originalExif.getAttribute(attribute);
-                if (!TextUtils.isEmpty(value)) {
-                    newExif.setAttribute(attribute, value);
-                }
+        String value;
+        for (String attribute : attributes) {
+            value = originalExif.getAttribute(attribute);
+            if (!TextUtils.isEmpty(value)) {
+                newExif.setAttribute(attribute, value);
             }
-            newExif.setAttribute(ExifInterface.TAG_IMAGE_WIDTH, String.valueOf(width));
-            newExif.setAttribute(ExifInterface.TAG_IMAGE_LENGTH, String.valueOf(height));
-            newExif.setAttribute(ExifInterface.TAG_ORIENTATION, "0");
-
-            newExif.saveAttributes();
-
-        } catch (IOException e) {
-            Log.d(TAG, e.getMessage());
         }
+        newExif.setAttribute(ExifInterface.TAG_IMAGE_WIDTH, String.valueOf(width));
+        newExif.setAttribute(ExifInterface.TAG_IMAGE_LENGTH, String.valueOf(height));
+        newExif.setAttribute(ExifInterface.TAG_ORIENTATION, "0");
+
+        newExif.saveAttributes();
     }
 
 }
@@ -0,0 +1,218 @@
+package com.yalantis.ucrop.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+/**
+ * Writes a crop result so that the destination never holds a partially written image.
+ * <p/>
+ * For file destinations the result is written to a hidden sibling file, optionally synced,
+ * and then renamed over the destination. For content destinations the result is written to a temp file
+ * in the cache directory and copied into {@link ContentResolver#openOutputStream(Uri, String)} on commit,
+ * so a failed or cancelled crop leaves the destination untouched. The copy itself is not atomic,
+ * a process killed in the middle of it can leave a partial image there.
+ * <p/>
+ * Writers should use {@link #getWritePath()} and finish with either {@link #commit()} or {@link #abort()}.
+ */
+public class OutputCommitter {
+
+    private static final String TAG = "OutputCommitter";
+
+    public static final int FSYNC_NONE = 0;
+    public static final int FSYNC_DATA = 1;
+    public static final int FSYNC_FULL = 2;
+
+    @IntDef({FSYNC_NONE, FSYNC_DATA, FSYNC_FULL})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface FsyncMode {
+
+    }
+
+    private static final String TEMP_FILE_PREFIX = "ucrop-output";
+    private static final String TEMP_FILE_SUFFIX = ".ucrop-tmp";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Uri mOutputUri;
+    private final int mFsyncMode;
+
+    private File mTargetFile, mTempFile;
+    // Set for content destinations only
+    private ContentResolver mContentResolver;
+
+    private boolean mFinished;
+
+    private OutputCommitter(@NonNull Uri outputUri, @FsyncMode int fsyncMode) {
+        mOutputUri = outputUri;
+        mFsyncMode = fsyncMode;
+    }
+
+    /**
+     * Prepares a write into given output Uri. Both file and content Uris are supported.
+     *
+     * @param outputUri - final destination of the result
+     * @param fsyncMode - one of {@link #FSYNC_NONE}, {@link #FSYNC_DATA}, {@link #FSYNC_FULL}
+     */
+    @NonNull
+    public static OutputCommitter open(@NonNull Context context, @NonNull Uri outputUri,
+                                       @FsyncMode int fsyncMode) throws IOException {
+        OutputCommitter committer = new OutputCommitter(outputUri, fsyncMode);
+        if (ContentResolver.SCHEME_CONTENT.equals(outputUri.getScheme())) {
+            committer.mContentResolver = context.getContentResolver();
+            committer.mTempFile = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX, context.getCacheDir());
+        } else {
+            committer.openTempFile();
+        }
+        return committer;
+    }
+
+    /**
+     * @return - path that must receive the result bytes; valid until {@link #commit()} or {@link #abort()}.
+     */
+    @NonNull
+    public String getWritePath() {
+        return mTempFile.getAbsolutePath();
+    }
+
+    /**
+     * Makes written bytes visible at the output Uri.
+     */
+    public void commit() throws IOException {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+
+        try {
+            if (mContentResolver != null) {
+                copyToContent();
+            } else {
+                syncFile(mTempFile, mFsyncMode);
+                if (!mTempFile.renameTo(mTargetFile)) {
+                    throw new IOException("Cannot rename " + mTempFile + " to " + mTargetFile);
+                }
+                if (mFsyncMode == FSYNC_FULL) {
+                    syncFile(mTargetFile.getParentFile(), FSYNC_FULL);
+                }
+            }
+        } finally {
+            deleteTempFile();
+        }
+    }
+
+    /**
+     * Drops everything written so far, the destination is left untouched.
+     */
+    public void abort() {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        deleteTempFile();
+    }
+
+    private void deleteTempFile() {
+        if (mTempFile.exists() && !mTempFile.delete()) {
+            Log.w(TAG, "Cannot delete " + mTempFile);
+        }
+    }
+
+    private void openTempFile() throws IOException {
+        String path = mOutputUri.getPath();
+        if (path == null) {
+            throw new FileNotFoundException("Output Uri has no path: " + mOutputUri);
+        }
+        mTargetFile = new File(path).getAbsoluteFile();
+        File directory = mTargetFile.getParentFile();
+        if (directory == null || (!directory.exists() && !directory.mkdirs())) {
+            throw new FileNotFoundException("Output directory is not available: " + directory);
+        }
+        // A sibling file keeps rename() on the same file system, which makes it atomic
+        mTempFile = File.createTempFile("." + mTargetFile.getName(), TEMP_FILE_SUFFIX, directory);
+    }
+
+    private void copyToContent() throws IOException {
+        InputStream inputStream = new FileInputStream(mTempFile);
+        OutputStream outputStream = null;
+        try {
+            outputStream = openTruncatingOutputStream(mContentResolver, mOutputUri);
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+            outputStream.flush();
+            if (outputStream instanceof FileOutputStream) {
+                syncDescriptor(((FileOutputStream) outputStream).getFD(), mFsyncMode);
+            }
+        } finally {
+            BitmapLoadUtils.close(inputStream);
+            BitmapLoadUtils.close(outputStream);
+        }
+    }
+
+    @NonNull
+    private static OutputStream openTruncatingOutputStream(@NonNull ContentResolver resolver, @NonNull Uri uri) throws IOException {
+        OutputStream outputStream;
+        try {
+            outputStream = resolver.openOutputStream(uri, "wt");
+        } catch (IllegalArgumentException | FileNotFoundException e) {
+            // Not every provider understands the truncate flag
+            outputStream = resolver.openOutputStream(uri);
+        }
+        if (outputStream == null) {
+            throw new NullPointerException("OutputStream for given output Uri is null");
+        }
+        return outputStream;
+    }
+
+    private static void syncFile(@NonNull File file, @FsyncMode int fsyncMode) throws IOException {
+        if (fsyncMode == FSYNC_NONE) {
+            return;
+        }
+        try {
+            FileDescriptor fd = Os.open(file.getAbsolutePath(), OsConstants.O_RDONLY, 0);
+            try {
+                syncDescriptor(fd, fsyncMode);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            throw new IOException("Cannot sync " + file, e);
+        }
+    }
+
+    private static void syncDescriptor(@NonNull FileDescriptor fd, @FsyncMode int fsyncMode) throws IOException {
+        try {
+            if (fsyncMode == FSYNC_DATA) {
+                Os.fdatasync(fd);
+            } else if (fsyncMode == FSYNC_FULL) {
+                Os.fsync(fd);
+            }
+        } catch (ErrnoException e) {
+            // Pipes, sockets and some providers cannot be synced
+            if (e.errno != OsConstants.EINVAL && e.errno != OsConstants.EROFS) {
+                throw new IOException("Cannot sync output", e);
+            }
+        }
+    }
+
+}
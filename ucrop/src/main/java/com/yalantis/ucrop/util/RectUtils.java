@@ -18,12 +18,26 @@ public class RectUtils {
      * @return the float array of corners (8 floats)
      */
     public static float[] getCornersFromRect(RectF r) {
-        return new float[]{
-                r.left, r.top,
-                r.right, r.top,
-                r.right, r.bottom,
-                r.left, r.bottom
-        };
+        return getCornersFromRect(r, new float[8]);
+    }
+
+    /**
+     * Same as {@link #getCornersFromRect(RectF)} but writes corners into given array.
+     *
+     * @param r       the rectangle to get the corners of
+     * @param corners the float array for corners (8 floats)
+     * @return corners
+     */
+    public static float[] getCornersFromRect(RectF r, float[] corners) {
+        corners[0] = r.left;
+        corners[1] = r.top;
+        corners[2] = r.right;
+        corners[3] = r.top;
+        corners[4] = r.right;
+        corners[5] = r.bottom;
+        corners[6] = r.left;
+        corners[7] = r.bottom;
+        return corners;
     }
 
     /**
@@ -39,8 +53,23 @@ public class RectUtils {
      * @return the float array of width and height (2 floats)
      */
     public static float[] getRectSidesFromCorners(float[] corners) {
-        return new float[]{(float) Math.sqrt(Math.pow(corners[0] - corners[2], 2) + Math.pow(corners[1] - corners[3], 2)),
-                (float) Math.sqrt(Math.pow(corners[2] - corners[4], 2) + Math.pow(corners[3] - corners[5], 2))};
+        return getRectSidesFromCorners(corners, new float[2]);
+    }
+
+    /**
+     * Same as {@link #getRectSidesFromCorners(float[])} but writes width and height into given array.
+     *
+     * @param corners the float array of corners (8 floats)
+     * @param sides   the float array for width and height (2 floats)
+     * @return sides
+     */
+    public static float[] getRectSidesFromCorners(float[] corners, float[] sides) {
+        float dx = corners[0] - corners[2], dy = corners[1] - corners[3];
+        sides[0] = (float) Math.sqrt(dx * dx + dy * dy);
+        dx = corners[2] - corners[4];
+        dy = corners[3] - corners[5];
+        sides[1] = (float) Math.sqrt(dx * dx + dy * dy);
+        return sides;
     }
 
     public static float[] getCenterFromRect(RectF r) {
@@ -55,7 +84,18 @@ public class RectUtils {
      * @return smallest rectangle containing coordinates
      */
     public static RectF trapToRect(float[] array) {
-        RectF r = new RectF(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+        return trapToRect(array, new RectF());
+    }
+
+    /**
+     * Same as {@link #trapToRect(float[])} but writes the rectangle into given one.
+     *
+     * @param array array of 2D coordinates
+     * @param r     rectangle for the result
+     * @return r
+     */
+    public static RectF trapToRect(float[] array, RectF r) {
+        r.set(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
                 Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
         for (int i = 1; i < array.length; i += 2) {
             float x = Math.round(array[i - 1] * 10) / 10.f;
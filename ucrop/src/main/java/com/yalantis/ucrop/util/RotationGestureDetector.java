@@ -44,27 +44,20 @@ public class RotationGestureDetector {
                 break;
             case MotionEvent.ACTION_MOVE:
                 if (mPointerIndex1 != INVALID_POINTER_INDEX && mPointerIndex2 != INVALID_POINTER_INDEX && event.getPointerCount() > mPointerIndex2) {
-                    float nfX, nfY, nsX, nsY;
-
-                    nsX = event.getX(mPointerIndex1);
-                    nsY = event.getY(mPointerIndex1);
-                    nfX = event.getX(mPointerIndex2);
-                    nfY = event.getY(mPointerIndex2);
-
-                    if (mIsFirstTouch) {
-                        mAngle = 0;
-                        mIsFirstTouch = false;
-                    } else {
-                        calculateAngleBetweenLines(fX, fY, sX, sY, nfX, nfY, nsX, nsY);
+                    // Samples batched into the event since the previous one are followed step by step,
+                    // so a fast rotation is not cut short by the ±180 degrees limit of a single step
+                    float angle = 0;
+                    for (int h = 0; h < event.getHistorySize(); h++) {
+                        angle += moveTo(event.getHistoricalX(mPointerIndex2, h), event.getHistoricalY(mPointerIndex2, h),
+                                event.getHistoricalX(mPointerIndex1, h), event.getHistoricalY(mPointerIndex1, h));
                     }
+                    angle += moveTo(event.getX(mPointerIndex2), event.getY(mPointerIndex2),
+                            event.getX(mPointerIndex1), event.getY(mPointerIndex1));
+                    mAngle = angle;
 
                     if (mListener != null) {
                         mListener.onRotation(this);
                     }
-                    fX = nfX;
-                    fY = nfY;
-                    sX = nsX;
-                    sY = nsY;
                 }
                 break;
             case MotionEvent.ACTION_UP:
@@ -77,6 +70,23 @@ public class RotationGestureDetector {
         return true;
     }
 
+    /**
+     * @return - angle between the line of the previous positions and the line of given ones
+     */
+    private float moveTo(float nfX, float nfY, float nsX, float nsY) {
+        float angle = 0;
+        if (mIsFirstTouch) {
+            mIsFirstTouch = false;
+        } else {
+            angle = calculateAngleBetweenLines(fX, fY, sX, sY, nfX, nfY, nsX, nsY);
+        }
+        fX = nfX;
+        fY = nfY;
+        sX = nsX;
+        sY = nsY;
+        return angle;
+    }
+
     private float calculateAngleBetweenLines(float fx1, float fy1, float fx2, float fy2,
                                              float sx1, float sy1, float sx2, float sy2) {
         return calculateAngleDelta(
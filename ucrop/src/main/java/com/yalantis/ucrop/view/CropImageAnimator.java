@@ -0,0 +1,204 @@
+package com.yalantis.ucrop.view;
+
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Animates position, scale and angle of the image in {@link CropImageView} from {@link Choreographer} frame time.
+ * <p/>
+ * Every value follows a critically damped spring towards its target, so an animation can be retargeted at any frame
+ * without a jump in velocity. A fling moves the image with decaying momentum, stronger friction acts as a rubber band
+ * once the image leaves the crop bounds and then springs bring it back.
+ * <p/>
+ * Only one animation runs at a time and {@link #cancel()} stops it at the current frame.
+ */
+public class CropImageAnimator implements Choreographer.FrameCallback {
+
+    // Remaining spring displacement is below 1% after duration
+    private static final float SPRING_SETTLE_FACTOR = 6.6f;
+    // Momentum decay rate of a fling, 1/s
+    private static final float FLING_FRICTION = 4f;
+    // Decay rate while the image is outside of the crop bounds
+    private static final float RUBBER_BAND_FRICTION = 24f;
+    // Fling below this speed, px/s, is over
+    private static final float FLING_STOP_VELOCITY = 40f;
+    // Longest frame the animation steps over, so a stall does not throw the image away
+    private static final float MAX_FRAME_SECONDS = 1 / 20f;
+
+    private static final float REST_POSITION = 0.5f, REST_VELOCITY = 5f;
+    private static final float REST_SCALE = 0.001f, REST_ANGLE = 0.05f;
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_SPRING = 1;
+    private static final int STATE_FLING = 2;
+
+    private final CropImageView mCropImageView;
+    private final Spring mX = new Spring(), mY = new Spring(), mScale = new Spring(), mAngle = new Spring();
+
+    private int mState = STATE_IDLE;
+    private float mOmega;
+    private boolean mWrapCropBoundsAtEnd;
+    private long mLastFrameTimeNanos;
+    // Callback for the next frame is posted after the current one is done
+    private boolean mInFrame;
+
+    CropImageAnimator(@NonNull CropImageView cropImageView) {
+        mCropImageView = cropImageView;
+    }
+
+    public boolean isRunning() {
+        return mState != STATE_IDLE;
+    }
+
+    /**
+     * Stops the animation, the image stays where the last frame put it.
+     */
+    public void cancel() {
+        if (mState != STATE_IDLE) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            mState = STATE_IDLE;
+        }
+    }
+
+    /**
+     * Animates image center, scale and angle to given values. A running animation is retargeted and keeps its velocity.
+     *
+     * @param durationMs          - time after which the image is practically at the target
+     * @param wrapCropBoundsAtEnd - whether image is moved to fill the crop bounds when the animation ends
+     */
+    void animateTo(float centerX, float centerY, float scale, float angle, long durationMs, boolean wrapCropBoundsAtEnd) {
+        if (mState == STATE_IDLE) {
+            syncWithImage();
+        }
+        mX.target = centerX;
+        mY.target = centerY;
+        mScale.target = scale;
+        mAngle.target = angle;
+        mOmega = SPRING_SETTLE_FACTOR * 1000f / Math.max(1, durationMs);
+        mWrapCropBoundsAtEnd = wrapCropBoundsAtEnd;
+        start(STATE_SPRING);
+    }
+
+    /**
+     * Moves the image with given velocity that decays over time.
+     *
+     * @param velocityX - px/s
+     * @param velocityY - px/s
+     */
+    void fling(float velocityX, float velocityY) {
+        cancel();
+        syncWithImage();
+        mX.velocity = velocityX;
+        mY.velocity = velocityY;
+        start(STATE_FLING);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (mState == STATE_IDLE) {
+            return;
+        }
+        float dt = Math.min(MAX_FRAME_SECONDS, Math.max(0, (frameTimeNanos - mLastFrameTimeNanos) / 1e9f));
+        mLastFrameTimeNanos = frameTimeNanos;
+
+        mInFrame = true;
+        if (mState == STATE_FLING) {
+            stepFling(dt);
+        } else {
+            stepSprings(dt);
+        }
+        mInFrame = false;
+        if (mState != STATE_IDLE) {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    private void start(int state) {
+        if (mState == STATE_IDLE && !mInFrame) {
+            mLastFrameTimeNanos = System.nanoTime();
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+        mState = state;
+    }
+
+    private void syncWithImage() {
+        mX.reset(mCropImageView.mCurrentImageCenter[0]);
+        mY.reset(mCropImageView.mCurrentImageCenter[1]);
+        mScale.reset(mCropImageView.getCurrentScale());
+        mAngle.reset(mCropImageView.getCurrentAngle());
+    }
+
+    private void stepSprings(float dt) {
+        mX.step(dt, mOmega);
+        mY.step(dt, mOmega);
+        mScale.step(dt, mOmega);
+        mAngle.step(dt, mOmega);
+
+        boolean atRest = mX.isAtRest(REST_POSITION, REST_VELOCITY) && mY.isAtRest(REST_POSITION, REST_VELOCITY)
+                && mScale.isAtRest(REST_SCALE * mScale.target, REST_SCALE * mScale.target)
+                && mAngle.isAtRest(REST_ANGLE, REST_ANGLE);
+        if (atRest) {
+            mX.value = mX.target;
+            mY.value = mY.target;
+            mScale.value = mScale.target;
+            mAngle.value = mAngle.target;
+        }
+        mCropImageView.applyAnimatedTransform(mX.value, mY.value, mScale.value, mAngle.value);
+
+        if (atRest) {
+            mState = STATE_IDLE;
+            if (mWrapCropBoundsAtEnd) {
+                mCropImageView.setImageToWrapCropBounds();
+            }
+        }
+    }
+
+    private void stepFling(float dt) {
+        boolean outOfBounds = !mCropImageView.isImageWrapCropBounds();
+        float decay = (float) Math.exp(-(outOfBounds ? RUBBER_BAND_FRICTION : FLING_FRICTION) * dt);
+        mX.velocity *= decay;
+        mY.velocity *= decay;
+        mX.value += mX.velocity * dt;
+        mY.value += mY.velocity * dt;
+        mCropImageView.applyAnimatedTransform(mX.value, mY.value, mScale.value, mAngle.value);
+
+        if (Math.hypot(mX.velocity, mY.velocity) < FLING_STOP_VELOCITY) {
+            // Springs take over with the remaining velocity
+            mState = STATE_SPRING;
+            mX.target = mX.value;
+            mY.target = mY.value;
+            mCropImageView.setImageToWrapCropBounds();
+            if (mState == STATE_SPRING && mX.target == mX.value && mY.target == mY.value) {
+                // Image already fills the crop bounds
+                mState = STATE_IDLE;
+            }
+        }
+    }
+
+    private static final class Spring {
+
+        float value, target, velocity;
+
+        void reset(float value) {
+            this.value = target = value;
+            velocity = 0;
+        }
+
+        /**
+         * Exact step of a critically damped spring, stable for any time step.
+         */
+        void step(float dt, float omega) {
+            float displacement = value - target;
+            float decay = (float) Math.exp(-omega * dt);
+            float impulse = (velocity + omega * displacement) * dt;
+            value = target + (displacement + impulse) * decay;
+            velocity = (velocity - omega * impulse) * decay;
+        }
+
+        boolean isAtRest(float maxDisplacement, float maxVelocity) {
+            return Math.abs(value - target) <= maxDisplacement && Math.abs(velocity) <= maxVelocity;
+        }
+    }
+
+}
@@ -3,27 +3,33 @@ package com.yalantis.ucrop.view;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
 import android.util.AttributeSet;
 
+import androidx.annotation.FloatRange;
+import androidx.annotation.IntDef;
 import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.yalantis.ucrop.R;
+import com.yalantis.ucrop.UCropFrameMetrics;
 import com.yalantis.ucrop.callback.BitmapCropCallback;
 import com.yalantis.ucrop.callback.CropBoundsChangeListener;
 import com.yalantis.ucrop.model.CropParameters;
 import com.yalantis.ucrop.model.ImageState;
 import com.yalantis.ucrop.task.BitmapCropTask;
-import com.yalantis.ucrop.util.CubicEasing;
+import com.yalantis.ucrop.task.BitmapLoadTask;
+import com.yalantis.ucrop.task.NativeCropSession;
+import com.yalantis.ucrop.util.OutputCommitter;
 import com.yalantis.ucrop.util.RectUtils;
 
-import java.lang.ref.WeakReference;
-import java.util.Arrays;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 
 /**
  * Created by Oleksii Shliama (https://github.com/shliama).
@@ -33,26 +39,64 @@ import java.util.Arrays;
  */
 public class CropImageView extends TransformImageView {
 
+    public static final int AUTO_FORMAT_DISABLE = 0;
+    public static final int AUTO_FORMAT_JPEG_PNG = 1;
+    public static final int AUTO_FORMAT_WEBP = 2;
+
+    public static final int RESAMPLING_NEAREST = 0;
+    public static final int RESAMPLING_BILINEAR = 1;
+    public static final int RESAMPLING_BICUBIC = 2;
+    public static final int RESAMPLING_LANCZOS3 = 3;
+    public static final int RESAMPLING_AREA = 4;
+
     public static final int DEFAULT_MAX_BITMAP_SIZE = 0;
     public static final int DEFAULT_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION = 500;
     public static final float DEFAULT_MAX_SCALE_MULTIPLIER = 10.0f;
     public static final float SOURCE_IMAGE_ASPECT_RATIO = 0f;
     public static final float DEFAULT_ASPECT_RATIO = SOURCE_IMAGE_ASPECT_RATIO;
+    public static final int DEFAULT_OUTPUT_FSYNC_MODE = OutputCommitter.FSYNC_NONE;
+    public static final boolean DEFAULT_AVIF_COMPRESSION = false;
+    public static final long DEFAULT_MAX_RESULT_FILE_SIZE = 0;
+    public static final float DEFAULT_TARGET_QUALITY_SCORE = 0f;
+    public static final int DEFAULT_AUTO_FORMAT = AUTO_FORMAT_DISABLE;
+    public static final int DEFAULT_RESAMPLING = RESAMPLING_BILINEAR;
+    public static final int DEFAULT_THREAD_COUNT = 0;
 
     private final RectF mCropRect = new RectF();
 
     private final Matrix mTempMatrix = new Matrix();
+    // Scratch buffers of the crop bounds checks, those run on every animation frame
+    private final float[] mTranslatedImageCorners = new float[8];
+    private final float[] mUnrotatedImageCorners = new float[8];
+    private final float[] mUnrotatedCropCorners = new float[8];
+    private final float[] mImageIndents = new float[4];
+    private final float[] mTempImageSides = new float[2];
+    private final RectF mUnrotatedImageRect = new RectF();
+    private final RectF mUnrotatedCropRect = new RectF();
+    private final RectF mTempCropRect = new RectF();
 
     private float mTargetAspectRatio;
     private float mMaxScaleMultiplier = DEFAULT_MAX_SCALE_MULTIPLIER;
 
     private CropBoundsChangeListener mCropBoundsChangeListener;
+    // Overlay drawn over the image in composite rendering
+    @Nullable
+    private OverlayView mCompositeOverlay;
 
-    private Runnable mWrapCropBoundsRunnable, mZoomImageToPositionRunnable = null;
+    private final CropImageAnimator mImageAnimator = new CropImageAnimator(this);
 
     private float mMaxScale, mMinScale;
     private int mMaxResultImageSizeX = 0, mMaxResultImageSizeY = 0;
     private long mImageToWrapCropBoundsAnimDuration = DEFAULT_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION;
+    private int mOutputFsyncMode = DEFAULT_OUTPUT_FSYNC_MODE;
+    private boolean mAvifCompressionEnabled = DEFAULT_AVIF_COMPRESSION;
+    private long mMaxResultFileSize = DEFAULT_MAX_RESULT_FILE_SIZE;
+    private float mTargetQualityScore = DEFAULT_TARGET_QUALITY_SCORE;
+    private int mAutoFormat = DEFAULT_AUTO_FORMAT;
+    private int mResampling = DEFAULT_RESAMPLING;
+    private int mThreadCount = DEFAULT_THREAD_COUNT;
+    private NativeCropSession mNativeCropSession;
+    private BitmapCropTask mCropTask;
 
     public CropImageView(Context context) {
         this(context, null);
@@ -69,8 +113,11 @@ public class CropImageView extends TransformImageView {
     /**
      * Cancels all current animations and sets image to fill crop area (without animation).
      * Then creates and executes {@link BitmapCropTask} with proper parameters.
+     *
+     * @return - running task, {@link BitmapCropTask#cancelCrop()} stops it
      */
-    public void cropAndSaveImage(@NonNull Bitmap.CompressFormat compressFormat, int compressQuality,
+    @NonNull
+    public BitmapCropTask cropAndSaveImage(@NonNull Bitmap.CompressFormat compressFormat, int compressQuality,
                                  @Nullable BitmapCropCallback cropCallback) {
         cancelAllAnimations();
         setImageToWrapCropBounds(false);
@@ -85,9 +132,44 @@ public class CropImageView extends TransformImageView {
                 getImageInputPath(), getImageOutputPath(), getExifInfo(),
                 getCurrentBrightness(), getCurrentContrast(), getCurrentSaturation(),
                 getCurrentSharpness());
+        cropParameters.setImageOutputUri(getImageOutputUri());
+        cropParameters.setOutputFsyncMode(mOutputFsyncMode);
+        cropParameters.setAvifCompressionEnabled(mAvifCompressionEnabled);
+        cropParameters.setMaxResultFileSize(mMaxResultFileSize);
+        cropParameters.setTargetQualityScore(mTargetQualityScore);
+        cropParameters.setAutoFormat(mAutoFormat);
+        cropParameters.setResampling(mResampling);
+        cropParameters.setThreadCount(mThreadCount);
+        cropParameters.setNativeCropSession(mNativeCropSession);
 
-        new BitmapCropTask(getContext(), getViewBitmap(), imageState, cropParameters, cropCallback)
-                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        mCropTask = new BitmapCropTask(getContext(), getViewBitmap(), imageState, cropParameters, cropCallback);
+        mCropTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return mCropTask;
+    }
+
+    /**
+     * Also cancels the last crop started by {@link #cropAndSaveImage(Bitmap.CompressFormat, int, BitmapCropCallback)}.
+     */
+    @Override
+    public void cancelBackgroundWork() {
+        if (mCropTask != null) {
+            mCropTask.cancelCrop();
+        }
+        super.cancelBackgroundWork();
+        mCropTask = null;
+    }
+
+    /**
+     * The last crop may still read the input, it deletes a source copy itself once it is done.
+     */
+    @Override
+    protected void releaseImageInput(@NonNull String imageInputPath) {
+        if (mCropTask != null && mCropTask.getStatus() != AsyncTask.Status.FINISHED
+                && BitmapLoadTask.isLocalCopy(getContext(), imageInputPath)) {
+            mCropTask.deleteWhenDone(imageInputPath);
+        } else {
+            super.releaseImageInput(imageInputPath);
+        }
     }
 
     /**
@@ -177,6 +259,84 @@ public class CropImageView extends TransformImageView {
         mMaxResultImageSizeY = maxResultImageSizeY;
     }
 
+    /**
+     * This method sets how resulting image is flushed to the storage before it replaces the output.
+     *
+     * @param outputFsyncMode - one of {@link OutputCommitter#FSYNC_NONE}, {@link OutputCommitter#FSYNC_DATA},
+     *                        {@link OutputCommitter#FSYNC_FULL}
+     */
+    public void setOutputFsyncMode(@OutputCommitter.FsyncMode int outputFsyncMode) {
+        mOutputFsyncMode = outputFsyncMode;
+    }
+
+    /**
+     * This method sets whether resulting image is encoded as AVIF. Compress format is used
+     * if AVIF encoder is not available.
+     *
+     * @param avifCompressionEnabled - true to prefer AVIF
+     */
+    public void setAvifCompressionEnabled(boolean avifCompressionEnabled) {
+        mAvifCompressionEnabled = avifCompressionEnabled;
+    }
+
+    /**
+     * This method sets maximum size of resulting file. Compression quality is lowered
+     * until the result fits, lossless formats are saved as is.
+     *
+     * @param maxResultFileSize - size in bytes, 0 to disable
+     */
+    public void setMaxResultFileSize(@IntRange(from = 0) long maxResultFileSize) {
+        mMaxResultFileSize = maxResultFileSize;
+    }
+
+    /**
+     * This method sets perceptual quality (SSIM) resulting image should keep. Compression quality
+     * becomes the upper bound and the lowest quality that reaches the score is used.
+     *
+     * @param targetQualityScore - SSIM in (0, 1], 0 to disable
+     */
+    public void setTargetQualityScore(@FloatRange(from = 0, to = 1) float targetQualityScore) {
+        mTargetQualityScore = targetQualityScore;
+    }
+
+    /**
+     * This method sets whether output format is picked from image content instead of compress format.
+     *
+     * @param autoFormat - {@link #AUTO_FORMAT_DISABLE}, {@link #AUTO_FORMAT_JPEG_PNG} or {@link #AUTO_FORMAT_WEBP}
+     */
+    public void setAutoFormat(@AutoFormat int autoFormat) {
+        mAutoFormat = autoFormat;
+    }
+
+    /**
+     * This method sets filter used to sample source pixels into the resulting image.
+     *
+     * @param resampling - {@link #RESAMPLING_NEAREST}, {@link #RESAMPLING_BILINEAR}, {@link #RESAMPLING_BICUBIC},
+     *                   {@link #RESAMPLING_LANCZOS3} or {@link #RESAMPLING_AREA}
+     */
+    public void setResampling(@Resampling int resampling) {
+        mResampling = resampling;
+    }
+
+    /**
+     * This method sets number of threads the native crop may use.
+     *
+     * @param threadCount - number of threads, 0 to use all big cores of the device
+     */
+    public void setThreadCount(@IntRange(from = 0) int threadCount) {
+        mThreadCount = threadCount;
+    }
+
+    /**
+     * This method sets native session that keeps crop buffers between crops. The session stays owned by the caller,
+     * who has to close it once it is not needed.
+     *
+     * @param nativeCropSession - session to reuse buffers of, null to allocate them for each crop
+     */
+    public void setNativeCropSession(@Nullable NativeCropSession nativeCropSession) {
+        mNativeCropSession = nativeCropSession;
+    }
+
     /**
      * This method sets animation duration for image to wrap the crop bounds
      *
@@ -257,11 +417,18 @@ public class CropImageView extends TransformImageView {
     }
 
     /**
-     * This method cancels all current Runnable objects that represent animations.
+     * This method cancels current image animation, the image stays where it is.
      */
     public void cancelAllAnimations() {
-        removeCallbacks(mWrapCropBoundsRunnable);
-        removeCallbacks(mZoomImageToPositionRunnable);
+        mImageAnimator.cancel();
+    }
+
+    /**
+     * @return - animator that moves the image, it runs one animation at a time
+     */
+    @NonNull
+    public CropImageAnimator getImageAnimator() {
+        return mImageAnimator;
     }
 
     public void setImageToWrapCropBounds() {
@@ -272,7 +439,7 @@ public class CropImageView extends TransformImageView {
      * If image doesn't fill the crop bounds it must be translated and scaled properly to fill those.
      * <p/>
      * Therefore this method calculates delta X, Y and scale values and passes them to the
-     * {@link WrapCropBoundsRunnable} which animates image.
+     * {@link CropImageAnimator} which animates image.
      * Scale value must be calculated only if image won't fill the crop bounds after it's translated to the
      * crop bounds rectangle center. Using temporary variables this method checks this case.
      */
@@ -290,22 +457,22 @@ public class CropImageView extends TransformImageView {
             mTempMatrix.reset();
             mTempMatrix.setTranslate(deltaX, deltaY);
 
-            final float[] tempCurrentImageCorners = Arrays.copyOf(mCurrentImageCorners, mCurrentImageCorners.length);
-            mTempMatrix.mapPoints(tempCurrentImageCorners);
+            mTempMatrix.mapPoints(mTranslatedImageCorners, mCurrentImageCorners);
 
-            boolean willImageWrapCropBoundsAfterTranslate = isImageWrapCropBounds(tempCurrentImageCorners);
+            boolean willImageWrapCropBoundsAfterTranslate = isImageWrapCropBounds(mTranslatedImageCorners);
 
             if (willImageWrapCropBoundsAfterTranslate) {
                 final float[] imageIndents = calculateImageIndents();
                 deltaX = -(imageIndents[0] + imageIndents[2]);
                 deltaY = -(imageIndents[1] + imageIndents[3]);
             } else {
-                RectF tempCropRect = new RectF(mCropRect);
+                RectF tempCropRect = mTempCropRect;
+                tempCropRect.set(mCropRect);
                 mTempMatrix.reset();
                 mTempMatrix.setRotate(getCurrentAngle());
                 mTempMatrix.mapRect(tempCropRect);
 
-                final float[] currentImageSides = RectUtils.getRectSidesFromCorners(mCurrentImageCorners);
+                final float[] currentImageSides = RectUtils.getRectSidesFromCorners(mCurrentImageCorners, mTempImageSides);
 
                 deltaScale = Math.max(tempCropRect.width() / currentImageSides[0],
                         tempCropRect.height() / currentImageSides[1]);
@@ -313,9 +480,10 @@ public class CropImageView extends TransformImageView {
             }
 
             if (animate) {
-                post(mWrapCropBoundsRunnable = new WrapCropBoundsRunnable(
-                        CropImageView.this, mImageToWrapCropBoundsAnimDuration, currentX, currentY, deltaX, deltaY,
-                        currentScale, deltaScale, willImageWrapCropBoundsAfterTranslate));
+                float targetScale = willImageWrapCropBoundsAfterTranslate
+                        ? currentScale : Math.min(currentScale + deltaScale, getMaxScale());
+                mImageAnimator.animateTo(currentX + deltaX, currentY + deltaY, targetScale, getCurrentAngle(),
+                        mImageToWrapCropBoundsAnimDuration, false);
             } else {
                 postTranslate(deltaX, deltaY);
                 if (!willImageWrapCropBoundsAfterTranslate) {
@@ -331,27 +499,28 @@ public class CropImageView extends TransformImageView {
      * Third, depending on delta (its sign) put them or zero inside an array.
      * Fourth, using Matrix, rotate back those points (indents).
      *
-     * @return - the float array of image indents (4 floats) - in this order [left, top, right, bottom]
+     * @return - the float array of image indents (4 floats) - in this order [left, top, right, bottom],
+     * it is reused by the next call
      */
     private float[] calculateImageIndents() {
         mTempMatrix.reset();
         mTempMatrix.setRotate(-getCurrentAngle());
 
-        float[] unrotatedImageCorners = Arrays.copyOf(mCurrentImageCorners, mCurrentImageCorners.length);
-        float[] unrotatedCropBoundsCorners = RectUtils.getCornersFromRect(mCropRect);
+        float[] unrotatedImageCorners = mUnrotatedImageCorners;
+        float[] unrotatedCropBoundsCorners = RectUtils.getCornersFromRect(mCropRect, mUnrotatedCropCorners);
 
-        mTempMatrix.mapPoints(unrotatedImageCorners);
+        mTempMatrix.mapPoints(unrotatedImageCorners, mCurrentImageCorners);
         mTempMatrix.mapPoints(unrotatedCropBoundsCorners);
 
-        RectF unrotatedImageRect = RectUtils.trapToRect(unrotatedImageCorners);
-        RectF unrotatedCropRect = RectUtils.trapToRect(unrotatedCropBoundsCorners);
+        RectF unrotatedImageRect = RectUtils.trapToRect(unrotatedImageCorners, mUnrotatedImageRect);
+        RectF unrotatedCropRect = RectUtils.trapToRect(unrotatedCropBoundsCorners, mUnrotatedCropRect);
 
         float deltaLeft = unrotatedImageRect.left - unrotatedCropRect.left;
         float deltaTop = unrotatedImageRect.top - unrotatedCropRect.top;
         float deltaRight = unrotatedImageRect.right - unrotatedCropRect.right;
         float deltaBottom = unrotatedImageRect.bottom - unrotatedCropRect.bottom;
 
-        float indents[] = new float[4];
+        float[] indents = mImageIndents;
         indents[0] = (deltaLeft > 0) ? deltaLeft : 0;
         indents[1] = (deltaTop > 0) ? deltaTop : 0;
         indents[2] = (deltaRight < 0) ? deltaRight : 0;
@@ -423,16 +592,29 @@ public class CropImageView extends TransformImageView {
      * @return - true if it wraps crop bounds, false - otherwise
      */
     protected boolean isImageWrapCropBounds(float[] imageCorners) {
+        return isImageWrapCropBounds(imageCorners, getCurrentAngle());
+    }
+
+    /**
+     * Same as {@link #isImageWrapCropBounds(float[])} for a rectangle rotated by given angle,
+     * e.g. the image with a transform that is not applied yet.
+     *
+     * @param imageCorners - corners of a rectangle
+     * @param angle        - rotation of the rectangle in degrees
+     * @return - true if it wraps crop bounds, false - otherwise
+     */
+    protected boolean isImageWrapCropBounds(float[] imageCorners, float angle) {
         mTempMatrix.reset();
-        mTempMatrix.setRotate(-getCurrentAngle());
+        mTempMatrix.setRotate(-angle);
 
-        float[] unrotatedImageCorners = Arrays.copyOf(imageCorners, imageCorners.length);
-        mTempMatrix.mapPoints(unrotatedImageCorners);
+        float[] unrotatedImageCorners = mUnrotatedImageCorners;
+        mTempMatrix.mapPoints(unrotatedImageCorners, imageCorners);
 
-        float[] unrotatedCropBoundsCorners = RectUtils.getCornersFromRect(mCropRect);
+        float[] unrotatedCropBoundsCorners = RectUtils.getCornersFromRect(mCropRect, mUnrotatedCropCorners);
         mTempMatrix.mapPoints(unrotatedCropBoundsCorners);
 
-        return RectUtils.trapToRect(unrotatedImageCorners).contains(RectUtils.trapToRect(unrotatedCropBoundsCorners));
+        return RectUtils.trapToRect(unrotatedImageCorners, mUnrotatedImageRect)
+                .contains(RectUtils.trapToRect(unrotatedCropBoundsCorners, mUnrotatedCropRect));
     }
 
     /**
@@ -448,11 +630,76 @@ public class CropImageView extends TransformImageView {
             scale = getMaxScale();
         }
 
-        final float oldScale = getCurrentScale();
-        final float deltaScale = scale - oldScale;
+        // Image center moves away from the zoom center as much as the image scales
+        final float ratio = scale / getCurrentScale();
+        mImageAnimator.animateTo(centerX + (mCurrentImageCenter[0] - centerX) * ratio,
+                centerY + (mCurrentImageCenter[1] - centerY) * ratio,
+                scale, getCurrentAngle(), durationMs, true);
+    }
 
-        post(mZoomImageToPositionRunnable = new ZoomImageToPosition(CropImageView.this,
-                durationMs, oldScale, deltaScale, centerX, centerY));
+    /**
+     * This method moves the image with given velocity that decays over time, then the image is moved
+     * to fill the crop bounds.
+     *
+     * @param velocityX - horizontal velocity in pixels per second
+     * @param velocityY - vertical velocity in pixels per second
+     */
+    protected void flingImage(float velocityX, float velocityY) {
+        mImageAnimator.fling(velocityX, velocityY);
+    }
+
+    /**
+     * Sets image center, scale and angle of an animation frame with a single matrix update.
+     */
+    void applyAnimatedTransform(float centerX, float centerY, float scale, float angle) {
+        final float currentX = mCurrentImageCenter[0], currentY = mCurrentImageCenter[1];
+        final float currentScale = getCurrentScale(), currentAngle = getCurrentAngle();
+        if (scale != currentScale) {
+            mCurrentImageMatrix.postScale(scale / currentScale, scale / currentScale, currentX, currentY);
+        }
+        if (angle != currentAngle) {
+            mCurrentImageMatrix.postRotate(angle - currentAngle, currentX, currentY);
+        }
+        mCurrentImageMatrix.postTranslate(centerX - currentX, centerY - currentY);
+        setImageMatrix(mCurrentImageMatrix);
+
+        if (mTransformImageListener != null) {
+            long start = UCropFrameMetrics.begin();
+            if (scale != currentScale) {
+                mTransformImageListener.onScale(getCurrentScale());
+            }
+            if (angle != currentAngle) {
+                mTransformImageListener.onRotate(getCurrentAngle());
+            }
+            UCropFrameMetrics.end(UCropFrameMetrics.VIEW_CROP_IMAGE, UCropFrameMetrics.SECTION_LISTENERS, start);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        cancelAllAnimations();
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * @param overlay - overlay to draw right after the image in {@link #onDraw(Canvas)}, null if it draws itself
+     */
+    void setCompositeOverlay(@Nullable OverlayView overlay) {
+        mCompositeOverlay = overlay;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mCompositeOverlay != null) {
+            long start = UCropFrameMetrics.begin();
+            canvas.save();
+            canvas.translate(mCompositeOverlay.getLeft() - getLeft(), mCompositeOverlay.getTop() - getTop());
+            mCompositeOverlay.drawOverlay(canvas);
+            canvas.restore();
+            UCropFrameMetrics.end(UCropFrameMetrics.VIEW_OVERLAY, UCropFrameMetrics.SECTION_DRAW, start);
+        }
     }
 
     private void calculateImageScaleBounds() {
@@ -518,119 +765,14 @@ public class CropImageView extends TransformImageView {
         }
     }
 
-    /**
-     * This Runnable is used to animate an image so it fills the crop bounds entirely.
-     * Given values are interpolated during the animation time.
-     * Runnable can be terminated either vie {@link #cancelAllAnimations()} method
-     * or when certain conditions inside {@link WrapCropBoundsRunnable#run()} method are triggered.
-     */
-    private static class WrapCropBoundsRunnable implements Runnable {
-
-        private final WeakReference<CropImageView> mCropImageView;
-
-        private final long mDurationMs, mStartTime;
-        private final float mOldX, mOldY;
-        private final float mCenterDiffX, mCenterDiffY;
-        private final float mOldScale;
-        private final float mDeltaScale;
-        private final boolean mWillBeImageInBoundsAfterTranslate;
-
-        public WrapCropBoundsRunnable(CropImageView cropImageView,
-                                      long durationMs,
-                                      float oldX, float oldY,
-                                      float centerDiffX, float centerDiffY,
-                                      float oldScale, float deltaScale,
-                                      boolean willBeImageInBoundsAfterTranslate) {
-
-            mCropImageView = new WeakReference<>(cropImageView);
-
-            mDurationMs = durationMs;
-            mStartTime = System.currentTimeMillis();
-            mOldX = oldX;
-            mOldY = oldY;
-            mCenterDiffX = centerDiffX;
-            mCenterDiffY = centerDiffY;
-            mOldScale = oldScale;
-            mDeltaScale = deltaScale;
-            mWillBeImageInBoundsAfterTranslate = willBeImageInBoundsAfterTranslate;
-        }
-
-        @Override
-        public void run() {
-            CropImageView cropImageView = mCropImageView.get();
-            if (cropImageView == null) {
-                return;
-            }
-
-            long now = System.currentTimeMillis();
-            float currentMs = Math.min(mDurationMs, now - mStartTime);
-
-            float newX = CubicEasing.easeOut(currentMs, 0, mCenterDiffX, mDurationMs);
-            float newY = CubicEasing.easeOut(currentMs, 0, mCenterDiffY, mDurationMs);
-            float newScale = CubicEasing.easeInOut(currentMs, 0, mDeltaScale, mDurationMs);
-
-            if (currentMs < mDurationMs) {
-                cropImageView.postTranslate(newX - (cropImageView.mCurrentImageCenter[0] - mOldX), newY - (cropImageView.mCurrentImageCenter[1] - mOldY));
-                if (!mWillBeImageInBoundsAfterTranslate) {
-                    cropImageView.zoomInImage(mOldScale + newScale, cropImageView.mCropRect.centerX(), cropImageView.mCropRect.centerY());
-                }
-                if (!cropImageView.isImageWrapCropBounds()) {
-                    cropImageView.post(this);
-                }
-            }
-        }
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({AUTO_FORMAT_DISABLE, AUTO_FORMAT_JPEG_PNG, AUTO_FORMAT_WEBP})
+    public @interface AutoFormat {
     }
 
-    /**
-     * This Runnable is used to animate an image zoom.
-     * Given values are interpolated during the animation time.
-     * Runnable can be terminated either vie {@link #cancelAllAnimations()} method
-     * or when certain conditions inside {@link ZoomImageToPosition#run()} method are triggered.
-     */
-    private static class ZoomImageToPosition implements Runnable {
-
-        private final WeakReference<CropImageView> mCropImageView;
-
-        private final long mDurationMs, mStartTime;
-        private final float mOldScale;
-        private final float mDeltaScale;
-        private final float mDestX;
-        private final float mDestY;
-
-        public ZoomImageToPosition(CropImageView cropImageView,
-                                   long durationMs,
-                                   float oldScale, float deltaScale,
-                                   float destX, float destY) {
-
-            mCropImageView = new WeakReference<>(cropImageView);
-
-            mStartTime = System.currentTimeMillis();
-            mDurationMs = durationMs;
-            mOldScale = oldScale;
-            mDeltaScale = deltaScale;
-            mDestX = destX;
-            mDestY = destY;
-        }
-
-        @Override
-        public void run() {
-            CropImageView cropImageView = mCropImageView.get();
-            if (cropImageView == null) {
-                return;
-            }
-
-            long now = System.currentTimeMillis();
-            float currentMs = Math.min(mDurationMs, now - mStartTime);
-            float newScale = CubicEasing.easeInOut(currentMs, 0, mDeltaScale, mDurationMs);
-
-            if (currentMs < mDurationMs) {
-                cropImageView.zoomInImage(mOldScale + newScale, mDestX, mDestY);
-                cropImageView.post(this);
-            } else {
-                cropImageView.setImageToWrapCropBounds();
-            }
-        }
-
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({RESAMPLING_NEAREST, RESAMPLING_BILINEAR, RESAMPLING_BICUBIC, RESAMPLING_LANCZOS3, RESAMPLING_AREA})
+    public @interface Resampling {
     }
 
 }
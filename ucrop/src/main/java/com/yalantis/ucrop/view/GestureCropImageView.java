@@ -1,11 +1,16 @@
 package com.yalantis.ucrop.view;
 
 import android.content.Context;
+import android.graphics.Matrix;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
+import android.view.VelocityTracker;
+import android.view.ViewConfiguration;
 
+import com.yalantis.ucrop.UCropFrameMetrics;
 import com.yalantis.ucrop.util.RotationGestureDetector;
 
 /**
@@ -14,10 +19,28 @@ import com.yalantis.ucrop.util.RotationGestureDetector;
 public class GestureCropImageView extends CropImageView {
 
     private static final int DOUBLE_TAP_ZOOM_DURATION = 200;
+    // Drag moves the image this much slower once it leaves the crop bounds
+    private static final float RUBBER_BAND_RESISTANCE = 0.5f;
 
     private ScaleGestureDetector mScaleDetector;
     private RotationGestureDetector mRotateDetector;
     private GestureDetector mGestureDetector;
+    private VelocityTracker mVelocityTracker;
+    private int mMinFlingVelocity, mMaxFlingVelocity;
+    // Pinch or rotation happened during the current gesture, so it does not end with a fling
+    private boolean mMultiTouchGesture;
+
+    // Gesture transforms since the last frame, applied with one matrix update per frame
+    private final Matrix mPendingMatrix = new Matrix();
+    private float mPendingScale = 1, mPendingAngle;
+    private final float[] mPendingImageCorners = new float[8];
+    private boolean mTransformPending, mPendingScaleChanged, mPendingAngleChanged;
+    private final Choreographer.FrameCallback mApplyPendingTransform = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            applyPendingTransform();
+        }
+    };
 
     private float mMidPntX, mMidPntY;
 
@@ -70,17 +93,31 @@ public class GestureCropImageView extends CropImageView {
 
     /**
      * If it's ACTION_DOWN event - user touches the screen and all current animation must be canceled.
-     * If it's ACTION_UP event - user removed all fingers from the screen and current image position must be corrected.
+     * If it's ACTION_UP event - user removed all fingers from the screen, a fast single finger drag continues
+     * as a fling, otherwise current image position must be corrected.
      * If there are more than 2 fingers - update focal point coordinates.
      * Pass the event to the gesture detectors if those are enabled.
      */
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        if ((event.getAction() & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_DOWN) {
+        final int action = event.getAction() & MotionEvent.ACTION_MASK;
+        UCropFrameMetrics.onTouchEvent(event);
+        if (action == MotionEvent.ACTION_DOWN) {
             cancelAllAnimations();
+            mMultiTouchGesture = false;
+            if (mVelocityTracker == null) {
+                mVelocityTracker = VelocityTracker.obtain();
+            } else {
+                mVelocityTracker.clear();
+            }
+        }
+        if (mVelocityTracker != null) {
+            // Historical samples of the event are added too
+            mVelocityTracker.addMovement(event);
         }
 
         if (event.getPointerCount() > 1) {
+            mMultiTouchGesture = true;
             mMidPntX = (event.getX(0) + event.getX(1)) / 2;
             mMidPntY = (event.getY(0) + event.getY(1)) / 2;
         }
@@ -97,9 +134,34 @@ public class GestureCropImageView extends CropImageView {
             mRotateDetector.onTouchEvent(event);
         }
 
-        if ((event.getAction() & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_UP) {
-            setImageToWrapCropBounds();
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            // Position must be final before it is corrected
+            applyPendingTransform();
+            // Double tap zoom started by this gesture corrects the position when it ends
+            if (!getImageAnimator().isRunning() && (action == MotionEvent.ACTION_CANCEL || !startFling())) {
+                setImageToWrapCropBounds();
+            }
+            if (mVelocityTracker != null) {
+                mVelocityTracker.recycle();
+                mVelocityTracker = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return - true if the gesture was a drag fast enough to continue as a fling
+     */
+    private boolean startFling() {
+        if (!mIsGestureEnabled || mMultiTouchGesture || mVelocityTracker == null) {
+            return false;
         }
+        mVelocityTracker.computeCurrentVelocity(1000, mMaxFlingVelocity);
+        float velocityX = mVelocityTracker.getXVelocity(), velocityY = mVelocityTracker.getYVelocity();
+        if (Math.hypot(velocityX, velocityY) < mMinFlingVelocity) {
+            return false;
+        }
+        flingImage(velocityX, velocityY);
         return true;
     }
 
@@ -109,6 +171,128 @@ public class GestureCropImageView extends CropImageView {
         setupGestureListeners();
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        Choreographer.getInstance().removeFrameCallback(mApplyPendingTransform);
+        applyPendingTransform();
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Gesture detectors can report several changes per frame, especially on high rate touchscreens.
+     * Those are collected into one matrix and applied on the next frame, so the image matrix is set
+     * and listeners are notified once per frame.
+     */
+    private void queueTranslate(float deltaX, float deltaY) {
+        if (deltaX != 0 || deltaY != 0) {
+            mPendingMatrix.postTranslate(deltaX, deltaY);
+            scheduleTransform();
+        }
+    }
+
+    /**
+     * Same limits as {@link CropImageView#postScale(float, float, float)}, checked against the pending scale.
+     */
+    private void queueScale(float deltaScale, float px, float py) {
+        float scale = getCurrentScale() * mPendingScale * deltaScale;
+        if ((deltaScale > 1 && scale <= getMaxScale()) || (deltaScale < 1 && scale >= getMinScale())) {
+            mPendingMatrix.postScale(deltaScale, deltaScale, px, py);
+            mPendingScale *= deltaScale;
+            mPendingScaleChanged = true;
+            scheduleTransform();
+        }
+    }
+
+    private void queueRotate(float deltaAngle, float px, float py) {
+        if (deltaAngle != 0) {
+            mPendingMatrix.postRotate(deltaAngle, px, py);
+            mPendingAngle += deltaAngle;
+            mPendingAngleChanged = true;
+            scheduleTransform();
+        }
+    }
+
+    private void scheduleTransform() {
+        if (!mTransformPending) {
+            mTransformPending = true;
+            Choreographer.getInstance().postFrameCallback(mApplyPendingTransform);
+        }
+    }
+
+    /**
+     * Applies transforms queued since the last frame, called from the frame callback and when the gesture ends.
+     */
+    void applyPendingTransform() {
+        if (!mTransformPending) {
+            return;
+        }
+        Choreographer.getInstance().removeFrameCallback(mApplyPendingTransform);
+        mCurrentImageMatrix.postConcat(mPendingMatrix);
+        setImageMatrix(mCurrentImageMatrix);
+
+        if (mTransformImageListener != null) {
+            long start = UCropFrameMetrics.begin();
+            if (mPendingScaleChanged) {
+                mTransformImageListener.onScale(getCurrentScale());
+            }
+            if (mPendingAngleChanged) {
+                mTransformImageListener.onRotate(getCurrentAngle());
+            }
+            UCropFrameMetrics.end(UCropFrameMetrics.VIEW_CROP_IMAGE, UCropFrameMetrics.SECTION_LISTENERS, start);
+        }
+        mPendingMatrix.reset();
+        mPendingScale = 1;
+        mPendingAngle = 0;
+        mTransformPending = mPendingScaleChanged = mPendingAngleChanged = false;
+    }
+
+    /**
+     * @return - true if the image fills the crop bounds with the pending transform applied
+     */
+    private boolean isPendingImageWrapCropBounds() {
+        if (!mTransformPending) {
+            return isImageWrapCropBounds();
+        }
+        mPendingMatrix.mapPoints(mPendingImageCorners, mCurrentImageCorners);
+        return isImageWrapCropBounds(mPendingImageCorners, getCurrentAngle() + mPendingAngle);
+    }
+
+    /**
+     * Drag is resisted once the image, as it will be drawn on the next frame, leaves the crop bounds.
+     */
+    private void queueDrag(float deltaX, float deltaY) {
+        if (!isPendingImageWrapCropBounds()) {
+            deltaX *= RUBBER_BAND_RESISTANCE;
+            deltaY *= RUBBER_BAND_RESISTANCE;
+        }
+        queueTranslate(deltaX, deltaY);
+    }
+
+    /**
+     * @param historyIndex - index of a historical sample or -1 for the current one
+     * @return - average X of all pointers, same as the focus of {@link GestureDetector} while pointers move
+     */
+    private static float getFocusX(MotionEvent event, int historyIndex) {
+        float sum = 0;
+        int count = event.getPointerCount();
+        for (int i = 0; i < count; i++) {
+            sum += historyIndex < 0 ? event.getX(i) : event.getHistoricalX(i, historyIndex);
+        }
+        return sum / count;
+    }
+
+    /**
+     * @see #getFocusX(MotionEvent, int)
+     */
+    private static float getFocusY(MotionEvent event, int historyIndex) {
+        float sum = 0;
+        int count = event.getPointerCount();
+        for (int i = 0; i < count; i++) {
+            sum += historyIndex < 0 ? event.getY(i) : event.getHistoricalY(i, historyIndex);
+        }
+        return sum / count;
+    }
+
     /**
      * This method calculates target scale value for double tap gesture.
      * User is able to zoom the image from min scale value
@@ -119,6 +303,9 @@ public class GestureCropImageView extends CropImageView {
     }
 
     private void setupGestureListeners() {
+        ViewConfiguration configuration = ViewConfiguration.get(getContext());
+        mMinFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+        mMaxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
         mGestureDetector = new GestureDetector(getContext(), new GestureListener(), null, true);
         mScaleDetector = new ScaleGestureDetector(getContext(), new ScaleListener());
         mRotateDetector = new RotationGestureDetector(new RotateListener());
@@ -128,7 +315,7 @@ public class GestureCropImageView extends CropImageView {
 
         @Override
         public boolean onScale(ScaleGestureDetector detector) {
-            postScale(detector.getScaleFactor(), mMidPntX, mMidPntY);
+            queueScale(detector.getScaleFactor(), mMidPntX, mMidPntY);
             return true;
         }
     }
@@ -137,13 +324,27 @@ public class GestureCropImageView extends CropImageView {
 
         @Override
         public boolean onDoubleTap(MotionEvent e) {
+            applyPendingTransform();
             zoomImageToPosition(getDoubleTapTargetScale(), e.getX(), e.getY(), DOUBLE_TAP_ZOOM_DURATION);
             return super.onDoubleTap(e);
         }
 
+        /**
+         * The detector reports the distance to the latest position only. Samples batched into the event since
+         * the previous one are dragged through one by one, so the rubber band starts at the sample where the image
+         * leaves the crop bounds. Their sum is the reported distance.
+         */
         @Override
         public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
-            postTranslate(-distanceX, -distanceY);
+            float focusX = getFocusX(e2, -1), focusY = getFocusY(e2, -1);
+            float lastX = focusX + distanceX, lastY = focusY + distanceY;
+            for (int h = 0; h < e2.getHistorySize(); h++) {
+                float x = getFocusX(e2, h), y = getFocusY(e2, h);
+                queueDrag(x - lastX, y - lastY);
+                lastX = x;
+                lastY = y;
+            }
+            queueDrag(focusX - lastX, focusY - lastY);
             return true;
         }
 
@@ -153,7 +354,7 @@ public class GestureCropImageView extends CropImageView {
 
         @Override
         public boolean onRotation(RotationGestureDetector rotationDetector) {
-            postRotate(rotationDetector.getAngle(), mMidPntX, mMidPntY);
+            queueRotate(rotationDetector.getAngle(), mMidPntX, mMidPntY);
             return true;
         }
 
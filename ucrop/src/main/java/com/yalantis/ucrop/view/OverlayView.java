@@ -5,14 +5,15 @@ import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.Region;
 import android.os.Build;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
 
 import com.yalantis.ucrop.R;
+import com.yalantis.ucrop.UCropFrameMetrics;
 import com.yalantis.ucrop.callback.OverlayViewChangeListener;
 import com.yalantis.ucrop.util.RectUtils;
 
@@ -23,6 +24,7 @@ import androidx.annotation.ColorInt;
 import androidx.annotation.IntDef;
 import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 /**
  * Created by Oleksii Shliama (https://github.com/shliama).
@@ -45,6 +47,8 @@ public class OverlayView extends View {
 
     private final RectF mCropViewRect = new RectF();
     private final RectF mTempRect = new RectF();
+    private final RectF mDirtyRect = new RectF();
+    private final Rect mDirtyBounds = new Rect();
 
     protected int mThisWidth, mThisHeight;
     protected float[] mCropGridCorners;
@@ -56,8 +60,10 @@ public class OverlayView extends View {
     private boolean mShowCropFrame, mShowCropGrid;
     private boolean mCircleDimmedLayer;
     private int mDimmedColor;
-    private Path mCircularPath = new Path();
-    private Paint mDimmedStrokePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    // Built when crop bounds change, so a frame is a few draw calls without clipping
+    private final Path mDimmedLayerPath = new Path();
+    private final Path mCropFrameCornersPath = new Path();
+    private Paint mDimmedPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
     private Paint mCropGridPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
     private Paint mCropFramePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
     private Paint mCropFrameCornersPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
@@ -71,6 +77,10 @@ public class OverlayView extends View {
 
     private OverlayViewChangeListener mCallback;
 
+    // View that draws this overlay in its own onDraw, null while the overlay draws itself
+    @Nullable
+    private View mOverlayHost;
+
     private boolean mShouldSetupCropBounds;
 
     {
@@ -128,7 +138,7 @@ public class OverlayView extends View {
 
     public void setFreestyleCropMode(@FreestyleMode int mFreestyleCropMode) {
         this.mFreestyleCropMode = mFreestyleCropMode;
-        postInvalidate();
+        invalidateOverlay();
     }
 
     /**
@@ -138,6 +148,7 @@ public class OverlayView extends View {
      */
     public void setCircleDimmedLayer(boolean circleDimmedLayer) {
         mCircleDimmedLayer = circleDimmedLayer;
+        updateOverlayPaths();
     }
 
     /**
@@ -183,6 +194,7 @@ public class OverlayView extends View {
      */
     public void setDimmedColor(@ColorInt int dimmedColor) {
         mDimmedColor = dimmedColor;
+        mDimmedPaint.setColor(dimmedColor);
     }
 
     /**
@@ -229,7 +241,7 @@ public class OverlayView extends View {
         mTargetAspectRatio = targetAspectRatio;
         if (mThisWidth > 0) {
             setupCropBounds();
-            postInvalidate();
+            invalidateOverlay();
         } else {
             mShouldSetupCropBounds = true;
         }
@@ -264,9 +276,90 @@ public class OverlayView extends View {
         mCropGridCenter = RectUtils.getCenterFromRect(mCropViewRect);
 
         mGridPoints = null;
-        mCircularPath.reset();
-        mCircularPath.addCircle(mCropViewRect.centerX(), mCropViewRect.centerY(),
-                Math.min(mCropViewRect.width(), mCropViewRect.height()) / 2.f, Path.Direction.CW);
+        updateOverlayPaths();
+    }
+
+    /**
+     * Dimmed layer is the view area with the crop bounds (rectangle or circle) cut out of it.
+     * Frame corners are the parts of the frame edges not farther than the corner touch area line length from corners.
+     */
+    private void updateOverlayPaths() {
+        mDimmedLayerPath.reset();
+        mDimmedLayerPath.setFillType(Path.FillType.EVEN_ODD);
+        mDimmedLayerPath.addRect(0, 0, getWidth(), getHeight(), Path.Direction.CW);
+        if (mCircleDimmedLayer) {
+            mDimmedLayerPath.addCircle(mCropViewRect.centerX(), mCropViewRect.centerY(),
+                    Math.min(mCropViewRect.width(), mCropViewRect.height()) / 2.f, Path.Direction.CW);
+        } else {
+            mDimmedLayerPath.addRect(mCropViewRect, Path.Direction.CW);
+        }
+
+        final float length = mCropRectCornerTouchAreaLineLength;
+        final RectF r = mCropViewRect;
+        mCropFrameCornersPath.reset();
+        mCropFrameCornersPath.moveTo(r.left, r.top + length);
+        mCropFrameCornersPath.lineTo(r.left, r.top);
+        mCropFrameCornersPath.lineTo(r.left + length, r.top);
+        mCropFrameCornersPath.moveTo(r.right - length, r.top);
+        mCropFrameCornersPath.lineTo(r.right, r.top);
+        mCropFrameCornersPath.lineTo(r.right, r.top + length);
+        mCropFrameCornersPath.moveTo(r.right, r.bottom - length);
+        mCropFrameCornersPath.lineTo(r.right, r.bottom);
+        mCropFrameCornersPath.lineTo(r.right - length, r.bottom);
+        mCropFrameCornersPath.moveTo(r.left + length, r.bottom);
+        mCropFrameCornersPath.lineTo(r.left, r.bottom);
+        mCropFrameCornersPath.lineTo(r.left, r.bottom - length);
+    }
+
+    /**
+     * Only the area of old and new crop bounds changes when the crop bounds are moved or resized.
+     *
+     * @param oldCropViewRect - crop bounds before the change
+     */
+    private void invalidateCropViewRect(@NonNull RectF oldCropViewRect) {
+        mDirtyRect.set(oldCropViewRect);
+        mDirtyRect.union(mCropViewRect);
+        float outset = Math.max(mCropFramePaint.getStrokeWidth(), mCropFrameCornersPaint.getStrokeWidth()) / 2 + 1;
+        mDirtyRect.inset(-outset, -outset);
+        mDirtyRect.roundOut(mDirtyBounds);
+        if (mOverlayHost != null) {
+            mDirtyBounds.offset(getLeft() - mOverlayHost.getLeft(), getTop() - mOverlayHost.getTop());
+            mOverlayHost.postInvalidate(mDirtyBounds.left, mDirtyBounds.top, mDirtyBounds.right, mDirtyBounds.bottom);
+        } else {
+            postInvalidate(mDirtyBounds.left, mDirtyBounds.top, mDirtyBounds.right, mDirtyBounds.bottom);
+        }
+    }
+
+    private void invalidateOverlay() {
+        if (mOverlayHost != null) {
+            mOverlayHost.postInvalidate();
+        } else {
+            postInvalidate();
+        }
+    }
+
+    /**
+     * Lets another view draw this overlay with {@link #drawOverlay(Canvas)} as a part of its own onDraw,
+     * this view then draws nothing and only handles touches.
+     *
+     * @param overlayHost - view that draws the overlay, null to draw it here again
+     */
+    void setOverlayHost(@Nullable View overlayHost) {
+        if (mOverlayHost != null) {
+            mOverlayHost.invalidate();
+        }
+        mOverlayHost = overlayHost;
+        setWillNotDraw(overlayHost != null);
+        invalidate();
+        invalidateOverlay();
+    }
+
+    /**
+     * Draws dimmed layer, crop frame and guidelines in coordinates of this view.
+     */
+    void drawOverlay(@NonNull Canvas canvas) {
+        drawDimmedLayer(canvas);
+        drawCropGrid(canvas);
     }
 
     protected void init() {
@@ -277,6 +370,7 @@ public class OverlayView extends View {
 
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        long start = UCropFrameMetrics.begin();
         super.onLayout(changed, left, top, right, bottom);
         if (changed) {
             left = getPaddingLeft();
@@ -285,12 +379,14 @@ public class OverlayView extends View {
             bottom = getHeight() - getPaddingBottom();
             mThisWidth = right - left;
             mThisHeight = bottom - top;
+            updateOverlayPaths();
 
             if (mShouldSetupCropBounds) {
                 mShouldSetupCropBounds = false;
                 setTargetAspectRatio(mTargetAspectRatio);
             }
         }
+        UCropFrameMetrics.end(UCropFrameMetrics.VIEW_OVERLAY, UCropFrameMetrics.SECTION_LAYOUT, start);
     }
 
     /**
@@ -298,9 +394,10 @@ public class OverlayView extends View {
      */
     @Override
     protected void onDraw(Canvas canvas) {
+        long start = UCropFrameMetrics.begin();
         super.onDraw(canvas);
-        drawDimmedLayer(canvas);
-        drawCropGrid(canvas);
+        drawOverlay(canvas);
+        UCropFrameMetrics.end(UCropFrameMetrics.VIEW_OVERLAY, UCropFrameMetrics.SECTION_DRAW, start);
     }
 
     @Override
@@ -308,6 +405,7 @@ public class OverlayView extends View {
         if (mCropViewRect.isEmpty() || mFreestyleCropMode == FREESTYLE_CROP_MODE_DISABLE) {
             return false;
         }
+        UCropFrameMetrics.onTouchEvent(event);
 
         float x = event.getX();
         float y = event.getY();
@@ -346,7 +444,9 @@ public class OverlayView extends View {
             mCurrentTouchCornerIndex = -1;
 
             if (mCallback != null) {
+                long start = UCropFrameMetrics.begin();
                 mCallback.onCropRectUpdated(mCropViewRect);
+                UCropFrameMetrics.end(UCropFrameMetrics.VIEW_OVERLAY, UCropFrameMetrics.SECTION_LISTENERS, start);
             }
         }
 
@@ -363,6 +463,7 @@ public class OverlayView extends View {
      */
     private void updateCropViewRect(float touchX, float touchY) {
         mTempRect.set(mCropViewRect);
+        mDirtyRect.set(mCropViewRect);
 
         switch (mCurrentTouchCornerIndex) {
             // resize rectangle
@@ -385,7 +486,7 @@ public class OverlayView extends View {
                         && mTempRect.right < getRight() && mTempRect.bottom < getBottom()) {
                     mCropViewRect.set(mTempRect);
                     updateGridPoints();
-                    postInvalidate();
+                    invalidateCropViewRect(mDirtyRect);
                 }
                 return;
         }
@@ -400,7 +501,7 @@ public class OverlayView extends View {
 
         if (changeHeight || changeWidth) {
             updateGridPoints();
-            postInvalidate();
+            invalidateCropViewRect(mDirtyRect);
         }
     }
 
@@ -454,19 +555,8 @@ public class OverlayView extends View {
      * @param canvas - valid canvas object
      */
     protected void drawDimmedLayer(@NonNull Canvas canvas) {
-        canvas.save();
-        if (mCircleDimmedLayer) {
-            canvas.clipPath(mCircularPath, Region.Op.DIFFERENCE);
-        } else {
-            canvas.clipRect(mCropViewRect, Region.Op.DIFFERENCE);
-        }
-        canvas.drawColor(mDimmedColor);
-        canvas.restore();
-
-        if (mCircleDimmedLayer) { // Draw 1px stroke to fix antialias
-            canvas.drawCircle(mCropViewRect.centerX(), mCropViewRect.centerY(),
-                    Math.min(mCropViewRect.width(), mCropViewRect.height()) / 2.f, mDimmedStrokePaint);
-        }
+        // Antialiased fill, the circle edge needs no extra stroke
+        canvas.drawPath(mDimmedLayerPath, mDimmedPaint);
     }
 
     /**
@@ -507,19 +597,7 @@ public class OverlayView extends View {
         }
 
         if (mFreestyleCropMode != FREESTYLE_CROP_MODE_DISABLE) {
-            canvas.save();
-
-            mTempRect.set(mCropViewRect);
-            mTempRect.inset(mCropRectCornerTouchAreaLineLength, -mCropRectCornerTouchAreaLineLength);
-            canvas.clipRect(mTempRect, Region.Op.DIFFERENCE);
-
-            mTempRect.set(mCropViewRect);
-            mTempRect.inset(-mCropRectCornerTouchAreaLineLength, mCropRectCornerTouchAreaLineLength);
-            canvas.clipRect(mTempRect, Region.Op.DIFFERENCE);
-
-            canvas.drawRect(mCropViewRect, mCropFrameCornersPaint);
-
-            canvas.restore();
+            canvas.drawPath(mCropFrameCornersPath, mCropFrameCornersPaint);
         }
     }
 
@@ -532,9 +610,8 @@ public class OverlayView extends View {
         mCircleDimmedLayer = a.getBoolean(R.styleable.ucrop_UCropView_ucrop_circle_dimmed_layer, DEFAULT_CIRCLE_DIMMED_LAYER);
         mDimmedColor = a.getColor(R.styleable.ucrop_UCropView_ucrop_dimmed_color,
                 getResources().getColor(R.color.ucrop_color_default_dimmed));
-        mDimmedStrokePaint.setColor(mDimmedColor);
-        mDimmedStrokePaint.setStyle(Paint.Style.STROKE);
-        mDimmedStrokePaint.setStrokeWidth(1);
+        mDimmedPaint.setColor(mDimmedColor);
+        mDimmedPaint.setStyle(Paint.Style.FILL);
 
         initCropFrameStyle(a);
         mShowCropFrame = a.getBoolean(R.styleable.ucrop_UCropView_ucrop_show_frame, DEFAULT_SHOW_CROP_FRAME);
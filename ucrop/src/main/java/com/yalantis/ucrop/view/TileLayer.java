@@ -0,0 +1,292 @@
+package com.yalantis.ucrop.view;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LongSparseArray;
+import android.util.LruCache;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.yalantis.ucrop.model.ExifInfo;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Full resolution tiles that are drawn over the preview bitmap once it is zoomed in past its own resolution.
+ * <p/>
+ * Only tiles of the visible part of the image are decoded, with {@link BitmapRegionDecoder} at the power of two
+ * sample size that matches the current scale. Decoded tiles are kept in an LRU cache bounded in bytes and decodes
+ * of tiles that went off screen are cancelled, so memory use does not depend on the source size.
+ * The preview stays underneath and shows wherever tiles are not decoded yet.
+ */
+class TileLayer {
+
+    private static final String TAG = "TileLayer";
+
+    // Size of a decoded tile in pixels
+    private static final int TILE_SIZE = 512;
+    // Tile cache holds this many screens of ARGB_8888 pixels
+    private static final int CACHE_SCREENS = 4;
+
+    private static final int TILE_KEY_LEVEL_SHIFT = 56;
+    private static final int TILE_KEY_ROW_SHIFT = 28;
+
+    private final View mView;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final LruCache<Long, Bitmap> mTileCache;
+    private final LongSparseArray<Future<?>> mPendingTiles = new LongSparseArray<>();
+    private final LongSparseArray<Boolean> mVisibleTiles = new LongSparseArray<>();
+
+    // Source pixels -> preview bitmap pixels
+    private final Matrix mSourceMatrix = new Matrix();
+    private final Matrix mDrawMatrix = new Matrix();
+    private final Matrix mInverseMatrix = new Matrix();
+    private final float[] mMatrixValues = new float[9];
+    private final RectF mVisibleRect = new RectF();
+    private final RectF mTileRect = new RectF();
+
+    @Nullable
+    private TileSource mSource;
+    private int mSourceWidth, mSourceHeight;
+    // Source pixels per preview pixel
+    private float mPreviewSampleSize;
+
+    TileLayer(@NonNull View view) {
+        mView = view;
+        DisplayMetrics metrics = view.getResources().getDisplayMetrics();
+        int cacheSize = CACHE_SCREENS * metrics.widthPixels * metrics.heightPixels * 4;
+        mTileCache = new LruCache<Long, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Opens the source for tiles. Preview must be decoded from the same file with EXIF orientation applied.
+     *
+     * @param imagePath     - path of the source file
+     * @param exifInfo      - orientation of the source
+     * @param previewWidth  - width of the preview bitmap
+     * @param previewHeight - height of the preview bitmap
+     */
+    void setSource(@NonNull final String imagePath, @NonNull final ExifInfo exifInfo,
+                   final int previewWidth, final int previewHeight) {
+        release();
+        final TileSource source = new TileSource();
+        mSource = source;
+        source.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    source.decoder = BitmapRegionDecoder.newInstance(imagePath, false);
+                } catch (IOException e) {
+                    Log.d(TAG, "setSource: " + e.getMessage());
+                    return;
+                }
+                final int width = source.decoder.getWidth(), height = source.decoder.getHeight();
+                mView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mSource == source) {
+                            onSourceOpened(width, height, exifInfo, previewWidth, previewHeight);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Cancels pending decodes, drops cached tiles and closes the source.
+     */
+    void release() {
+        cancelPendingTiles(false);
+        mTileCache.evictAll();
+        if (mSource != null) {
+            mSource.close();
+            mSource = null;
+        }
+        mSourceWidth = mSourceHeight = 0;
+    }
+
+    /**
+     * Draws cached tiles that are visible with given matrix and requests decoding of missing ones.
+     *
+     * @param imageToView - preview bitmap pixels -> view pixels
+     */
+    void draw(@NonNull Canvas canvas, @NonNull Matrix imageToView, @Nullable ColorFilter colorFilter,
+              int viewWidth, int viewHeight) {
+        if (mSourceWidth == 0) {
+            return;
+        }
+        mDrawMatrix.set(mSourceMatrix);
+        mDrawMatrix.postConcat(imageToView);
+
+        // Largest sample size that still has at least one source pixel per screen pixel
+        mDrawMatrix.getValues(mMatrixValues);
+        float viewPixelsPerSourcePixel = (float) Math.hypot(mMatrixValues[Matrix.MSCALE_X], mMatrixValues[Matrix.MSKEW_Y]);
+        int sampleSize = 1;
+        while (sampleSize * 2 * viewPixelsPerSourcePixel <= 1) {
+            sampleSize *= 2;
+        }
+        if (sampleSize >= mPreviewSampleSize || !mDrawMatrix.invert(mInverseMatrix)) {
+            // Preview is detailed enough
+            cancelPendingTiles(false);
+            return;
+        }
+
+        mVisibleRect.set(0, 0, viewWidth, viewHeight);
+        mInverseMatrix.mapRect(mVisibleRect);
+        if (!mVisibleRect.intersect(0, 0, mSourceWidth, mSourceHeight)) {
+            cancelPendingTiles(false);
+            return;
+        }
+
+        final int tileSize = TILE_SIZE * sampleSize;
+        final int level = Integer.numberOfTrailingZeros(sampleSize);
+        final int firstColumn = (int) (mVisibleRect.left / tileSize), lastColumn = (int) ((mVisibleRect.right - 1) / tileSize);
+        final int firstRow = (int) (mVisibleRect.top / tileSize), lastRow = (int) ((mVisibleRect.bottom - 1) / tileSize);
+
+        mVisibleTiles.clear();
+        mPaint.setColorFilter(colorFilter);
+        canvas.save();
+        canvas.concat(mDrawMatrix);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                long key = ((long) level << TILE_KEY_LEVEL_SHIFT) | ((long) row << TILE_KEY_ROW_SHIFT) | column;
+                mVisibleTiles.put(key, Boolean.TRUE);
+                mTileRect.set(column * tileSize, row * tileSize,
+                        Math.min((column + 1) * tileSize, mSourceWidth), Math.min((row + 1) * tileSize, mSourceHeight));
+
+                Bitmap tile = mTileCache.get(key);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, null, mTileRect, mPaint);
+                } else if (mPendingTiles.get(key) == null) {
+                    requestTile(key, mTileRect, sampleSize);
+                }
+            }
+        }
+        canvas.restore();
+        cancelPendingTiles(true);
+    }
+
+    private void onSourceOpened(int width, int height, @NonNull ExifInfo exifInfo, int previewWidth, int previewHeight) {
+        // Same orientation as the preview got in BitmapLoadTask
+        mSourceMatrix.setRotate(exifInfo.getExifDegrees());
+        if (exifInfo.getExifTranslation() != 1) {
+            mSourceMatrix.postScale(exifInfo.getExifTranslation(), 1);
+        }
+        mTileRect.set(0, 0, width, height);
+        mSourceMatrix.mapRect(mTileRect);
+        mSourceMatrix.postTranslate(-mTileRect.left, -mTileRect.top);
+        mSourceMatrix.postScale(previewWidth / mTileRect.width(), previewHeight / mTileRect.height());
+
+        mSourceWidth = width;
+        mSourceHeight = height;
+        mPreviewSampleSize = Math.min(mTileRect.width() / previewWidth, mTileRect.height() / previewHeight);
+        mView.invalidate();
+    }
+
+    private void requestTile(final long key, @NonNull RectF tileRect, final int sampleSize) {
+        final TileSource source = mSource;
+        if (source == null) {
+            return;
+        }
+        final Rect region = new Rect();
+        tileRect.round(region);
+        Future<?> future = source.executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap tile = source.decode(region, sampleSize);
+                mView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTileDecoded(source, key, tile);
+                    }
+                });
+            }
+        });
+        mPendingTiles.put(key, future);
+    }
+
+    private void onTileDecoded(@NonNull TileSource source, long key, @Nullable Bitmap tile) {
+        if (mSource != source) {
+            // Source was replaced or released while the tile was decoded, nothing else holds it
+            if (tile != null) {
+                tile.recycle();
+            }
+            return;
+        }
+        mPendingTiles.remove(key);
+        if (tile != null) {
+            mTileCache.put(key, tile);
+            mView.invalidate();
+        }
+    }
+
+    /**
+     * @param offScreenOnly - keep decodes of tiles that were visible in the last draw
+     */
+    private void cancelPendingTiles(boolean offScreenOnly) {
+        for (int i = mPendingTiles.size() - 1; i >= 0; i--) {
+            if (!offScreenOnly || mVisibleTiles.get(mPendingTiles.keyAt(i)) == null) {
+                mPendingTiles.valueAt(i).cancel(false);
+                mPendingTiles.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Region decoder with its own thread. The decoder is only touched on that thread.
+     */
+    private static final class TileSource {
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        BitmapRegionDecoder decoder;
+
+        @Nullable
+        Bitmap decode(@NonNull Rect region, int sampleSize) {
+            if (decoder == null) {
+                return null;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            try {
+                return decoder.decodeRegion(region, options);
+            } catch (OutOfMemoryError | IllegalArgumentException e) {
+                Log.d(TAG, "decode: " + e.getMessage());
+                return null;
+            }
+        }
+
+        void close() {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (decoder != null) {
+                        decoder.recycle();
+                        decoder = null;
+                    }
+                }
+            });
+            executor.shutdown();
+        }
+    }
+
+}
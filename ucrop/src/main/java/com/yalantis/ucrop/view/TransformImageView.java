@@ -3,6 +3,7 @@ package com.yalantis.ucrop.view;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.ColorMatrix;
 import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Matrix;
@@ -23,13 +24,17 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.widget.AppCompatImageView;
 
+import com.yalantis.ucrop.UCropFrameMetrics;
 import com.yalantis.ucrop.callback.BitmapLoadCallback;
 import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.task.BitmapLoadTask;
 import com.yalantis.ucrop.util.BitmapLoadUtils;
 import com.yalantis.ucrop.util.ColorFilterGenerator;
 import com.yalantis.ucrop.util.FastBitmapDrawable;
 import com.yalantis.ucrop.util.RectUtils;
 
+import java.io.File;
+
 /**
  * Created by Oleksii Shliama (https://github.com/shliama).
  * <p/>
@@ -50,6 +55,8 @@ public class TransformImageView extends AppCompatImageView {
     private final float[] mMatrixValues = new float[MATRIX_VALUES_COUNT];
 
     protected Matrix mCurrentImageMatrix = new Matrix();
+    // Scale and angle of mCurrentImageMatrix, updated with it in setImageMatrix
+    private float mCurrentScale = 1, mCurrentAngle;
     protected int mThisWidth, mThisHeight;
 
     protected TransformImageListener mTransformImageListener;
@@ -71,9 +78,20 @@ public class TransformImageView extends AppCompatImageView {
     private ScriptIntrinsicConvolve3x3 mSharpnessScript;
     private SharpnessScriptTask mSharpnessScriptTask;
 
+    @Nullable
+    private BitmapLoadTask mBitmapLoadTask;
+    // Image that is not loaded yet, kept to restart a load that was cancelled by detaching from window
+    @Nullable
+    private Uri mPendingImageUri, mPendingOutputUri;
+
     private float mSharpness = 0;
 
+    private TileLayer mTileLayer;
+    private final Matrix mTileDrawMatrix = new Matrix();
+    private boolean mTiledZoomEnabled = true;
+
     private String mImageInputPath, mImageOutputPath;
+    private Uri mImageOutputUri;
     private ExifInfo mExifInfo;
 
     /**
@@ -141,6 +159,22 @@ public class TransformImageView extends AppCompatImageView {
         return mMaxBitmapSize;
     }
 
+    /**
+     * This method sets whether full resolution tiles are decoded for the visible area when the image is zoomed in
+     * past the resolution of the preview bitmap.
+     *
+     * @param enabled - true to show full resolution tiles, enabled by default
+     */
+    public void setTiledZoomEnabled(boolean enabled) {
+        mTiledZoomEnabled = enabled;
+        if (enabled) {
+            setTileSource();
+        } else {
+            mTileLayer.release();
+        }
+        invalidate();
+    }
+
     @Override
     public void setImageBitmap(final Bitmap bitmap) {
         setImageDrawable(new FastBitmapDrawable(bitmap));
@@ -154,6 +188,11 @@ public class TransformImageView extends AppCompatImageView {
         return mImageOutputPath;
     }
 
+    @Nullable
+    public Uri getImageOutputUri() {
+        return mImageOutputUri;
+    }
+
     public ExifInfo getExifInfo() {
         return mExifInfo;
     }
@@ -165,13 +204,26 @@ public class TransformImageView extends AppCompatImageView {
      * @throws Exception - can throw exception if having problems with decoding Uri or OOM.
      */
     public void setImageUri(@NonNull Uri imageUri, @Nullable Uri outputUri) throws Exception {
+        mImageOutputUri = outputUri;
+        mPendingImageUri = imageUri;
+        mPendingOutputUri = outputUri;
+        startImageLoad();
+    }
+
+    private void startImageLoad() {
         int maxBitmapSize = getMaxBitmapSize();
+        if (mBitmapLoadTask != null) {
+            mBitmapLoadTask.cancelLoad();
+        }
 
-        BitmapLoadUtils.decodeBitmapInBackground(getContext(), imageUri, outputUri, maxBitmapSize, maxBitmapSize,
+        mBitmapLoadTask = BitmapLoadUtils.decodeBitmapInBackground(getContext(), mPendingImageUri, mPendingOutputUri, maxBitmapSize, maxBitmapSize,
                 new BitmapLoadCallback() {
 
                     @Override
                     public void onBitmapLoaded(@NonNull Bitmap bitmap, @NonNull ExifInfo exifInfo, @NonNull String imageInputPath, @Nullable String imageOutputPath) {
+                        mBitmapLoadTask = null;
+                        mPendingImageUri = mPendingOutputUri = null;
+                        String previousInputPath = mImageInputPath;
                         mImageInputPath = imageInputPath;
                         mImageOutputPath = imageOutputPath;
                         mExifInfo = exifInfo;
@@ -179,10 +231,16 @@ public class TransformImageView extends AppCompatImageView {
                         mBitmapDecoded = true;
                         createScript(bitmap);
                         setImageBitmap(bitmap);
+                        setTileSource();
+                        if (previousInputPath != null && !previousInputPath.equals(imageInputPath)) {
+                            releaseImageInput(previousInputPath);
+                        }
                     }
 
                     @Override
                     public void onFailure(@NonNull Exception bitmapWorkerException) {
+                        mBitmapLoadTask = null;
+                        mPendingImageUri = mPendingOutputUri = null;
                         Log.e(TAG, "onFailure: setImageUri", bitmapWorkerException);
                         if (mTransformImageListener != null) {
                             mTransformImageListener.onLoadFailure(bitmapWorkerException);
@@ -196,30 +254,39 @@ public class TransformImageView extends AppCompatImageView {
      * [1.0f - for original image, 2.0f - for 200% scaled image, etc.]
      */
     public float getCurrentScale() {
-        return getMatrixScale(mCurrentImageMatrix);
+        return mCurrentScale;
     }
 
     /**
      * This method calculates scale value for given Matrix object.
      */
     public float getMatrixScale(@NonNull Matrix matrix) {
-        return (float) Math.sqrt(Math.pow(getMatrixValue(matrix, Matrix.MSCALE_X), 2)
-                + Math.pow(getMatrixValue(matrix, Matrix.MSKEW_Y), 2));
+        matrix.getValues(mMatrixValues);
+        return getMatrixScale(mMatrixValues);
+    }
+
+    private static float getMatrixScale(@NonNull float[] values) {
+        float scaleX = values[Matrix.MSCALE_X], skewY = values[Matrix.MSKEW_Y];
+        return (float) Math.sqrt(scaleX * scaleX + skewY * skewY);
     }
 
     /**
      * @return - current image rotation angle.
      */
     public float getCurrentAngle() {
-        return getMatrixAngle(mCurrentImageMatrix);
+        return mCurrentAngle;
     }
 
     /**
      * This method calculates rotation angle for given Matrix object.
      */
     public float getMatrixAngle(@NonNull Matrix matrix) {
-        return (float) -(Math.atan2(getMatrixValue(matrix, Matrix.MSKEW_X),
-                getMatrixValue(matrix, Matrix.MSCALE_X)) * (180 / Math.PI));
+        matrix.getValues(mMatrixValues);
+        return getMatrixAngle(mMatrixValues);
+    }
+
+    private static float getMatrixAngle(@NonNull float[] values) {
+        return (float) -(Math.atan2(values[Matrix.MSKEW_X], values[Matrix.MSCALE_X]) * (180 / Math.PI));
     }
 
     /**
@@ -252,9 +319,14 @@ public class TransformImageView extends AppCompatImageView {
 
     @Override
     public void setImageMatrix(Matrix matrix) {
+        long start = UCropFrameMetrics.begin();
         super.setImageMatrix(matrix);
         mCurrentImageMatrix.set(matrix);
+        mCurrentImageMatrix.getValues(mMatrixValues);
+        mCurrentScale = getMatrixScale(mMatrixValues);
+        mCurrentAngle = getMatrixAngle(mMatrixValues);
         updateCurrentImagePoints();
+        UCropFrameMetrics.end(UCropFrameMetrics.VIEW_CROP_IMAGE, UCropFrameMetrics.SECTION_MATRIX, start);
     }
 
     @Nullable
@@ -291,7 +363,9 @@ public class TransformImageView extends AppCompatImageView {
             mCurrentImageMatrix.postScale(deltaScale, deltaScale, px, py);
             setImageMatrix(mCurrentImageMatrix);
             if (mTransformImageListener != null) {
-                mTransformImageListener.onScale(getMatrixScale(mCurrentImageMatrix));
+                long start = UCropFrameMetrics.begin();
+                mTransformImageListener.onScale(mCurrentScale);
+                UCropFrameMetrics.end(UCropFrameMetrics.VIEW_CROP_IMAGE, UCropFrameMetrics.SECTION_LISTENERS, start);
             }
         }
     }
@@ -308,7 +382,9 @@ public class TransformImageView extends AppCompatImageView {
             mCurrentImageMatrix.postRotate(deltaAngle, px, py);
             setImageMatrix(mCurrentImageMatrix);
             if (mTransformImageListener != null) {
-                mTransformImageListener.onRotate(getMatrixAngle(mCurrentImageMatrix));
+                long start = UCropFrameMetrics.begin();
+                mTransformImageListener.onRotate(mCurrentAngle);
+                UCropFrameMetrics.end(UCropFrameMetrics.VIEW_CROP_IMAGE, UCropFrameMetrics.SECTION_LISTENERS, start);
             }
         }
     }
@@ -384,6 +460,8 @@ public class TransformImageView extends AppCompatImageView {
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
     private class SharpnessScriptTask extends AsyncTask<Float, Void, Boolean> {
         Boolean issued = false;
+        // Set when the view goes away, a superseded task still shows its result
+        boolean discarded = false;
 
         protected Boolean doInBackground(Float... values) {
             if (!isCancelled()) {
@@ -411,7 +489,7 @@ public class TransformImageView extends AppCompatImageView {
 
         @Override
         protected void onCancelled(Boolean result) {
-            if (issued) {
+            if (issued && !discarded) {
                 updateView();
             }
         }
@@ -427,10 +505,85 @@ public class TransformImageView extends AppCompatImageView {
 
     protected void init() {
         setScaleType(ScaleType.MATRIX);
+        mTileLayer = new TileLayer(this);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        long start = UCropFrameMetrics.begin();
+        super.onDraw(canvas);
+        // Tiles are not sharpened, so they are left out while sharpness is previewed
+        if (mTiledZoomEnabled && mSharpness == 0) {
+            mTileDrawMatrix.set(mCurrentImageMatrix);
+            mTileDrawMatrix.postTranslate(getPaddingLeft(), getPaddingTop());
+            mTileLayer.draw(canvas, mTileDrawMatrix, getColorFilter(), getWidth(), getHeight());
+        }
+        UCropFrameMetrics.end(UCropFrameMetrics.VIEW_CROP_IMAGE, UCropFrameMetrics.SECTION_DRAW, start);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mPendingImageUri != null && mBitmapLoadTask == null) {
+            startImageLoad();
+        }
+        setTileSource();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        stopBackgroundWork();
+    }
+
+    /**
+     * Cancels image loading, sharpening and tile decoding, none of them calls back into this view afterwards.
+     * Meant for the host going away, e.g. from onDestroy(), as a load cancelled this way is not restarted.
+     * Detaching from window cancels the same work, but a load is restarted once the view is attached again.
+     */
+    public void cancelBackgroundWork() {
+        mPendingImageUri = mPendingOutputUri = null;
+        stopBackgroundWork();
+        if (mImageInputPath != null) {
+            releaseImageInput(mImageInputPath);
+        }
+    }
+
+    /**
+     * Called when the view stops using an input file, a new image was loaded or the view is going away.
+     * Deletes the copy a load made of a remote or content input, files of the caller are left alone.
+     *
+     * @param imageInputPath - path that was returned by {@link #getImageInputPath()}
+     */
+    protected void releaseImageInput(@NonNull String imageInputPath) {
+        if (BitmapLoadTask.isLocalCopy(getContext(), imageInputPath) && !new File(imageInputPath).delete()) {
+            Log.d(TAG, "Cannot delete source copy " + imageInputPath);
+        }
+    }
+
+    private void stopBackgroundWork() {
+        if (mBitmapLoadTask != null) {
+            mBitmapLoadTask.cancelLoad();
+            mBitmapLoadTask = null;
+        }
+        if (mSharpnessScriptTask != null) {
+            mSharpnessScriptTask.discarded = true;
+            mSharpnessScriptTask.cancel(false);
+            mSharpnessScriptTask = null;
+        }
+        mTileLayer.release();
+    }
+
+    private void setTileSource() {
+        Bitmap bitmap = getViewBitmap();
+        if (mTiledZoomEnabled && mImageInputPath != null && mExifInfo != null && bitmap != null) {
+            mTileLayer.setSource(mImageInputPath, mExifInfo, bitmap.getWidth(), bitmap.getHeight());
+        }
     }
 
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        long start = UCropFrameMetrics.begin();
         super.onLayout(changed, left, top, right, bottom);
         if (changed || (mBitmapDecoded && !mBitmapLaidOut)) {
 
@@ -443,6 +596,7 @@ public class TransformImageView extends AppCompatImageView {
 
             onImageLaidOut();
         }
+        UCropFrameMetrics.end(UCropFrameMetrics.VIEW_CROP_IMAGE, UCropFrameMetrics.SECTION_LAYOUT, start);
     }
 
     /**
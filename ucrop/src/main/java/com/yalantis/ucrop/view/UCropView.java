@@ -17,6 +17,7 @@ public class UCropView extends FrameLayout {
 
     private GestureCropImageView mGestureCropImageView;
     private final OverlayView mViewOverlay;
+    private boolean mCompositeRenderingEnabled;
 
     public UCropView(Context context, AttributeSet attrs) {
         this(context, attrs, 0);
@@ -68,15 +69,34 @@ public class UCropView extends FrameLayout {
         return mViewOverlay;
     }
 
+    /**
+     * In composite rendering the crop image view draws the image, dimmed layer, crop frame and guidelines
+     * in one onDraw, while the overlay view keeps handling touches and all of its setters.
+     * That saves the separate overlay pass, at the cost of redrawing the overlay paths whenever the image moves.
+     *
+     * @param enabled - true to draw image and overlay in a single pass
+     */
+    public void setCompositeRenderingEnabled(boolean enabled) {
+        mCompositeRenderingEnabled = enabled;
+        mGestureCropImageView.setCompositeOverlay(enabled ? mViewOverlay : null);
+        mViewOverlay.setOverlayHost(enabled ? mGestureCropImageView : null);
+    }
+
+    public boolean isCompositeRenderingEnabled() {
+        return mCompositeRenderingEnabled;
+    }
+
     /**
      * Method for reset state for UCropImageView such as rotation, scale, translation.
      * Be careful: this method recreate UCropImageView instance and reattach it to layout.
      */
     public void resetCropImageView() {
+        mGestureCropImageView.cancelBackgroundWork();
         removeView(mGestureCropImageView);
         mGestureCropImageView = new GestureCropImageView(getContext());
         setListenersToViews();
         mGestureCropImageView.setCropRect(getOverlayView().getCropViewRect());
         addView(mGestureCropImageView, 0);
+        setCompositeRenderingEnabled(mCompositeRenderingEnabled);
     }
 }
\ No newline at end of file
@@ -2,30 +2,51 @@ package com.yalantis.ucrop.view.widget;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.LinearGradient;
 import android.graphics.Paint;
-import android.graphics.Rect;
+import android.graphics.Shader;
 import android.os.Build;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.View;
+import android.view.ViewConfiguration;
 
 import com.yalantis.ucrop.R;
+import com.yalantis.ucrop.UCropFrameMetrics;
 
 import androidx.annotation.ColorInt;
 import androidx.core.content.ContextCompat;
 
 /**
  * Created by Oleksii Shliama (https://github.com/shliama).
+ * <p/>
+ * Progress lines are rendered once per size into an alpha mask strip that is one line period wider than the view.
+ * A frame is a single blit of that strip shifted by the scroll offset, the fade towards the edges is a gradient shader
+ * of the blit paint that stays fixed in view coordinates.
  */
 public class HorizontalProgressWheelView extends View {
 
-    private final Rect mCanvasClipBounds = new Rect();
+    // Fade of progress lines takes this part of the width on each side
+    private static final float EDGE_FADE_FRACTION = 0.25f;
+    // Momentum decay rate of a fling, 1/s
+    private static final float FLING_FRICTION = 4f;
+    // Fling below this speed, px/s, is over
+    private static final float FLING_STOP_VELOCITY = 20f;
+    // Longest frame the fling steps over
+    private static final float MAX_FRAME_SECONDS = 1 / 20f;
 
     private ScrollingListener mScrollingListener;
     private float mLastTouchedPosition;
 
     private Paint mProgressLinePaint;
+    private Paint mProgressStripPaint;
+    private Bitmap mProgressStrip;
+    // Distance from the strip left edge to the center of the first line
+    private int mProgressStripOffset;
     private Paint mProgressMiddleLinePaint;
     private int mProgressLineWidth, mProgressLineHeight;
     private int mProgressLineMargin;
@@ -35,6 +56,19 @@ public class HorizontalProgressWheelView extends View {
 
     private int mMiddleLineColor;
 
+    private VelocityTracker mVelocityTracker;
+    private int mMinFlingVelocity, mMaxFlingVelocity;
+    private boolean mFlingEnabled = true;
+    private boolean mFlingRunning;
+    private float mFlingVelocity;
+    private long mLastFlingFrameTimeNanos;
+    private final Choreographer.FrameCallback mFlingFrame = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            stepFling(frameTimeNanos);
+        }
+    };
+
     public HorizontalProgressWheelView(Context context) {
         this(context, null);
     }
@@ -63,16 +97,69 @@ public class HorizontalProgressWheelView extends View {
         invalidate();
     }
 
+    /**
+     * @param flingEnabled - whether the wheel keeps scrolling with decaying speed after a fast swipe
+     */
+    public void setFlingEnabled(boolean flingEnabled) {
+        mFlingEnabled = flingEnabled;
+        if (!flingEnabled) {
+            stopFling();
+        }
+    }
+
+    public boolean isFlingEnabled() {
+        return mFlingEnabled;
+    }
+
+    /**
+     * Scrolls the wheel with given speed that decays over time, as if it was swiped.
+     * {@link ScrollingListener#onScrollEnd()} is called once the wheel stops.
+     *
+     * @param velocityX - px/s in the direction of finger movement
+     */
+    public void fling(float velocityX) {
+        if (!mScrollStarted) {
+            mScrollStarted = true;
+            if (mScrollingListener != null) {
+                mScrollingListener.onScrollStart();
+            }
+        }
+        mFlingVelocity = velocityX;
+        if (!mFlingRunning) {
+            mFlingRunning = true;
+            mLastFlingFrameTimeNanos = System.nanoTime();
+            Choreographer.getInstance().postFrameCallback(mFlingFrame);
+        }
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        switch (event.getAction()) {
+        UCropFrameMetrics.onTouchEvent(event);
+        if (mVelocityTracker == null) {
+            mVelocityTracker = VelocityTracker.obtain();
+        }
+        mVelocityTracker.addMovement(event);
+
+        switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
+                // Touch catches a running fling, the scroll goes on until this gesture ends
+                if (mFlingRunning) {
+                    Choreographer.getInstance().removeFrameCallback(mFlingFrame);
+                    mFlingRunning = false;
+                }
                 mLastTouchedPosition = event.getX();
                 break;
             case MotionEvent.ACTION_UP:
-                if (mScrollingListener != null) {
-                    mScrollStarted = false;
-                    mScrollingListener.onScrollEnd();
+            case MotionEvent.ACTION_CANCEL:
+                mVelocityTracker.computeCurrentVelocity(1000, mMaxFlingVelocity);
+                float velocityX = mVelocityTracker.getXVelocity();
+                mVelocityTracker.recycle();
+                mVelocityTracker = null;
+                if (mFlingEnabled && mScrollStarted && event.getActionMasked() == MotionEvent.ACTION_UP
+                        && Math.abs(velocityX) >= mMinFlingVelocity) {
+                    fling(velocityX);
+                } else {
+                    endScroll();
                 }
                 break;
             case MotionEvent.ACTION_MOVE:
@@ -84,46 +171,117 @@ public class HorizontalProgressWheelView extends View {
                             mScrollingListener.onScrollStart();
                         }
                     }
-                    onScrollEvent(event, distance);
+                    mLastTouchedPosition = event.getX();
+                    onScrollEvent(distance);
                 }
                 break;
         }
         return true;
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateProgressStrip();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        stopFling();
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
+        long start = UCropFrameMetrics.begin();
         super.onDraw(canvas);
-        canvas.getClipBounds(mCanvasClipBounds);
-
-        int linesCount = mCanvasClipBounds.width() / (mProgressLineWidth + mProgressLineMargin);
-        float deltaX = (mTotalScrollDistance) % (float) (mProgressLineMargin + mProgressLineWidth);
-
-        for (int i = 0; i < linesCount; i++) {
-            if (i < (linesCount / 4)) {
-                mProgressLinePaint.setAlpha((int) (255 * (i / (float) (linesCount / 4))));
-            } else if (i > (linesCount * 3 / 4)) {
-                mProgressLinePaint.setAlpha((int) (255 * ((linesCount - i) / (float) (linesCount / 4))));
-            } else {
-                mProgressLinePaint.setAlpha(255);
+        final float centerY = getHeight() / 2.0f;
+
+        if (mProgressStrip != null) {
+            int period = mProgressLineWidth + mProgressLineMargin;
+            float offset = mTotalScrollDistance % period;
+            if (offset < 0) {
+                offset += period;
             }
-            canvas.drawLine(
-                    -deltaX + mCanvasClipBounds.left + i * (mProgressLineWidth + mProgressLineMargin),
-                    mCanvasClipBounds.centerY() - mProgressLineHeight / 4.0f,
-                    -deltaX + mCanvasClipBounds.left + i * (mProgressLineWidth + mProgressLineMargin),
-                    mCanvasClipBounds.centerY() + mProgressLineHeight / 4.0f, mProgressLinePaint);
+            canvas.drawBitmap(mProgressStrip, -offset - mProgressStripOffset,
+                    centerY - mProgressStrip.getHeight() / 2.0f, mProgressStripPaint);
+        }
+
+        canvas.drawLine(getWidth() / 2.0f, centerY - mProgressLineHeight / 2.0f,
+                getWidth() / 2.0f, centerY + mProgressLineHeight / 2.0f, mProgressMiddleLinePaint);
+        UCropFrameMetrics.end(UCropFrameMetrics.VIEW_PROGRESS_WHEEL, UCropFrameMetrics.SECTION_DRAW, start);
+    }
+
+    /**
+     * Renders progress lines into an alpha mask, colors and edge fade come from {@link #mProgressStripPaint}.
+     */
+    private void updateProgressStrip() {
+        final int width = getWidth(), height = mProgressLineHeight / 2;
+        if (mProgressStrip != null) {
+            mProgressStrip.recycle();
+            mProgressStrip = null;
+        }
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        final int period = mProgressLineWidth + mProgressLineMargin;
+        mProgressStripOffset = (mProgressLineWidth + 1) / 2;
+        mProgressStrip = Bitmap.createBitmap(width + period + 2 * mProgressStripOffset, height, Bitmap.Config.ALPHA_8);
+        // Lines are opaque in the mask, so the color alpha is applied once by the shader
+        final int color = mProgressLinePaint.getColor();
+        mProgressLinePaint.setAlpha(255);
+        Canvas canvas = new Canvas(mProgressStrip);
+        for (float x = mProgressStripOffset; x - mProgressStripOffset <= width + period; x += period) {
+            canvas.drawLine(x, 0, x, height, mProgressLinePaint);
+        }
+        mProgressLinePaint.setColor(color);
+
+        int transparent = color & 0x00FFFFFF;
+        mProgressStripPaint.setShader(new LinearGradient(0, 0, width, 0,
+                new int[]{transparent, color, color, transparent},
+                new float[]{0, EDGE_FADE_FRACTION, 1 - EDGE_FADE_FRACTION, 1}, Shader.TileMode.CLAMP));
+    }
+
+    private void stepFling(long frameTimeNanos) {
+        float dt = Math.min(MAX_FRAME_SECONDS, Math.max(0, (frameTimeNanos - mLastFlingFrameTimeNanos) / 1e9f));
+        mLastFlingFrameTimeNanos = frameTimeNanos;
+        mFlingVelocity *= (float) Math.exp(-FLING_FRICTION * dt);
+        float distance = mFlingVelocity * dt;
+        if (distance != 0) {
+            onScrollEvent(distance);
+        }
+        if (Math.abs(mFlingVelocity) < FLING_STOP_VELOCITY) {
+            mFlingRunning = false;
+            endScroll();
+        } else {
+            Choreographer.getInstance().postFrameCallback(mFlingFrame);
         }
+    }
 
-        canvas.drawLine(mCanvasClipBounds.centerX(), mCanvasClipBounds.centerY() - mProgressLineHeight / 2.0f, mCanvasClipBounds.centerX(), mCanvasClipBounds.centerY() + mProgressLineHeight / 2.0f, mProgressMiddleLinePaint);
+    private void stopFling() {
+        if (mFlingRunning) {
+            Choreographer.getInstance().removeFrameCallback(mFlingFrame);
+            mFlingRunning = false;
+            endScroll();
+        }
+    }
 
+    private void endScroll() {
+        if (mScrollStarted) {
+            mScrollStarted = false;
+            if (mScrollingListener != null) {
+                mScrollingListener.onScrollEnd();
+            }
+        }
     }
 
-    private void onScrollEvent(MotionEvent event, float distance) {
+    private void onScrollEvent(float distance) {
         mTotalScrollDistance -= distance;
-        postInvalidate();
-        mLastTouchedPosition = event.getX();
+        invalidate();
         if (mScrollingListener != null) {
+            long start = UCropFrameMetrics.begin();
             mScrollingListener.onScroll(-distance, mTotalScrollDistance);
+            UCropFrameMetrics.end(UCropFrameMetrics.VIEW_PROGRESS_WHEEL, UCropFrameMetrics.SECTION_LISTENERS, start);
         }
     }
 
@@ -143,6 +301,12 @@ public class HorizontalProgressWheelView extends View {
         mProgressMiddleLinePaint.setColor(mMiddleLineColor);
         mProgressMiddleLinePaint.setStrokeCap(Paint.Cap.ROUND);
         mProgressMiddleLinePaint.setStrokeWidth(getContext().getResources().getDimensionPixelSize(R.dimen.ucrop_width_middle_wheel_progress_line));
+
+        mProgressStripPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        ViewConfiguration configuration = ViewConfiguration.get(getContext());
+        mMinFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+        mMaxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
     }
 
     public interface ScrollingListener {
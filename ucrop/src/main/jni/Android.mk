@@ -3,12 +3,28 @@ LOCAL_PATH := $(call my-dir)
 include $(CLEAR_VARS)
 
 LOCAL_MODULE    := ucrop
-LOCAL_SRC_FILES := uCrop.cpp
+LOCAL_SRC_FILES := uCrop.cpp adjustments.cpp decoder.cpp encoder.cpp format_analysis.cpp parallel.cpp \
+                   pipeline.cpp quality_search.cpp size_search.cpp ssim.cpp warp.cpp bilinear.cpp bilinear_check.cpp
 
-LOCAL_LDLIBS    := -landroid -llog -lz
-LOCAL_STATIC_LIBRARIES := libpng libjpeg_static
+# Bilinear sampling has a NEON variant, older NDKs do not enable NEON for armeabi-v7a by default
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+LOCAL_ARM_NEON := true
+endif
+
+LOCAL_LDLIBS    := -landroid -ljnigraphics -llog -lz
+LOCAL_STATIC_LIBRARIES := libpng libjpeg_static libwebp
+
+# AVIF output needs libavif 1.0+ with an AV1 encoder, build with UCROP_WITH_AVIF=true to enable it
+ifeq ($(UCROP_WITH_AVIF),true)
+LOCAL_CPPFLAGS += -DUCROP_HAVE_AVIF
+LOCAL_STATIC_LIBRARIES += libavif
+endif
 
 include $(BUILD_SHARED_LIBRARY)
 
 $(call import-module,libpng)
-$(call import-module,libjpeg)
\ No newline at end of file
+$(call import-module,libjpeg)
+$(call import-module,libwebp)
+ifeq ($(UCROP_WITH_AVIF),true)
+$(call import-module,libavif)
+endif
@@ -0,0 +1,53 @@
+//
+// Color adjustments applied to the crop result, they match the preview filters.
+//
+
+#include "adjustments.h"
+
+#include <string.h>
+#include <vector>
+
+#define CHANNELS 4
+
+static inline unsigned char clampToByte(float value) {
+    return (unsigned char) (value <= 0 ? 0 : value >= 255 ? 255 : value + 0.5f);
+}
+
+void applyColorMatrix(unsigned char *pixels, int width, int height, size_t stride, const float *m, bool opaque) {
+    const int outputChannels = opaque ? 3 : 4;
+    for (int y = 0; y < height; y++) {
+        unsigned char *p = pixels + y * stride;
+        for (int x = 0; x < width; x++, p += CHANNELS) {
+            const float r = p[0], g = p[1], b = p[2], a = p[3];
+            for (int c = 0; c < outputChannels; c++) {
+                const float *row = m + c * 5;
+                p[c] = clampToByte(row[0] * r + row[1] * g + row[2] * b + row[3] * a + row[4]);
+            }
+        }
+    }
+}
+
+void applySharpness(unsigned char *pixels, int width, int height, size_t stride, float sharpness) {
+    const size_t rowSize = (size_t) width * CHANNELS;
+    // Original values of the previous and the current row, the next row is still untouched in place
+    std::vector<unsigned char> previous(rowSize), current(rowSize);
+    memcpy(&previous[0], pixels, rowSize);
+
+    const float center = 1 + 4 * sharpness;
+    for (int y = 0; y < height; y++) {
+        unsigned char *out = pixels + y * stride;
+        memcpy(&current[0], out, rowSize);
+        const unsigned char *above = &previous[0];
+        const unsigned char *below = y + 1 < height ? pixels + (y + 1) * stride : &current[0];
+
+        for (int x = 0; x < width; x++) {
+            const int left = (x > 0 ? x - 1 : x) * CHANNELS, right = (x + 1 < width ? x + 1 : x) * CHANNELS;
+            for (int c = 0; c < CHANNELS; c++) {
+                const int i = x * CHANNELS + c;
+                out[i] = clampToByte(center * current[i]
+                                     - sharpness * (above[i] + below[i] + current[left + c] + current[right + c]));
+            }
+        }
+        previous.swap(current);
+    }
+}
@@ -0,0 +1,24 @@
+//
+// Color adjustments applied to the crop result, they match the preview filters.
+//
+
+#ifndef UCROP_ADJUSTMENTS_H
+#define UCROP_ADJUSTMENTS_H
+
+#include <stddef.h>
+
+#define COLOR_MATRIX_SIZE 20
+
+/*
+ * Applies android.graphics.ColorMatrix (4x5, row-major, translation in 0..255 units) to RGBA rows in place.
+ * Alpha row is skipped for opaque images so they stay opaque.
+ */
+void applyColorMatrix(unsigned char *pixels, int width, int height, size_t stride, const float *matrix, bool opaque);
+
+/*
+ * Same 3x3 sharpen kernel as the preview uses (ScriptIntrinsicConvolve3x3), applied to RGBA rows in place.
+ * Edges are clamped.
+ */
+void applySharpness(unsigned char *pixels, int width, int height, size_t stride, float sharpness);
+
+#endif //UCROP_ADJUSTMENTS_H
@@ -0,0 +1,31 @@
+//
+// 2D affine transform used to map crop output pixels back to source pixels.
+//
+
+#ifndef UCROP_AFFINE_H
+#define UCROP_AFFINE_H
+
+/*
+ * x' = a * x + b * y + c
+ * y' = d * x + e * y + f
+ */
+struct AffineTransform {
+    double a, b, c;
+    double d, e, f;
+};
+
+inline AffineTransform makeAffine(double a, double b, double c, double d, double e, double f) {
+    AffineTransform t = {a, b, c, d, e, f};
+    return t;
+}
+
+/*
+ * Transform that applies inner first and outer second.
+ */
+inline AffineTransform concatAffine(const AffineTransform &outer, const AffineTransform &inner) {
+    return makeAffine(
+        outer.a * inner.a + outer.b * inner.d, outer.a * inner.b + outer.b * inner.e, outer.a * inner.c + outer.b * inner.f + outer.c,
+        outer.d * inner.a + outer.e * inner.d, outer.d * inner.b + outer.e * inner.e, outer.d * inner.c + outer.e * inner.f + outer.f);
+}
+
+#endif //UCROP_AFFINE_H
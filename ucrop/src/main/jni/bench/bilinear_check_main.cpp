@@ -0,0 +1,20 @@
+//
+// Host run of the bilinear self-check, fails when a SIMD variant does not match float math or the scalar variant.
+// Cross-compile with an ARM toolchain (CXX=aarch64-linux-gnu-g++, run under qemu) to check NEON too.
+//
+// make -C ucrop/src/main/jni/bench check
+//
+
+#include <stdio.h>
+
+#include "../bilinear.h"
+
+int main() {
+    BilinearVariant variants[BILINEAR_MAX_VARIANTS];
+    const int variantCount = getBilinearVariants(variants);
+    const char *failed = checkBilinearVariants();
+    for (int v = 0; v < variantCount; v++) {
+        printf("%-7s %s\n", variants[v].name, failed == variants[v].name ? "FAILED" : (failed == NULL ? "ok" : "-"));
+    }
+    return failed == NULL ? 0 : 1;
+}
@@ -0,0 +1,60 @@
+//
+// Host check of the quality search for a size limit: the found quality must be the largest one that fits
+// and the number of encodes must stay logarithmic for any thread count, one thread included.
+//
+// make -C ucrop/src/main/jni/bench check
+//
+
+#include <math.h>
+#include <stdio.h>
+
+#include "../quality_search.h"
+
+#define MAX_THREADS 8
+
+struct FakeEncoder {
+    int encodes;
+};
+
+// Encoded size grows with quality, unevenly like a real encoder
+static size_t sizeOf(int quality) {
+    return (size_t) (1000 + quality * quality * 37 + quality * 11);
+}
+
+static bool measureFake(const int *qualities, int count, size_t *sizes, void *arg) {
+    FakeEncoder *encoder = (FakeEncoder *) arg;
+    for (int i = 0; i < count; i++) {
+        sizes[i] = sizeOf(qualities[i]);
+    }
+    encoder->encodes += count;
+    return true;
+}
+
+int main() {
+    int failures = 0;
+    for (int threads = 1; threads <= MAX_THREADS; threads++) {
+        // Rounds of an even (threads + 1)-way split of the 101 possible outcomes, rounded up, plus one for rounding
+        const int maxRounds = (int) ceil(log(101.0) / log(threads + 1.0)) + 1;
+        int worstEncodes = 0;
+        for (int maxQuality = 1; maxQuality <= 100; maxQuality++) {
+            for (int limit = 0; limit <= maxQuality + 1; limit++) {
+                const size_t maxBytes = limit == 0 ? 0 : sizeOf(limit);
+                FakeEncoder encoder = {0};
+                QualitySearchResult result;
+                searchQualityForSize(maxQuality, maxBytes, threads, measureFake, &encoder, result);
+                const int expected = limit > maxQuality ? maxQuality : limit;
+                const bool correct = expected >= QUALITY_MIN
+                                     ? result.fits && result.quality == expected && result.size == sizeOf(expected)
+                                     : !result.fits && result.quality == QUALITY_MIN;
+                if (!correct || encoder.encodes > maxRounds * threads) {
+                    printf("FAILED threads %d, max quality %d, limit %d: quality %d, %d encodes\n",
+                           threads, maxQuality, limit, result.quality, encoder.encodes);
+                    failures++;
+                }
+                if (encoder.encodes > worstEncodes) worstEncodes = encoder.encodes;
+            }
+        }
+        printf("size search, %d threads: at most %d encodes (limit %d)\n", threads, worstEncodes, maxRounds * threads);
+    }
+    return failures == 0 ? 0 : 1;
+}
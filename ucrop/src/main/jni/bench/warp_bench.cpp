@@ -0,0 +1,225 @@
+//
+// Host benchmark of the crop warp, not part of the library build.
+// Source is a chirp sampled from an analytic function, so the expected result is known for every output pixel.
+// Reports time per resampling filter, PSNR where the pattern fits the output and aliasing where it does not.
+// Times every bilinear variant and runs their self-check (bilinear_check.cpp),
+// then warps a 48 MP image with 1, 2, 4 and 8 threads and checks the results are identical.
+//
+// make -C ucrop/src/main/jni/bench && ./ucrop/src/main/jni/bench/build/warp_bench
+//
+
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/time.h>
+#include <vector>
+
+#include "../bilinear.h"
+#include "../parallel.h"
+#include "../warp.h"
+
+#define SOURCE_WIDTH 4000
+#define SOURCE_HEIGHT 3000
+
+#define BAND_PASS 0
+#define BAND_STOP 1
+#define BAND_IGNORED 2
+#define RUNS 3
+
+#define SCALING_WIDTH 8000
+#define SCALING_HEIGHT 6000
+
+static const char *FILTER_NAMES[] = {"nearest", "bilinear", "bicubic", "lanczos3", "area"};
+
+static double pattern(double x, double y) {
+    // Chirp that gets up to 0.7 of the source Nyquist frequency in the corners
+    const double dx = x - SOURCE_WIDTH / 2.0, dy = y - SOURCE_HEIGHT / 2.0;
+    const double k = M_PI / (SOURCE_WIDTH + SOURCE_HEIGHT);
+    return 127.5 + 127.5 * cos(k * (dx * dx + dy * dy));
+}
+
+static double now() {
+    struct timeval tv;
+    gettimeofday(&tv, NULL);
+    return tv.tv_sec + tv.tv_usec / 1e6;
+}
+
+struct Case {
+    const char *name;
+    double scale, angle;
+};
+
+static void runCase(const ImageBuffer &source, const Case &c) {
+    const double radians = c.angle * M_PI / 180, cosA = cos(radians) * c.scale, sinA = sin(radians) * c.scale;
+    const int width = (int) (SOURCE_WIDTH / c.scale * 0.6), height = (int) (SOURCE_HEIGHT / c.scale * 0.6);
+    // Output is centered on the source and rotated around its center
+    const double cx = SOURCE_WIDTH / 2.0, cy = SOURCE_HEIGHT / 2.0, ox = width / 2.0, oy = height / 2.0;
+    const AffineTransform transform = makeAffine(
+            cosA, -sinA, cx - 0.5 - cosA * (ox - 0.5) + sinA * (oy - 0.5),
+            sinA, cosA, cy - 0.5 - sinA * (ox - 0.5) - cosA * (oy - 0.5));
+
+    // Where the local frequency of the chirp is well below the output Nyquist frequency the result should
+    // match the pattern, above it the pattern cannot be represented and anything but flat gray is aliasing.
+    std::vector<unsigned char> band((size_t) width * height);
+    std::vector<double> expected((size_t) width * height);
+    const double k = M_PI / (SOURCE_WIDTH + SOURCE_HEIGHT);
+    for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+            const double sx = transform.a * x + transform.b * y + transform.c + 0.5;
+            const double sy = transform.d * x + transform.e * y + transform.f + 0.5;
+            const double dx = sx - SOURCE_WIDTH / 2.0, dy = sy - SOURCE_HEIGHT / 2.0;
+            // Radians per output pixel
+            const double frequency = 2 * k * sqrt(dx * dx + dy * dy) * c.scale;
+            const size_t i = (size_t) y * width + x;
+            if (frequency < M_PI / 2) {
+                band[i] = BAND_PASS;
+                expected[i] = pattern(sx, sy);
+            } else if (frequency > M_PI) {
+                band[i] = BAND_STOP;
+                expected[i] = 127.5;
+            } else {
+                band[i] = BAND_IGNORED;
+            }
+        }
+    }
+
+    const size_t stride = (size_t) width * WARP_CHANNELS;
+    std::vector<unsigned char> output(stride * height);
+    printf("%s: %dx%d -> %dx%d\n", c.name, SOURCE_WIDTH, SOURCE_HEIGHT, width, height);
+    for (int filter = RESAMPLING_NEAREST; filter <= RESAMPLING_AREA; filter++) {
+        double best = 1e9;
+        for (int run = 0; run < RUNS; run++) {
+            const double start = now();
+            WarpPlan plan;
+            prepareWarp(source, transform, filter, 1, plan);
+            warpRows(plan, &output[0], width, stride, 0, height);
+            const double elapsed = now() - start;
+            if (elapsed < best) best = elapsed;
+        }
+
+        double error[BAND_IGNORED] = {0, 0};
+        size_t count[BAND_IGNORED] = {0, 0};
+        for (size_t i = 0; i < band.size(); i++) {
+            if (band[i] == BAND_IGNORED) continue;
+            const double d = output[i * WARP_CHANNELS] - expected[i];
+            error[band[i]] += d * d;
+            count[band[i]]++;
+        }
+        printf("  %-9s %8.1f ms   pass %6.2f dB", FILTER_NAMES[filter], best * 1000,
+               10 * log10(255.0 * 255.0 * count[BAND_PASS] / error[BAND_PASS]));
+        if (count[BAND_STOP] > 0) {
+            printf("   alias rms %5.1f", sqrt(error[BAND_STOP] / count[BAND_STOP]));
+        }
+        printf("\n");
+    }
+}
+
+static void runBilinear() {
+    const int width = 1531, height = 1023, rows = 600, columns = 1999;
+    const size_t stride = (size_t) width * 4;
+    std::vector<unsigned char> pixels(stride * height);
+    srand(1);
+    for (size_t i = 0; i < pixels.size(); i++) {
+        pixels[i] = (unsigned char) (rand() & 0xFF);
+    }
+    const ImageBuffer source = {&pixels[0], width, height, 4, stride, false};
+
+    // Rows cover the image at various angles and scales and run past its edges
+    std::vector<int64_t> starts, steps;
+    for (int row = 0; row < rows; row++) {
+        const double angle = (rand() % 3600) * M_PI / 1800, scale = 0.2 + (rand() % 1000) / 400.0;
+        starts.push_back(toBilinearFixed(rand() % (width + 200) - 100.3 + (rand() % 1000) / 1000.0));
+        starts.push_back(toBilinearFixed(rand() % (height + 200) - 100.7 + (rand() % 1000) / 1000.0));
+        steps.push_back(toBilinearFixed(cos(angle) * scale));
+        steps.push_back(toBilinearFixed(sin(angle) * scale));
+    }
+
+    BilinearVariant variants[BILINEAR_MAX_VARIANTS];
+    const int variantCount = getBilinearVariants(variants);
+    std::vector<unsigned char> output((size_t) rows * columns * 4);
+    printf("bilinear %d rows x %d pixels\n", rows, columns);
+    for (int v = 0; v < variantCount; v++) {
+        double best = 1e9;
+        for (int run = 0; run < RUNS; run++) {
+            const double start = now();
+            for (int row = 0; row < rows; row++) {
+                variants[v].function(source, starts[row * 2], starts[row * 2 + 1], steps[row * 2], steps[row * 2 + 1],
+                                     &output[(size_t) row * columns * 4], columns);
+            }
+            const double elapsed = now() - start;
+            if (elapsed < best) best = elapsed;
+        }
+        printf("  %-7s %8.2f ms\n", variants[v].name, best * 1000);
+    }
+    const char *failed = checkBilinearVariants();
+    printf("  check %s%s\n", failed == NULL ? "passed" : "FAILED for ", failed == NULL ? "" : failed);
+}
+
+static void runScaling() {
+    const size_t stride = (size_t) SCALING_WIDTH * WARP_CHANNELS;
+    std::vector<unsigned char> pixels(stride * SCALING_HEIGHT);
+    for (int y = 0; y < SCALING_HEIGHT; y++) {
+        for (int x = 0; x < SCALING_WIDTH; x++) {
+            unsigned char *p = &pixels[y * stride + x * WARP_CHANNELS];
+            p[0] = (unsigned char) (x ^ y);
+            p[1] = (unsigned char) (x + y);
+            p[2] = (unsigned char) (x * y);
+            p[3] = 255;
+        }
+    }
+    const ImageBuffer source = {&pixels[0], SCALING_WIDTH, SCALING_HEIGHT, WARP_CHANNELS, stride, true};
+
+    // Full size crop rotated by 5 degrees around the center
+    const double radians = 5 * M_PI / 180, cosA = cos(radians), sinA = sin(radians);
+    const double cx = SCALING_WIDTH / 2.0 - 0.5, cy = SCALING_HEIGHT / 2.0 - 0.5;
+    const AffineTransform transform = makeAffine(cosA, -sinA, cx - cosA * cx + sinA * cy,
+                                                 sinA, cosA, cy - sinA * cx - cosA * cy);
+
+    std::vector<unsigned char> expected, output(pixels.size());
+    printf("48 MP bilinear, %d cores online\n", getCpuCount());
+    double single = 0;
+    for (int threads = 1; threads <= 8; threads *= 2) {
+        double best = 1e9;
+        for (int run = 0; run < RUNS; run++) {
+            const double start = now();
+            WarpPlan plan;
+            prepareWarp(source, transform, RESAMPLING_BILINEAR, threads, plan);
+            warpParallel(plan, &output[0], SCALING_WIDTH, stride, 0, SCALING_HEIGHT, threads);
+            const double elapsed = now() - start;
+            if (elapsed < best) best = elapsed;
+        }
+        if (threads == 1) {
+            single = best;
+            expected = output;
+        }
+        printf("  %d threads %8.1f ms  speedup %.2fx  %s\n", threads, best * 1000, single / best,
+               memcmp(&expected[0], &output[0], output.size()) == 0 ? "identical" : "DIFFERENT");
+    }
+}
+
+int main() {
+    std::vector<unsigned char> pixels((size_t) SOURCE_WIDTH * SOURCE_HEIGHT * WARP_CHANNELS);
+    for (int y = 0; y < SOURCE_HEIGHT; y++) {
+        for (int x = 0; x < SOURCE_WIDTH; x++) {
+            unsigned char *p = &pixels[((size_t) y * SOURCE_WIDTH + x) * WARP_CHANNELS];
+            p[0] = p[1] = p[2] = (unsigned char) (pattern(x + 0.5, y + 0.5) + 0.5);
+            p[3] = 255;
+        }
+    }
+    const ImageBuffer source = {&pixels[0], SOURCE_WIDTH, SOURCE_HEIGHT, WARP_CHANNELS,
+                                (size_t) SOURCE_WIDTH * WARP_CHANNELS, true};
+
+    const Case cases[] = {
+            {"upscale 1.5x, 7 deg", 1 / 1.5, 7},
+            {"downscale 1.5x, 7 deg", 1.5, 7},
+            {"downscale 3.3x", 3.3, 0},
+            {"downscale 6x, 30 deg", 6, 30},
+    };
+    for (size_t i = 0; i < sizeof(cases) / sizeof(cases[0]); i++) {
+        runCase(source, cases[i]);
+    }
+    runBilinear();
+    runScaling();
+    return 0;
+}
@@ -0,0 +1,266 @@
+//
+// Fixed-point bilinear sampling of RGBA rows with SIMD variants for ARM and x86.
+//
+// All variants run the same 16-bit arithmetic per channel (6 fractional bits kept between the passes):
+//   top    = (p00 << 6) + mulhi((p01 - p00) << 7, fx)
+//   bottom = (p10 << 6) + mulhi((p11 - p10) << 7, fx)
+//   value  = (top + mulhi((bottom - top) << 1, fy) + 32) >> 6
+// where mulhi(a, b) = (a * b) >> 16 and fx, fy are 15-bit fractions. It stays within 1 LSB of float math.
+//
+
+#include "bilinear.h"
+
+#include <math.h>
+#include <string.h>
+
+#if defined(BILINEAR_HAVE_SSE2) || defined(BILINEAR_HAVE_AVX2)
+#include <immintrin.h>
+#endif
+#ifdef BILINEAR_HAVE_NEON
+#include <arm_neon.h>
+#endif
+
+#define FRACTION_SHIFT (BILINEAR_FIXED_SHIFT - 15)
+#define FRACTION_MASK 0x7FFF
+
+/*
+ * Source addresses and weights of one output pixel.
+ */
+struct BilinearTap {
+    const unsigned char *row0, *row1;
+    int x0, x1;
+    int fx, fy;
+};
+
+static inline int clampIndex(int value, int max) {
+    return value < 0 ? 0 : (value > max ? max : value);
+}
+
+static inline void computeTap(const ImageBuffer &source, int64_t x, int64_t y, BilinearTap &tap) {
+    const int ix = (int) (x >> BILINEAR_FIXED_SHIFT), iy = (int) (y >> BILINEAR_FIXED_SHIFT);
+    const int maxX = source.width - 1, maxY = source.height - 1;
+    tap.x0 = clampIndex(ix, maxX) * 4;
+    tap.x1 = clampIndex(ix + 1, maxX) * 4;
+    tap.row0 = source.pixels + clampIndex(iy, maxY) * source.stride;
+    tap.row1 = source.pixels + clampIndex(iy + 1, maxY) * source.stride;
+    tap.fx = (int) (x >> FRACTION_SHIFT) & FRACTION_MASK;
+    tap.fy = (int) (y >> FRACTION_SHIFT) & FRACTION_MASK;
+}
+
+static inline int mulhi(int a, int b) {
+    return (a * b) >> 16;
+}
+
+static inline void samplePixel(const BilinearTap &tap, unsigned char *out) {
+    const unsigned char *p00 = tap.row0 + tap.x0, *p01 = tap.row0 + tap.x1;
+    const unsigned char *p10 = tap.row1 + tap.x0, *p11 = tap.row1 + tap.x1;
+    for (int c = 0; c < 4; c++) {
+        const int top = (p00[c] << 6) + mulhi((p01[c] - p00[c]) << 7, tap.fx);
+        const int bottom = (p10[c] << 6) + mulhi((p11[c] - p10[c]) << 7, tap.fx);
+        const int value = (top + mulhi((bottom - top) << 1, tap.fy) + 32) >> 6;
+        out[c] = (unsigned char) (value < 0 ? 0 : (value > 255 ? 255 : value));
+    }
+}
+
+static inline uint32_t load32(const unsigned char *p) {
+    uint32_t value;
+    memcpy(&value, p, sizeof(value));
+    return value;
+}
+
+int64_t toBilinearFixed(double value) {
+    return (int64_t) floor(value * 4294967296.0 + 0.5);
+}
+
+void bilinearRowScalar(const ImageBuffer &source, int64_t x, int64_t y, int64_t stepX, int64_t stepY,
+                       unsigned char *out, int width) {
+    BilinearTap tap;
+    for (int i = 0; i < width; i++, x += stepX, y += stepY, out += 4) {
+        computeTap(source, x, y, tap);
+        samplePixel(tap, out);
+    }
+}
+
+#ifdef BILINEAR_HAVE_SSE2
+
+/*
+ * Two pixels per register as 8 x int16, weights repeated for each channel.
+ */
+static inline __m128i lerpSse2(__m128i p0, __m128i p1, __m128i weights, int shift) {
+    return _mm_mulhi_epi16(_mm_slli_epi16(_mm_sub_epi16(p1, p0), shift), weights);
+}
+
+static inline __m128i bilinearSse2(__m128i p00, __m128i p01, __m128i p10, __m128i p11, __m128i fx, __m128i fy) {
+    const __m128i top = _mm_add_epi16(_mm_slli_epi16(p00, 6), lerpSse2(p00, p01, fx, 7));
+    const __m128i bottom = _mm_add_epi16(_mm_slli_epi16(p10, 6), lerpSse2(p10, p11, fx, 7));
+    const __m128i value = _mm_add_epi16(top, lerpSse2(top, bottom, fy, 1));
+    return _mm_srai_epi16(_mm_add_epi16(value, _mm_set1_epi16(32)), 6);
+}
+
+void bilinearRowSse2(const ImageBuffer &source, int64_t x, int64_t y, int64_t stepX, int64_t stepY,
+                     unsigned char *out, int width) {
+    const __m128i zero = _mm_setzero_si128();
+    BilinearTap t[4];
+    int i = 0;
+    for (; i + 4 <= width; i += 4, out += 16) {
+        for (int k = 0; k < 4; k++, x += stepX, y += stepY) {
+            computeTap(source, x, y, t[k]);
+        }
+        const __m128i p00 = _mm_setr_epi32(load32(t[0].row0 + t[0].x0), load32(t[1].row0 + t[1].x0),
+                                           load32(t[2].row0 + t[2].x0), load32(t[3].row0 + t[3].x0));
+        const __m128i p01 = _mm_setr_epi32(load32(t[0].row0 + t[0].x1), load32(t[1].row0 + t[1].x1),
+                                           load32(t[2].row0 + t[2].x1), load32(t[3].row0 + t[3].x1));
+        const __m128i p10 = _mm_setr_epi32(load32(t[0].row1 + t[0].x0), load32(t[1].row1 + t[1].x0),
+                                           load32(t[2].row1 + t[2].x0), load32(t[3].row1 + t[3].x0));
+        const __m128i p11 = _mm_setr_epi32(load32(t[0].row1 + t[0].x1), load32(t[1].row1 + t[1].x1),
+                                           load32(t[2].row1 + t[2].x1), load32(t[3].row1 + t[3].x1));
+        // Repeat each weight for the 4 channels of its pixel
+        const __m128i weights = _mm_setr_epi16((short) t[0].fx, (short) t[1].fx, (short) t[2].fx, (short) t[3].fx,
+                                               (short) t[0].fy, (short) t[1].fy, (short) t[2].fy, (short) t[3].fy);
+        const __m128i fx = _mm_unpacklo_epi16(weights, weights), fy = _mm_unpackhi_epi16(weights, weights);
+        const __m128i fxLow = _mm_unpacklo_epi32(fx, fx), fxHigh = _mm_unpackhi_epi32(fx, fx);
+        const __m128i fyLow = _mm_unpacklo_epi32(fy, fy), fyHigh = _mm_unpackhi_epi32(fy, fy);
+
+        const __m128i low = bilinearSse2(_mm_unpacklo_epi8(p00, zero), _mm_unpacklo_epi8(p01, zero),
+                                         _mm_unpacklo_epi8(p10, zero), _mm_unpacklo_epi8(p11, zero), fxLow, fyLow);
+        const __m128i high = bilinearSse2(_mm_unpackhi_epi8(p00, zero), _mm_unpackhi_epi8(p01, zero),
+                                          _mm_unpackhi_epi8(p10, zero), _mm_unpackhi_epi8(p11, zero), fxHigh, fyHigh);
+        _mm_storeu_si128((__m128i *) out, _mm_packus_epi16(low, high));
+    }
+    bilinearRowScalar(source, x, y, stepX, stepY, out, width - i);
+}
+
+#endif
+
+#ifdef BILINEAR_HAVE_AVX2
+
+#define AVX2_TARGET __attribute__((target("avx2")))
+
+static inline AVX2_TARGET __m256i lerpAvx2(__m256i p0, __m256i p1, __m256i weights, int shift) {
+    return _mm256_mulhi_epi16(_mm256_slli_epi16(_mm256_sub_epi16(p1, p0), shift), weights);
+}
+
+/*
+ * Four pixels per register as 16 x int16.
+ */
+static inline AVX2_TARGET __m256i bilinearAvx2(__m128i p00, __m128i p01, __m128i p10, __m128i p11,
+                                               __m256i fx, __m256i fy) {
+    const __m256i w00 = _mm256_cvtepu8_epi16(p00), w01 = _mm256_cvtepu8_epi16(p01);
+    const __m256i w10 = _mm256_cvtepu8_epi16(p10), w11 = _mm256_cvtepu8_epi16(p11);
+    const __m256i top = _mm256_add_epi16(_mm256_slli_epi16(w00, 6), lerpAvx2(w00, w01, fx, 7));
+    const __m256i bottom = _mm256_add_epi16(_mm256_slli_epi16(w10, 6), lerpAvx2(w10, w11, fx, 7));
+    const __m256i value = _mm256_add_epi16(top, lerpAvx2(top, bottom, fy, 1));
+    return _mm256_srai_epi16(_mm256_add_epi16(value, _mm256_set1_epi16(32)), 6);
+}
+
+/*
+ * Repeats 16-bit weights first..first + 3 of the broadcast register for the 4 channels of their pixels.
+ */
+static inline AVX2_TARGET __m256i repeatWeights(__m256i weights, int first) {
+    const char a = (char) (first * 2), b = (char) (first * 2 + 2), c = (char) (first * 2 + 4), d = (char) (first * 2 + 6);
+    const __m256i mask = _mm256_setr_epi8(a, a + 1, a, a + 1, a, a + 1, a, a + 1, b, b + 1, b, b + 1, b, b + 1, b, b + 1,
+                                          c, c + 1, c, c + 1, c, c + 1, c, c + 1, d, d + 1, d, d + 1, d, d + 1, d, d + 1);
+    return _mm256_shuffle_epi8(weights, mask);
+}
+
+#define GATHER4(t, row, column) _mm_setr_epi32(load32((t)[0].row + (t)[0].column), load32((t)[1].row + (t)[1].column), \
+                                               load32((t)[2].row + (t)[2].column), load32((t)[3].row + (t)[3].column))
+
+AVX2_TARGET void bilinearRowAvx2(const ImageBuffer &source, int64_t x, int64_t y, int64_t stepX, int64_t stepY,
+                                 unsigned char *out, int width) {
+    BilinearTap t[8];
+    int i = 0;
+    for (; i + 8 <= width; i += 8, out += 32) {
+        for (int k = 0; k < 8; k++, x += stepX, y += stepY) {
+            computeTap(source, x, y, t[k]);
+        }
+        const __m256i fx = _mm256_broadcastsi128_si256(_mm_setr_epi16(
+                (short) t[0].fx, (short) t[1].fx, (short) t[2].fx, (short) t[3].fx,
+                (short) t[4].fx, (short) t[5].fx, (short) t[6].fx, (short) t[7].fx));
+        const __m256i fy = _mm256_broadcastsi128_si256(_mm_setr_epi16(
+                (short) t[0].fy, (short) t[1].fy, (short) t[2].fy, (short) t[3].fy,
+                (short) t[4].fy, (short) t[5].fy, (short) t[6].fy, (short) t[7].fy));
+        const __m256i low = bilinearAvx2(GATHER4(t, row0, x0), GATHER4(t, row0, x1),
+                                         GATHER4(t, row1, x0), GATHER4(t, row1, x1),
+                                         repeatWeights(fx, 0), repeatWeights(fy, 0));
+        const __m256i high = bilinearAvx2(GATHER4(t + 4, row0, x0), GATHER4(t + 4, row0, x1),
+                                          GATHER4(t + 4, row1, x0), GATHER4(t + 4, row1, x1),
+                                          repeatWeights(fx, 4), repeatWeights(fy, 4));
+        // packus works per 128-bit lane, restore pixel order afterwards
+        const __m256i packed = _mm256_permute4x64_epi64(_mm256_packus_epi16(low, high), 0xD8);
+        _mm256_storeu_si256((__m256i *) out, packed);
+    }
+    bilinearRowScalar(source, x, y, stepX, stepY, out, width - i);
+}
+
+#endif
+
+#ifdef BILINEAR_HAVE_NEON
+
+/*
+ * vqdmulh returns (2 * a * b) >> 16, so shifts are one less than in the other variants.
+ */
+static inline int16x8_t lerpNeon(int16x8_t p0, int16x8_t p1, int16x8_t weights, int shift) {
+    const int16x8_t diff = vsubq_s16(p1, p0);
+    return vqdmulhq_s16(shift == 6 ? vshlq_n_s16(diff, 6) : diff, weights);
+}
+
+static inline uint8x8_t bilinearNeon(uint8x8_t p00, uint8x8_t p01, uint8x8_t p10, uint8x8_t p11,
+                                     int16x8_t fx, int16x8_t fy) {
+    const int16x8_t w00 = vreinterpretq_s16_u16(vmovl_u8(p00)), w01 = vreinterpretq_s16_u16(vmovl_u8(p01));
+    const int16x8_t w10 = vreinterpretq_s16_u16(vmovl_u8(p10)), w11 = vreinterpretq_s16_u16(vmovl_u8(p11));
+    const int16x8_t top = vaddq_s16(vshlq_n_s16(w00, 6), lerpNeon(w00, w01, fx, 6));
+    const int16x8_t bottom = vaddq_s16(vshlq_n_s16(w10, 6), lerpNeon(w10, w11, fx, 6));
+    const int16x8_t value = vaddq_s16(top, lerpNeon(top, bottom, fy, 0));
+    return vqrshrun_n_s16(value, 6);
+}
+
+static inline int16x8_t repeatWeights(int first, int second) {
+    return vcombine_s16(vdup_n_s16((int16_t) first), vdup_n_s16((int16_t) second));
+}
+
+static inline uint8x8_t load2(const unsigned char *first, const unsigned char *second) {
+    return vreinterpret_u8_u32(vset_lane_u32(load32(second), vdup_n_u32(load32(first)), 1));
+}
+
+void bilinearRowNeon(const ImageBuffer &source, int64_t x, int64_t y, int64_t stepX, int64_t stepY,
+                     unsigned char *out, int width) {
+    BilinearTap t[4];
+    int i = 0;
+    for (; i + 4 <= width; i += 4, out += 16) {
+        for (int k = 0; k < 4; k++, x += stepX, y += stepY) {
+            computeTap(source, x, y, t[k]);
+        }
+        const uint8x8_t low = bilinearNeon(load2(t[0].row0 + t[0].x0, t[1].row0 + t[1].x0),
+                                           load2(t[0].row0 + t[0].x1, t[1].row0 + t[1].x1),
+                                           load2(t[0].row1 + t[0].x0, t[1].row1 + t[1].x0),
+                                           load2(t[0].row1 + t[0].x1, t[1].row1 + t[1].x1),
+                                           repeatWeights(t[0].fx, t[1].fx), repeatWeights(t[0].fy, t[1].fy));
+        const uint8x8_t high = bilinearNeon(load2(t[2].row0 + t[2].x0, t[3].row0 + t[3].x0),
+                                            load2(t[2].row0 + t[2].x1, t[3].row0 + t[3].x1),
+                                            load2(t[2].row1 + t[2].x0, t[3].row1 + t[3].x0),
+                                            load2(t[2].row1 + t[2].x1, t[3].row1 + t[3].x1),
+                                            repeatWeights(t[2].fx, t[3].fx), repeatWeights(t[2].fy, t[3].fy));
+        vst1q_u8(out, vcombine_u8(low, high));
+    }
+    bilinearRowScalar(source, x, y, stepX, stepY, out, width - i);
+}
+
+#endif
+
+BilinearRowFunction getBilinearRowFunction() {
+#ifdef BILINEAR_HAVE_NEON
+    return bilinearRowNeon;
+#else
+#ifdef BILINEAR_HAVE_AVX2
+    if (__builtin_cpu_supports("avx2")) {
+        return bilinearRowAvx2;
+    }
+#endif
+#ifdef BILINEAR_HAVE_SSE2
+    return bilinearRowSse2;
+#else
+    return bilinearRowScalar;
+#endif
+#endif
+}
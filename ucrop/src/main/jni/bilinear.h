@@ -0,0 +1,74 @@
+//
+// Fixed-point bilinear sampling of RGBA rows with SIMD variants for ARM and x86.
+//
+
+#ifndef UCROP_BILINEAR_H
+#define UCROP_BILINEAR_H
+
+#include <stdint.h>
+
+#include "encoder.h"
+
+// Source coordinates are 32.32 fixed-point, so stepping along a row does not drift,
+// interpolation weights keep the top 15 bits of the fraction.
+#define BILINEAR_FIXED_SHIFT 32
+
+/*
+ * Samples width RGBA pixels starting at source coordinates (x, y) and advancing by (stepX, stepY) per pixel,
+ * all in 32.32 fixed-point. Edges are clamped. All variants return exactly the same pixels.
+ */
+typedef void (*BilinearRowFunction)(const ImageBuffer &source, int64_t x, int64_t y, int64_t stepX, int64_t stepY,
+                                    unsigned char *out, int width);
+
+void bilinearRowScalar(const ImageBuffer &source, int64_t x, int64_t y, int64_t stepX, int64_t stepY,
+                       unsigned char *out, int width);
+
+#if defined(__SSE2__)
+#define BILINEAR_HAVE_SSE2
+void bilinearRowSse2(const ImageBuffer &source, int64_t x, int64_t y, int64_t stepX, int64_t stepY,
+                     unsigned char *out, int width);
+#endif
+
+#if defined(__x86_64__) || defined(__i386__)
+#define BILINEAR_HAVE_AVX2
+// Must only be called when the CPU supports AVX2
+void bilinearRowAvx2(const ImageBuffer &source, int64_t x, int64_t y, int64_t stepX, int64_t stepY,
+                     unsigned char *out, int width);
+#endif
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#define BILINEAR_HAVE_NEON
+void bilinearRowNeon(const ImageBuffer &source, int64_t x, int64_t y, int64_t stepX, int64_t stepY,
+                     unsigned char *out, int width);
+#endif
+
+/*
+ * The fastest variant supported by the CPU.
+ */
+BilinearRowFunction getBilinearRowFunction();
+
+#define BILINEAR_MAX_VARIANTS 4
+
+struct BilinearVariant {
+    const char *name;
+    BilinearRowFunction function;
+};
+
+/*
+ * Fills variants with every variant the CPU supports, scalar first, and returns their count.
+ */
+int getBilinearVariants(BilinearVariant *variants);
+
+/*
+ * Self-check: every supported variant samples rows of random pixels at various angles and scales, running past
+ * the edges too. Returns the name of the first variant that is more than 1 LSB off float math or differs from
+ * the scalar one, NULL if all of them pass.
+ */
+const char *checkBilinearVariants();
+
+/*
+ * Converts a source coordinate to 32.32 fixed-point.
+ */
+int64_t toBilinearFixed(double value);
+
+#endif //UCROP_BILINEAR_H
@@ -0,0 +1,111 @@
+//
+// Lists bilinear variants the CPU supports and checks them against float math, see bilinear.h.
+//
+
+#include "bilinear.h"
+
+#include <math.h>
+#include <stdlib.h>
+#include <string.h>
+#include <vector>
+
+#define CHECK_SOURCE_WIDTH 331
+#define CHECK_SOURCE_HEIGHT 217
+#define CHECK_ROWS 256
+#define CHECK_COLUMNS 517
+
+int getBilinearVariants(BilinearVariant *variants) {
+    int count = 0;
+    variants[count].name = "scalar";
+    variants[count++].function = bilinearRowScalar;
+#ifdef BILINEAR_HAVE_SSE2
+    variants[count].name = "sse2";
+    variants[count++].function = bilinearRowSse2;
+#endif
+#ifdef BILINEAR_HAVE_AVX2
+    if (__builtin_cpu_supports("avx2")) {
+        variants[count].name = "avx2";
+        variants[count++].function = bilinearRowAvx2;
+    }
+#endif
+#ifdef BILINEAR_HAVE_NEON
+    variants[count].name = "neon";
+    variants[count++].function = bilinearRowNeon;
+#endif
+    return count;
+}
+
+/*
+ * Own generator, so the check does not disturb rand() of the app.
+ */
+static inline uint32_t nextRandom(uint32_t &state) {
+    state = state * 1103515245u + 12345u;
+    return state >> 8;
+}
+
+/*
+ * Float bilinear the fixed-point variants are checked against.
+ */
+static void bilinearRowFloat(const ImageBuffer &source, double sx, double sy, double stepX, double stepY,
+                             unsigned char *out, int width) {
+    const int maxX = source.width - 1, maxY = source.height - 1;
+    for (int x = 0; x < width; x++, sx += stepX, sy += stepY, out += 4) {
+        const double floorX = floor(sx), floorY = floor(sy);
+        const float fx = (float) (sx - floorX), fy = (float) (sy - floorY);
+        const int x0 = (int) floorX, y0 = (int) floorY;
+        const int
+        ix0 = x0 < 0 ? 0 : (x0 > maxX ? maxX : x0), ix1 = x0 + 1 < 0 ? 0 : (x0 + 1 > maxX ? maxX : x0 + 1),
+        iy0 = y0 < 0 ? 0 : (y0 > maxY ? maxY : y0), iy1 = y0 + 1 < 0 ? 0 : (y0 + 1 > maxY ? maxY : y0 + 1);
+        const unsigned char
+        *p00 = source.pixels + iy0 * source.stride + ix0 * 4, *p01 = source.pixels + iy0 * source.stride + ix1 * 4,
+        *p10 = source.pixels + iy1 * source.stride + ix0 * 4, *p11 = source.pixels + iy1 * source.stride + ix1 * 4;
+        for (int c = 0; c < 4; c++) {
+            const float top = p00[c] + fx * (p01[c] - p00[c]);
+            const float bottom = p10[c] + fx * (p11[c] - p10[c]);
+            out[c] = (unsigned char) (top + fy * (bottom - top) + 0.5f);
+        }
+    }
+}
+
+const char *checkBilinearVariants() {
+    const size_t stride = (size_t) CHECK_SOURCE_WIDTH * 4;
+    std::vector<unsigned char> pixels(stride * CHECK_SOURCE_HEIGHT);
+    uint32_t state = 1;
+    for (size_t i = 0; i < pixels.size(); i++) {
+        pixels[i] = (unsigned char) nextRandom(state);
+    }
+    const ImageBuffer source = {&pixels[0], CHECK_SOURCE_WIDTH, CHECK_SOURCE_HEIGHT, 4, stride, false};
+
+    BilinearVariant variants[BILINEAR_MAX_VARIANTS];
+    const int variantCount = getBilinearVariants(variants);
+
+    const size_t rowSize = (size_t) CHECK_COLUMNS * 4;
+    std::vector<unsigned char> expected(rowSize), reference(rowSize), output(rowSize);
+    for (int row = 0; row < CHECK_ROWS; row++) {
+        // Starts up to 50 pixels outside the source, scales from 0.2 to 2.7
+        const double angle = (nextRandom(state) % 3600) * M_PI / 1800;
+        const double scale = 0.2 + (nextRandom(state) % 1000) / 400.0;
+        const double startX = (int) (nextRandom(state) % (CHECK_SOURCE_WIDTH + 100)) - 50
+                              + (nextRandom(state) % 1000) / 1000.0;
+        const double startY = (int) (nextRandom(state) % (CHECK_SOURCE_HEIGHT + 100)) - 50
+                              + (nextRandom(state) % 1000) / 1000.0;
+        const double stepX = cos(angle) * scale, stepY = sin(angle) * scale;
+        bilinearRowFloat(source, startX, startY, stepX, stepY, &expected[0], CHECK_COLUMNS);
+
+        for (int v = 0; v < variantCount; v++) {
+            variants[v].function(source, toBilinearFixed(startX), toBilinearFixed(startY),
+                                 toBilinearFixed(stepX), toBilinearFixed(stepY), &output[0], CHECK_COLUMNS);
+            for (size_t i = 0; i < rowSize; i++) {
+                if (abs((int) output[i] - expected[i]) > 1) {
+                    return variants[v].name;
+                }
+            }
+            if (v == 0) {
+                reference = output;
+            } else if (memcmp(&reference[0], &output[0], rowSize) != 0) {
+                return variants[v].name;
+            }
+        }
+    }
+    return NULL;
+}
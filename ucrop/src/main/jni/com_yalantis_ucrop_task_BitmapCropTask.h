@@ -8,13 +8,29 @@
 extern "C" {
 #endif
 
+/*
+* Class:     com_yalantis_ucrop_task_BitmapCropTask
+* Method:    isFormatSupported
+* Signature: (I)Z
+*/
+JNIEXPORT jboolean JNICALL Java_com_yalantis_ucrop_task_BitmapCropTask_isFormatSupported
+(JNIEnv *, jclass, jint);
+
+/*
+* Class:     com_yalantis_ucrop_task_BitmapCropTask
+* Method:    checkBilinearVariants
+* Signature: ()Ljava/lang/String;
+*/
+JNIEXPORT jstring JNICALL Java_com_yalantis_ucrop_task_BitmapCropTask_checkBilinearVariants
+(JNIEnv *, jclass);
+
 /*
 * Class:     com_yalantis_ucrop_task_BitmapCropTask
 * Method:    cropCImg
-* Signature: (Ljava/lang/String;Ljava/lang/String;IIIIF)Z
+* Signature: (Ljava/lang/String;Ljava/lang/String;IIIIFFIIIIII[FFJF[DJLandroid/graphics/Bitmap;[BLjava/nio/ByteBuffer;)Z
 */
 JNIEXPORT jboolean JNICALL Java_com_yalantis_ucrop_task_BitmapCropTask_cropCImg
-(JNIEnv *, jobject, jstring, jstring, jint, jint, jint, jint, jfloat, jfloat, jint, jint, jint, jint);
+(JNIEnv *, jobject, jstring, jstring, jint, jint, jint, jint, jfloat, jfloat, jint, jint, jint, jint, jint, jint, jfloatArray, jfloat, jlong, jfloat, jdoubleArray, jlong, jobject, jbyteArray, jobject);
 
 #ifdef __cplusplus
 }
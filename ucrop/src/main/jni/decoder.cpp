@@ -0,0 +1,333 @@
+//
+// Decoders for images produced by the encoders, used to measure encoding loss,
+// and a region decoder for JPEG sources.
+//
+
+#include "decoder.h"
+#include "encoder.h"
+
+#include <setjmp.h>
+#include <stdio.h>
+#include <string.h>
+
+#include <jpeglib.h>
+#include <webp/decode.h>
+
+#ifdef UCROP_HAVE_AVIF
+#include <avif/avif.h>
+#endif
+
+// JPEG
+
+struct JpegMemorySource {
+    struct jpeg_source_mgr pub;
+};
+
+struct JpegErrorManager {
+    struct jpeg_error_mgr pub;
+    jmp_buf setjmpBuffer;
+};
+
+static const JOCTET JPEG_EOI[] = {0xFF, 0xD9};
+
+static void jpegInitSource(j_decompress_ptr cinfo) {
+}
+
+static boolean jpegFillInputBuffer(j_decompress_ptr cinfo) {
+    // Truncated data, pretend the image ends here
+    cinfo->src->next_input_byte = JPEG_EOI;
+    cinfo->src->bytes_in_buffer = sizeof(JPEG_EOI);
+    return TRUE;
+}
+
+static void jpegSkipInputData(j_decompress_ptr cinfo, long count) {
+    if (count <= 0) {
+        return;
+    }
+    if ((size_t) count > cinfo->src->bytes_in_buffer) {
+        jpegFillInputBuffer(cinfo);
+    } else {
+        cinfo->src->next_input_byte += count;
+        cinfo->src->bytes_in_buffer -= count;
+    }
+}
+
+static boolean jpegResyncToRestart(j_decompress_ptr cinfo, int desired) {
+    return FALSE;
+}
+
+static void jpegTermSource(j_decompress_ptr cinfo) {
+}
+
+static void jpegErrorExit(j_common_ptr cinfo) {
+    JpegErrorManager *error = (JpegErrorManager *) cinfo->err;
+    longjmp(error->setjmpBuffer, 1);
+}
+
+static void jpegOutputMessage(j_common_ptr cinfo) {
+}
+
+static bool decodeJpegLuma(const unsigned char *data, size_t size, int width, int height,
+                           std::vector<unsigned char> &luma) {
+    JpegMemorySource source;
+    source.pub.next_input_byte = data;
+    source.pub.bytes_in_buffer = size;
+    source.pub.init_source = jpegInitSource;
+    source.pub.fill_input_buffer = jpegFillInputBuffer;
+    source.pub.skip_input_data = jpegSkipInputData;
+    source.pub.resync_to_restart = jpegResyncToRestart;
+    source.pub.term_source = jpegTermSource;
+
+    struct jpeg_decompress_struct cinfo;
+    JpegErrorManager errorManager;
+    cinfo.err = jpeg_std_error(&errorManager.pub);
+    errorManager.pub.error_exit = jpegErrorExit;
+    errorManager.pub.output_message = jpegOutputMessage;
+    if (setjmp(errorManager.setjmpBuffer)) {
+        jpeg_destroy_decompress(&cinfo);
+        return false;
+    }
+
+    jpeg_create_decompress(&cinfo);
+    cinfo.src = &source.pub;
+    jpeg_read_header(&cinfo, TRUE);
+    // Y is decoded as is, without the color conversion
+    cinfo.out_color_space = JCS_GRAYSCALE;
+    jpeg_start_decompress(&cinfo);
+
+    if ((int) cinfo.output_width != width || (int) cinfo.output_height != height) {
+        jpeg_destroy_decompress(&cinfo);
+        return false;
+    }
+    luma.resize((size_t) width * height);
+    while (cinfo.output_scanline < cinfo.output_height) {
+        JSAMPROW row = &luma[(size_t) cinfo.output_scanline * width];
+        jpeg_read_scanlines(&cinfo, &row, 1);
+    }
+    jpeg_finish_decompress(&cinfo);
+    jpeg_destroy_decompress(&cinfo);
+    return true;
+}
+
+// JPEG sources
+
+static FILE *openJpeg(const char *path) {
+    FILE *file = fopen(path, "rb");
+    if (file == NULL) {
+        return NULL;
+    }
+    unsigned char signature[2];
+    const bool isJpeg = fread(signature, 1, 2, file) == 2 && signature[0] == 0xFF && signature[1] == 0xD8;
+    if (!isJpeg || fseek(file, 0, SEEK_SET) != 0) {
+        fclose(file);
+        return NULL;
+    }
+    return file;
+}
+
+static void setRgbaOutput(j_decompress_ptr cinfo) {
+#ifdef JCS_EXTENSIONS
+    cinfo->out_color_space = cinfo->jpeg_color_space == JCS_GRAYSCALE ? JCS_GRAYSCALE : JCS_EXT_RGBA;
+#else
+    cinfo->out_color_space = cinfo->jpeg_color_space == JCS_GRAYSCALE ? JCS_GRAYSCALE : JCS_RGB;
+#endif
+}
+
+static void toRgbaRow(const unsigned char *src, int components, int width, unsigned char *dst) {
+    if (components == 4) {
+        memcpy(dst, src, (size_t) width * 4);
+        return;
+    }
+    for (int x = 0; x < width; x++, src += components, dst += 4) {
+        dst[0] = src[0];
+        dst[1] = src[components == 3 ? 1 : 0];
+        dst[2] = src[components == 3 ? 2 : 0];
+        dst[3] = 255;
+    }
+}
+
+bool decodeJpegRegion(const char *path, int left, int top, int width, int height, std::vector<unsigned char> &rgba) {
+    FILE *file = openJpeg(path);
+    if (file == NULL) {
+        return false;
+    }
+
+    struct jpeg_decompress_struct cinfo;
+    JpegErrorManager errorManager;
+    std::vector<unsigned char> row;
+    cinfo.err = jpeg_std_error(&errorManager.pub);
+    errorManager.pub.error_exit = jpegErrorExit;
+    errorManager.pub.output_message = jpegOutputMessage;
+    if (setjmp(errorManager.setjmpBuffer)) {
+        jpeg_destroy_decompress(&cinfo);
+        fclose(file);
+        return false;
+    }
+
+    jpeg_create_decompress(&cinfo);
+    jpeg_stdio_src(&cinfo, file);
+    jpeg_read_header(&cinfo, TRUE);
+    // CMYK and other exotic color spaces are left to the generic decoder
+    if ((cinfo.jpeg_color_space != JCS_GRAYSCALE && cinfo.num_components != 3) || left < 0 || top < 0
+        || left + width > (int) cinfo.image_width || top + height > (int) cinfo.image_height) {
+        jpeg_destroy_decompress(&cinfo);
+        fclose(file);
+        return false;
+    }
+    setRgbaOutput(&cinfo);
+    jpeg_start_decompress(&cinfo);
+
+    JDIMENSION firstColumn = 0, columns = cinfo.output_width;
+#ifdef LIBJPEG_TURBO_VERSION_NUMBER
+    // Only iMCU columns and rows that cover the region are decoded, columns are widened to iMCU boundaries
+    firstColumn = (JDIMENSION) left;
+    columns = (JDIMENSION) width;
+    jpeg_crop_scanline(&cinfo, &firstColumn, &columns);
+    jpeg_skip_scanlines(&cinfo, (JDIMENSION) top);
+#endif
+    const int components = cinfo.output_components;
+    row.resize((size_t) columns * components);
+    JSAMPROW rowPointer = &row[0];
+    // Plain libjpeg can only decode and drop the rows above
+    while (cinfo.output_scanline < (JDIMENSION) top) {
+        jpeg_read_scanlines(&cinfo, &rowPointer, 1);
+    }
+
+    rgba.resize((size_t) width * height * 4);
+    for (int y = 0; y < height; y++) {
+        jpeg_read_scanlines(&cinfo, &rowPointer, 1);
+        toRgbaRow(&row[(size_t) (left - (int) firstColumn) * components], components, width,
+                  &rgba[(size_t) y * width * 4]);
+    }
+
+    // Rows below the region are never decoded
+    jpeg_abort_decompress(&cinfo);
+    jpeg_destroy_decompress(&cinfo);
+    fclose(file);
+    return true;
+}
+
+bool decodeJpegScaled(const char *path, int denominator, std::vector<unsigned char> &rgba,
+                      int &width, int &height, int &imageWidth, int &imageHeight) {
+    FILE *file = openJpeg(path);
+    if (file == NULL) {
+        return false;
+    }
+
+    struct jpeg_decompress_struct cinfo;
+    JpegErrorManager errorManager;
+    std::vector<unsigned char> row;
+    cinfo.err = jpeg_std_error(&errorManager.pub);
+    errorManager.pub.error_exit = jpegErrorExit;
+    errorManager.pub.output_message = jpegOutputMessage;
+    if (setjmp(errorManager.setjmpBuffer)) {
+        jpeg_destroy_decompress(&cinfo);
+        fclose(file);
+        return false;
+    }
+
+    jpeg_create_decompress(&cinfo);
+    jpeg_stdio_src(&cinfo, file);
+    jpeg_read_header(&cinfo, TRUE);
+    if (cinfo.jpeg_color_space != JCS_GRAYSCALE && cinfo.num_components != 3) {
+        jpeg_destroy_decompress(&cinfo);
+        fclose(file);
+        return false;
+    }
+    setRgbaOutput(&cinfo);
+    // The IDCT produces the smaller size directly, each output pixel averages a denominator x denominator block
+    cinfo.scale_num = 1;
+    cinfo.scale_denom = (unsigned int) denominator;
+    jpeg_start_decompress(&cinfo);
+
+    imageWidth = (int) cinfo.image_width;
+    imageHeight = (int) cinfo.image_height;
+    width = (int) cinfo.output_width;
+    height = (int) cinfo.output_height;
+    const int components = cinfo.output_components;
+    rgba.resize((size_t) width * height * 4);
+    if (components != 4) {
+        row.resize((size_t) width * components);
+    }
+    while (cinfo.output_scanline < cinfo.output_height) {
+        unsigned char *dst = &rgba[(size_t) cinfo.output_scanline * width * 4];
+        JSAMPROW rowPointer = components == 4 ? dst : &row[0];
+        jpeg_read_scanlines(&cinfo, &rowPointer, 1);
+        if (components != 4) {
+            toRgbaRow(&row[0], components, width, dst);
+        }
+    }
+    jpeg_finish_decompress(&cinfo);
+    jpeg_destroy_decompress(&cinfo);
+    fclose(file);
+    return true;
+}
+
+// Others decode to RGB first
+
+static void rgbToLuma(const unsigned char *rgb, int width, int height, std::vector<unsigned char> &luma) {
+    luma.resize((size_t) width * height);
+    for (size_t i = 0; i < luma.size(); i++, rgb += 3) {
+        // ITU-R BT.601, the same weights JPEG uses
+        luma[i] = (unsigned char) ((19595 * rgb[0] + 38470 * rgb[1] + 7471 * rgb[2] + 32768) >> 16);
+    }
+}
+
+static bool decodeWebpLuma(const unsigned char *data, size_t size, int width, int height,
+                           std::vector<unsigned char> &luma) {
+    int decodedWidth, decodedHeight;
+    if (!WebPGetInfo(data, size, &decodedWidth, &decodedHeight)
+        || decodedWidth != width || decodedHeight != height) {
+        return false;
+    }
+    std::vector<unsigned char> rgb((size_t) width * height * 3);
+    if (WebPDecodeRGBInto(data, size, &rgb[0], rgb.size(), width * 3) == NULL) {
+        return false;
+    }
+    rgbToLuma(&rgb[0], width, height, luma);
+    return true;
+}
+
+#ifdef UCROP_HAVE_AVIF
+static bool decodeAvifLuma(const unsigned char *data, size_t size, int width, int height,
+                           std::vector<unsigned char> &luma) {
+    avifDecoder *decoder = avifDecoderCreate();
+    avifImage *image = avifImageCreateEmpty();
+    bool decoded = avifDecoderReadMemory(decoder, image, data, size) == AVIF_RESULT_OK
+                   && (int) image->width == width && (int) image->height == height;
+    if (decoded) {
+        std::vector<unsigned char> rgb((size_t) width * height * 3);
+        avifRGBImage rgbImage;
+        avifRGBImageSetDefaults(&rgbImage, image);
+        rgbImage.format = AVIF_RGB_FORMAT_RGB;
+        rgbImage.depth = 8;
+        rgbImage.pixels = &rgb[0];
+        rgbImage.rowBytes = (uint32_t) width * 3;
+        decoded = avifImageYUVToRGB(image, &rgbImage) == AVIF_RESULT_OK;
+        if (decoded) {
+            rgbToLuma(&rgb[0], width, height, luma);
+        }
+    }
+    avifImageDestroy(image);
+    avifDecoderDestroy(decoder);
+    return decoded;
+}
+#endif
+
+bool decodeLuma(const unsigned char *data, size_t size, int format, int width, int height,
+                std::vector<unsigned char> &luma) {
+    switch (format) {
+        case SAVE_FORMAT_JPEG:
+            return decodeJpegLuma(data, size, width, height, luma);
+        case SAVE_FORMAT_WEBP:
+        case SAVE_FORMAT_WEBP_LOSSY:
+        case SAVE_FORMAT_WEBP_LOSSLESS:
+            return decodeWebpLuma(data, size, width, height, luma);
+#ifdef UCROP_HAVE_AVIF
+        case SAVE_FORMAT_AVIF:
+            return decodeAvifLuma(data, size, width, height, luma);
+#endif
+        default:
+            return false;
+    }
+}
@@ -0,0 +1,34 @@
+//
+// Decoders for images produced by the encoders, used to measure encoding loss,
+// and a region decoder for JPEG sources.
+//
+
+#ifndef UCROP_DECODER_H
+#define UCROP_DECODER_H
+
+#include <stddef.h>
+#include <vector>
+
+/*
+ * Decodes encoded image of given format (SAVE_FORMAT_*) into an 8-bit luma plane of width * height bytes.
+ * Returns false if the data cannot be decoded or its size does not match.
+ */
+bool decodeLuma(const unsigned char *data, size_t size, int format, int width, int height,
+                std::vector<unsigned char> &luma);
+
+/*
+ * Decodes the given rectangle of a JPEG file into RGBA (opaque). With libjpeg-turbo only the iMCU rows and columns
+ * that cover the rectangle are decoded, plain libjpeg still stops below it. Returns false if the file is not
+ * a gray or YCbCr JPEG or the rectangle is outside of the image, the source should be decoded as usual then.
+ */
+bool decodeJpegRegion(const char *path, int left, int top, int width, int height, std::vector<unsigned char> &rgba);
+
+/*
+ * Decodes a JPEG file into RGBA (opaque) scaled by 1 / denominator (1, 2, 4 or 8) in the IDCT.
+ * width and height are the decoded size, imageWidth and imageHeight the full one.
+ * Returns false in the same cases as decodeJpegRegion.
+ */
+bool decodeJpegScaled(const char *path, int denominator, std::vector<unsigned char> &rgba,
+                      int &width, int &height, int &imageWidth, int &imageHeight);
+
+#endif //UCROP_DECODER_H
@@ -0,0 +1,618 @@
+//
+// Image encoders used by the crop engine.
+//
+
+#include "encoder.h"
+
+#include <setjmp.h>
+#include <string.h>
+
+#include <jpeglib.h>
+#include <jerror.h>
+#include <png.h>
+#include <webp/encode.h>
+
+#ifdef UCROP_HAVE_AVIF
+#include <avif/avif.h>
+#endif
+
+#define JPEG_OUTPUT_BUFFER_SIZE 65536
+// Payload of a JPEG marker segment is at most 65535 bytes including the length field
+#define JPEG_MAX_MARKER_DATA 65533
+
+#define WEBP_VP8X_SIZE 10
+#define WEBP_FLAG_EXIF 0x08
+#define WEBP_FLAG_ALPHA 0x10
+
+#define EXIF_ORIENTATION_TAG 0x0112
+#define EXIF_ORIENTATION_NORMAL 1
+#define TIFF_TYPE_SHORT 3
+
+// Exif payload in JPEG APP1 is preceded by this, WebP and AVIF store the payload alone
+static const unsigned char EXIF_PREAMBLE[] = {'E', 'x', 'i', 'f', 0, 0};
+
+static bool hasExif(const EncoderMetadata *metadata) {
+    return metadata != NULL && metadata->exif != NULL && metadata->exifSize > 0;
+}
+
+/*
+ * Gray images are expanded to RGB(A) for encoders that only accept color input.
+ */
+static ImageBuffer toColor(const ImageBuffer &image, std::vector<unsigned char> &storage) {
+    if (image.channels >= 3) {
+        return image;
+    }
+    const int channels = image.channels == 2 ? 4 : 3;
+    storage.resize((size_t) image.width * image.height * channels);
+    for (int y = 0; y < image.height; y++) {
+        const unsigned char *src = image.pixels + y * image.stride;
+        unsigned char *dst = &storage[(size_t) y * image.width * channels];
+        for (int x = 0; x < image.width; x++, src += image.channels, dst += channels) {
+            dst[0] = dst[1] = dst[2] = src[0];
+            if (channels == 4) {
+                dst[3] = src[1];
+            }
+        }
+    }
+    ImageBuffer color = {&storage[0], image.width, image.height, channels, (size_t) image.width * channels, image.opaque};
+    return color;
+}
+
+// JPEG
+
+struct JpegSinkDestination {
+    struct jpeg_destination_mgr pub;
+    Sink *sink;
+    JOCTET buffer[JPEG_OUTPUT_BUFFER_SIZE];
+};
+
+struct JpegErrorManager {
+    struct jpeg_error_mgr pub;
+    jmp_buf setjmpBuffer;
+};
+
+static void jpegInitDestination(j_compress_ptr cinfo) {
+    JpegSinkDestination *dest = (JpegSinkDestination *) cinfo->dest;
+    dest->pub.next_output_byte = dest->buffer;
+    dest->pub.free_in_buffer = JPEG_OUTPUT_BUFFER_SIZE;
+}
+
+static boolean jpegEmptyOutputBuffer(j_compress_ptr cinfo) {
+    JpegSinkDestination *dest = (JpegSinkDestination *) cinfo->dest;
+    if (!dest->sink->write(dest->buffer, JPEG_OUTPUT_BUFFER_SIZE)) {
+        ERREXIT(cinfo, JERR_FILE_WRITE);
+    }
+    dest->pub.next_output_byte = dest->buffer;
+    dest->pub.free_in_buffer = JPEG_OUTPUT_BUFFER_SIZE;
+    return TRUE;
+}
+
+static void jpegTermDestination(j_compress_ptr cinfo) {
+    JpegSinkDestination *dest = (JpegSinkDestination *) cinfo->dest;
+    const size_t size = JPEG_OUTPUT_BUFFER_SIZE - dest->pub.free_in_buffer;
+    if (size > 0 && !dest->sink->write(dest->buffer, size)) {
+        ERREXIT(cinfo, JERR_FILE_WRITE);
+    }
+}
+
+static void jpegErrorExit(j_common_ptr cinfo) {
+    JpegErrorManager *error = (JpegErrorManager *) cinfo->err;
+    longjmp(error->setjmpBuffer, 1);
+}
+
+/*
+ * Streaming state of the JPEG and PNG encoders. libjpeg and libpng report errors with longjmp,
+ * so every function that calls them sets its own jump target.
+ */
+struct RowEncoder {
+    int format;
+    int width, height, channels;
+    int rowsWritten;
+    // libjpeg or libpng state exists and has to be destroyed
+    bool active;
+
+    struct jpeg_compress_struct jpeg;
+    JpegErrorManager jpegError;
+    JpegSinkDestination jpegDestination;
+    std::vector<unsigned char> jpegRow;
+
+    png_structp png;
+    png_infop pngInfo;
+};
+
+static void destroyCodec(RowEncoder *encoder) {
+    if (!encoder->active) {
+        return;
+    }
+    encoder->active = false;
+    if (encoder->format == SAVE_FORMAT_JPEG) {
+        jpeg_destroy_compress(&encoder->jpeg);
+    } else {
+        png_destroy_write_struct(&encoder->png, &encoder->pngInfo);
+    }
+}
+
+static bool beginJpeg(RowEncoder *encoder, int quality, const EncoderMetadata *metadata, Sink &sink,
+                      const char **error) {
+    const int components = encoder->channels >= 3 ? 3 : 1;
+    if (encoder->channels != components) {
+        encoder->jpegRow.resize((size_t) encoder->width * components);
+    }
+    encoder->jpegDestination.sink = &sink;
+
+    struct jpeg_compress_struct &cinfo = encoder->jpeg;
+    cinfo.err = jpeg_std_error(&encoder->jpegError.pub);
+    encoder->jpegError.pub.error_exit = jpegErrorExit;
+    if (setjmp(encoder->jpegError.setjmpBuffer)) {
+        destroyCodec(encoder);
+        if (error) *error = "JPEG encoding failed";
+        return false;
+    }
+
+    jpeg_create_compress(&cinfo);
+    encoder->active = true;
+    encoder->jpegDestination.pub.init_destination = jpegInitDestination;
+    encoder->jpegDestination.pub.empty_output_buffer = jpegEmptyOutputBuffer;
+    encoder->jpegDestination.pub.term_destination = jpegTermDestination;
+    cinfo.dest = &encoder->jpegDestination.pub;
+
+    cinfo.image_width = (JDIMENSION) encoder->width;
+    cinfo.image_height = (JDIMENSION) encoder->height;
+    cinfo.input_components = components;
+    cinfo.in_color_space = components == 3 ? JCS_RGB : JCS_GRAYSCALE;
+    jpeg_set_defaults(&cinfo);
+    jpeg_set_quality(&cinfo, quality, TRUE);
+
+    // Exif goes right after SOI in place of the JFIF header, larger payloads do not fit a single segment
+    const bool writeExif = hasExif(metadata) && metadata->exifSize + sizeof(EXIF_PREAMBLE) <= JPEG_MAX_MARKER_DATA;
+    if (writeExif) {
+        cinfo.write_JFIF_header = FALSE;
+    }
+    jpeg_start_compress(&cinfo, TRUE);
+    if (writeExif) {
+        std::vector<unsigned char> segment(EXIF_PREAMBLE, EXIF_PREAMBLE + sizeof(EXIF_PREAMBLE));
+        segment.insert(segment.end(), metadata->exif, metadata->exif + metadata->exifSize);
+        jpeg_write_marker(&cinfo, JPEG_APP0 + 1, &segment[0], (unsigned int) segment.size());
+    }
+    return true;
+}
+
+static bool writeJpegRows(RowEncoder *encoder, const unsigned char *pixels, size_t stride, int count,
+                          const char **error) {
+    if (setjmp(encoder->jpegError.setjmpBuffer)) {
+        destroyCodec(encoder);
+        if (error) *error = "JPEG encoding failed";
+        return false;
+    }
+    const int components = encoder->jpeg.input_components;
+    for (int y = 0; y < count; y++) {
+        const unsigned char *src = pixels + y * stride;
+        JSAMPROW rowPointer;
+        if (encoder->channels == components) {
+            rowPointer = (JSAMPROW) src;
+        } else {
+            // Alpha is dropped, JPEG has no place for it
+            unsigned char *row = &encoder->jpegRow[0];
+            for (int x = 0; x < encoder->width; x++) {
+                memcpy(row + (size_t) x * components, src + x * encoder->channels, (size_t) components);
+            }
+            rowPointer = row;
+        }
+        jpeg_write_scanlines(&encoder->jpeg, &rowPointer, 1);
+    }
+    return true;
+}
+
+static bool finishJpeg(RowEncoder *encoder, const char **error) {
+    if (setjmp(encoder->jpegError.setjmpBuffer)) {
+        destroyCodec(encoder);
+        if (error) *error = "JPEG encoding failed";
+        return false;
+    }
+    jpeg_finish_compress(&encoder->jpeg);
+    destroyCodec(encoder);
+    return true;
+}
+
+// PNG
+
+static void pngWrite(png_structp png, png_bytep data, png_size_t length) {
+    Sink *sink = (Sink *) png_get_io_ptr(png);
+    if (!sink->write(data, length)) {
+        png_error(png, "Write error");
+    }
+}
+
+static void pngFlush(png_structp png) {
+}
+
+static bool beginPng(RowEncoder *encoder, bool opaque, Sink &sink, const char **error) {
+    encoder->png = png_create_write_struct(PNG_LIBPNG_VER_STRING, NULL, NULL, NULL);
+    if (encoder->png == NULL) {
+        if (error) *error = "Cannot create PNG encoder";
+        return false;
+    }
+    encoder->pngInfo = png_create_info_struct(encoder->png);
+    encoder->active = true;
+    if (encoder->pngInfo == NULL || setjmp(png_jmpbuf(encoder->png))) {
+        destroyCodec(encoder);
+        if (error) *error = "PNG encoding failed";
+        return false;
+    }
+
+    static const int colorTypes[] = {
+        PNG_COLOR_TYPE_GRAY, PNG_COLOR_TYPE_GRAY_ALPHA, PNG_COLOR_TYPE_RGB, PNG_COLOR_TYPE_RGB_ALPHA
+    };
+    const bool hasAlpha = encoder->channels == 2 || encoder->channels == 4;
+    // Opaque alpha is stripped as a filler byte
+    const bool stripAlpha = hasAlpha && opaque;
+    png_set_write_fn(encoder->png, &sink, pngWrite, pngFlush);
+    png_set_IHDR(encoder->png, encoder->pngInfo, (png_uint_32) encoder->width, (png_uint_32) encoder->height, 8,
+                 colorTypes[encoder->channels - (stripAlpha ? 2 : 1)], PNG_INTERLACE_NONE,
+                 PNG_COMPRESSION_TYPE_DEFAULT, PNG_FILTER_TYPE_DEFAULT);
+    png_write_info(encoder->png, encoder->pngInfo);
+    if (stripAlpha) {
+        png_set_filler(encoder->png, 0, PNG_FILLER_AFTER);
+    }
+    return true;
+}
+
+static bool writePngRows(RowEncoder *encoder, const unsigned char *pixels, size_t stride, int count,
+                         const char **error) {
+    if (setjmp(png_jmpbuf(encoder->png))) {
+        destroyCodec(encoder);
+        if (error) *error = "PNG encoding failed";
+        return false;
+    }
+    for (int y = 0; y < count; y++) {
+        png_write_row(encoder->png, (png_const_bytep) (pixels + y * stride));
+    }
+    return true;
+}
+
+static bool finishPng(RowEncoder *encoder, const char **error) {
+    if (setjmp(png_jmpbuf(encoder->png))) {
+        destroyCodec(encoder);
+        if (error) *error = "PNG encoding failed";
+        return false;
+    }
+    png_write_end(encoder->png, NULL);
+    destroyCodec(encoder);
+    return true;
+}
+
+// Streaming
+
+bool isRowEncodable(int format) {
+    return format == SAVE_FORMAT_JPEG || format == SAVE_FORMAT_PNG;
+}
+
+RowEncoder *beginRowEncoding(int width, int height, int channels, bool opaque, int format, int quality,
+                             const EncoderMetadata *metadata, Sink &sink, const char **error) {
+    if (!isRowEncodable(format)) {
+        if (error) *error = "Unsupported output format";
+        return NULL;
+    }
+    RowEncoder *encoder = new RowEncoder();
+    encoder->format = format;
+    encoder->width = width;
+    encoder->height = height;
+    encoder->channels = channels;
+    encoder->rowsWritten = 0;
+    encoder->active = false;
+
+    if (quality < 0) quality = 0;
+    if (quality > 100) quality = 100;
+    const bool started = format == SAVE_FORMAT_JPEG
+                         ? beginJpeg(encoder, quality, metadata, sink, error)
+                         : beginPng(encoder, opaque, sink, error);
+    if (!started) {
+        delete encoder;
+        return NULL;
+    }
+    return encoder;
+}
+
+bool encodeRows(RowEncoder *encoder, const unsigned char *pixels, size_t stride, int count, const char **error) {
+    if (!encoder->active) {
+        if (error) *error = "Encoder has already failed";
+        return false;
+    }
+    if (count > encoder->height - encoder->rowsWritten) {
+        count = encoder->height - encoder->rowsWritten;
+    }
+    encoder->rowsWritten += count;
+    return encoder->format == SAVE_FORMAT_JPEG
+           ? writeJpegRows(encoder, pixels, stride, count, error)
+           : writePngRows(encoder, pixels, stride, count, error);
+}
+
+bool finishRowEncoding(RowEncoder *encoder, const char **error) {
+    bool finished = false;
+    if (!encoder->active) {
+        if (error) *error = "Encoder has already failed";
+    } else if (encoder->rowsWritten < encoder->height) {
+        if (error) *error = "Image is incomplete";
+    } else {
+        finished = encoder->format == SAVE_FORMAT_JPEG ? finishJpeg(encoder, error) : finishPng(encoder, error);
+    }
+    releaseRowEncoder(encoder);
+    return finished;
+}
+
+void releaseRowEncoder(RowEncoder *encoder) {
+    if (encoder != NULL) {
+        destroyCodec(encoder);
+        delete encoder;
+    }
+}
+
+static bool encodeByRows(const ImageBuffer &image, int format, int quality, const EncoderMetadata *metadata,
+                         Sink &sink, const char **error) {
+    RowEncoder *encoder = beginRowEncoding(image.width, image.height, image.channels, image.opaque, format, quality,
+                                           metadata, sink, error);
+    if (encoder == NULL) {
+        return false;
+    }
+    if (!encodeRows(encoder, image.pixels, image.stride, image.height, error)) {
+        releaseRowEncoder(encoder);
+        return false;
+    }
+    return finishRowEncoding(encoder, error);
+}
+
+// WebP
+
+static int webpWrite(const uint8_t *data, size_t size, const WebPPicture *picture) {
+    return ((Sink *) picture->custom_ptr)->write(data, size) ? 1 : 0;
+}
+
+static void appendLittleEndian(std::vector<unsigned char> &out, unsigned int value, int size) {
+    for (int i = 0; i < size; i++) {
+        out.push_back((unsigned char) (value >> (8 * i)));
+    }
+}
+
+static void appendChunkHeader(std::vector<unsigned char> &out, const char *fourcc, size_t size) {
+    out.insert(out.end(), fourcc, fourcc + 4);
+    appendLittleEndian(out, (unsigned int) size, 4);
+}
+
+/*
+ * Rewrites a simple WebP file into the extended format with an EXIF chunk: VP8X header first, then
+ * the image chunks as encoded, then EXIF.
+ */
+static bool writeWebpWithExif(const std::vector<unsigned char> &webp, int width, int height,
+                              const EncoderMetadata &metadata, Sink &sink) {
+    if (webp.size() < 20 || memcmp(&webp[0], "RIFF", 4) != 0 || memcmp(&webp[8], "WEBP", 4) != 0) {
+        return false;
+    }
+    std::vector<unsigned char> chunks;
+    chunks.reserve(webp.size() + WEBP_VP8X_SIZE + metadata.exifSize + 20);
+    if (memcmp(&webp[12], "VP8X", 4) == 0) {
+        // Lossy with alpha is already extended, flags are the first payload byte
+        chunks.assign(webp.begin() + 12, webp.end());
+        chunks[8] |= WEBP_FLAG_EXIF;
+    } else {
+        unsigned char flags = WEBP_FLAG_EXIF;
+        // Lossless header: signature byte, then width - 1 and height - 1 in 14 bits each and the alpha bit
+        if (memcmp(&webp[12], "VP8L", 4) == 0 && webp.size() >= 25 && (webp[24] & 0x10) != 0) {
+            flags |= WEBP_FLAG_ALPHA;
+        }
+        appendChunkHeader(chunks, "VP8X", WEBP_VP8X_SIZE);
+        chunks.push_back(flags);
+        appendLittleEndian(chunks, 0, 3);
+        appendLittleEndian(chunks, (unsigned int) (width - 1), 3);
+        appendLittleEndian(chunks, (unsigned int) (height - 1), 3);
+        chunks.insert(chunks.end(), webp.begin() + 12, webp.end());
+    }
+    appendChunkHeader(chunks, "EXIF", metadata.exifSize);
+    chunks.insert(chunks.end(), metadata.exif, metadata.exif + metadata.exifSize);
+    if (metadata.exifSize % 2 != 0) {
+        chunks.push_back(0);
+    }
+
+    std::vector<unsigned char> header;
+    appendChunkHeader(header, "RIFF", 4 + chunks.size());
+    header.insert(header.end(), "WEBP", "WEBP" + 4);
+    return sink.write(&header[0], header.size()) && sink.write(&chunks[0], chunks.size());
+}
+
+/*
+ * Mirrors Bitmap.CompressFormat: WEBP is lossless only at quality 100,
+ * for WEBP_LOSSLESS quality is the compression effort.
+ */
+static bool encodeWebp(const ImageBuffer &image, int quality, bool lossless, const EncoderMetadata *metadata,
+                       Sink &sink, const char **error) {
+    std::vector<unsigned char> storage;
+    const ImageBuffer color = toColor(image, storage);
+
+    WebPConfig config;
+    WebPPicture picture;
+    if (!WebPConfigInit(&config) || !WebPPictureInit(&picture)) {
+        if (error) *error = "Incompatible libwebp version";
+        return false;
+    }
+    config.lossless = lossless ? 1 : 0;
+    config.quality = (float) quality;
+    // Keeps RGB under fully transparent pixels out of the bitstream
+    config.exact = 0;
+
+    picture.width = color.width;
+    picture.height = color.height;
+    picture.use_argb = lossless ? 1 : 0;
+    // With Exif the file is rewritten as a whole, so it is encoded into memory first
+    MemorySink memory;
+    picture.writer = webpWrite;
+    picture.custom_ptr = hasExif(metadata) ? (Sink *) &memory : &sink;
+
+    const int imported = color.channels == 4
+                         ? WebPPictureImportRGBA(&picture, color.pixels, (int) color.stride)
+                         : WebPPictureImportRGB(&picture, color.pixels, (int) color.stride);
+    bool encoded = imported && WebPEncode(&config, &picture);
+    WebPPictureFree(&picture);
+    if (encoded && hasExif(metadata)) {
+        encoded = writeWebpWithExif(memory.data(), color.width, color.height, *metadata, sink);
+    }
+
+    if (!encoded && error) {
+        *error = "WebP encoding failed";
+    }
+    return encoded;
+}
+
+// AVIF
+
+#ifdef UCROP_HAVE_AVIF
+/*
+ * Requires libavif 1.0+ for the 0-100 quality scale.
+ */
+static bool encodeAvif(const ImageBuffer &image, int quality, const EncoderMetadata *metadata,
+                       Sink &sink, const char **error) {
+    std::vector<unsigned char> storage;
+    const ImageBuffer color = toColor(image, storage);
+
+    avifImage *avif = avifImageCreate((uint32_t) color.width, (uint32_t) color.height, 8, AVIF_PIXEL_FORMAT_YUV420);
+    avifRGBImage rgb;
+    avifRGBImageSetDefaults(&rgb, avif);
+    rgb.format = color.channels == 4 ? AVIF_RGB_FORMAT_RGBA : AVIF_RGB_FORMAT_RGB;
+    rgb.pixels = (uint8_t *) color.pixels;
+    rgb.rowBytes = (uint32_t) color.stride;
+    rgb.ignoreAlpha = color.opaque ? AVIF_TRUE : AVIF_FALSE;
+
+    avifResult result = avifImageRGBToYUV(avif, &rgb);
+    if (result == AVIF_RESULT_OK && hasExif(metadata)) {
+        result = avifImageSetMetadataExif(avif, metadata->exif, metadata->exifSize);
+    }
+
+    avifRWData output = AVIF_DATA_EMPTY;
+    if (result == AVIF_RESULT_OK) {
+        avifEncoder *encoder = avifEncoderCreate();
+        encoder->quality = quality;
+        encoder->qualityAlpha = quality;
+        encoder->speed = AVIF_SPEED_DEFAULT;
+        result = avifEncoderWrite(encoder, avif, &output);
+        avifEncoderDestroy(encoder);
+    }
+
+    const bool encoded = result == AVIF_RESULT_OK && sink.write(output.data, output.size);
+    avifRWDataFree(&output);
+    avifImageDestroy(avif);
+
+    if (!encoded && error) {
+        *error = result == AVIF_RESULT_OK ? "Write error" : avifResultToString(result);
+    }
+    return encoded;
+}
+#endif
+
+bool isFormatSupported(int format) {
+    switch (format) {
+        case SAVE_FORMAT_JPEG:
+        case SAVE_FORMAT_PNG:
+        case SAVE_FORMAT_WEBP:
+        case SAVE_FORMAT_WEBP_LOSSY:
+        case SAVE_FORMAT_WEBP_LOSSLESS:
+            return true;
+#ifdef UCROP_HAVE_AVIF
+        case SAVE_FORMAT_AVIF:
+            return avifCodecName(AVIF_CODEC_CHOICE_AUTO, AVIF_CODEC_FLAG_CAN_ENCODE) != NULL;
+#endif
+        default:
+            return false;
+    }
+}
+
+bool encodeImage(const ImageBuffer &image, int format, int quality, const EncoderMetadata *metadata,
+                 Sink &sink, const char **error) {
+    if (quality < 0) quality = 0;
+    if (quality > 100) quality = 100;
+
+    switch (format) {
+        case SAVE_FORMAT_JPEG:
+        case SAVE_FORMAT_PNG:
+            return encodeByRows(image, format, quality, metadata, sink, error);
+        case SAVE_FORMAT_WEBP:
+            return encodeWebp(image, quality, quality == 100, metadata, sink, error);
+        case SAVE_FORMAT_WEBP_LOSSY:
+            return encodeWebp(image, quality, false, metadata, sink, error);
+        case SAVE_FORMAT_WEBP_LOSSLESS:
+            return encodeWebp(image, quality, true, metadata, sink, error);
+#ifdef UCROP_HAVE_AVIF
+        case SAVE_FORMAT_AVIF:
+            if (isFormatSupported(SAVE_FORMAT_AVIF)) {
+                return encodeAvif(image, quality, metadata, sink, error);
+            }
+            break;
+#endif
+        default:
+            break;
+    }
+    if (error) *error = "Unsupported output format";
+    return false;
+}
+
+// EXIF
+
+static unsigned int readUnsigned(const unsigned char *data, int size, bool bigEndian) {
+    unsigned int value = 0;
+    for (int i = 0; i < size; i++) {
+        value |= (unsigned int) data[bigEndian ? i : size - 1 - i] << (8 * (size - 1 - i));
+    }
+    return value;
+}
+
+static void resetOrientation(std::vector<unsigned char> &tiff) {
+    if (tiff.size() < 8) {
+        return;
+    }
+    const bool bigEndian = tiff[0] == 'M' && tiff[1] == 'M';
+    const size_t ifdOffset = readUnsigned(&tiff[4], 4, bigEndian);
+    if (ifdOffset + 2 > tiff.size()) {
+        return;
+    }
+    const unsigned int entries = readUnsigned(&tiff[ifdOffset], 2, bigEndian);
+    for (unsigned int i = 0; i < entries; i++) {
+        const size_t entry = ifdOffset + 2 + i * 12;
+        if (entry + 12 > tiff.size()) {
+            return;
+        }
+        if (readUnsigned(&tiff[entry], 2, bigEndian) == EXIF_ORIENTATION_TAG
+            && readUnsigned(&tiff[entry + 2], 2, bigEndian) == TIFF_TYPE_SHORT) {
+            tiff[entry + 8] = bigEndian ? 0 : EXIF_ORIENTATION_NORMAL;
+            tiff[entry + 9] = bigEndian ? EXIF_ORIENTATION_NORMAL : 0;
+            return;
+        }
+    }
+}
+
+bool readExifForOutput(const char *jpegPath, std::vector<unsigned char> &exif) {
+    FILE *file = fopen(jpegPath, "rb");
+    if (file == NULL) {
+        return false;
+    }
+    bool found = false;
+    unsigned char header[4];
+    if (fread(header, 1, 2, file) == 2 && header[0] == 0xFF && header[1] == 0xD8) {
+        while (fread(header, 1, 4, file) == 4 && header[0] == 0xFF) {
+            const unsigned char marker = header[1];
+            const unsigned int length = readUnsigned(header + 2, 2, true);
+            if (marker == 0xDA || length < 2) {
+                break;
+            }
+            std::vector<unsigned char> segment(length - 2);
+            if (segment.size() > 0 && fread(&segment[0], 1, segment.size(), file) != segment.size()) {
+                break;
+            }
+            if (marker == 0xE1 && segment.size() > sizeof(EXIF_PREAMBLE)
+                && memcmp(&segment[0], EXIF_PREAMBLE, sizeof(EXIF_PREAMBLE)) == 0) {
+                exif.assign(segment.begin() + sizeof(EXIF_PREAMBLE), segment.end());
+                resetOrientation(exif);
+                found = true;
+                break;
+            }
+        }
+    }
+    fclose(file);
+    return found;
+}
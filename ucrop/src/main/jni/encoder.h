@@ -0,0 +1,148 @@
+//
+// Image encoders used by the crop engine. All of them write into a Sink,
+// so the result can go to a file, a pipe or just be measured.
+//
+
+#ifndef UCROP_ENCODER_H
+#define UCROP_ENCODER_H
+
+#include <stdio.h>
+#include <stddef.h>
+#include <vector>
+
+// Values up to SAVE_FORMAT_WEBP_LOSSLESS match Bitmap.CompressFormat ordinals.
+#define SAVE_FORMAT_JPEG          0
+#define SAVE_FORMAT_PNG           1
+#define SAVE_FORMAT_WEBP          2
+#define SAVE_FORMAT_WEBP_LOSSY    3
+#define SAVE_FORMAT_WEBP_LOSSLESS 4
+#define SAVE_FORMAT_AVIF          5
+
+/*
+ * Interleaved 8-bit pixels, 1 (gray), 2 (gray + alpha), 3 (RGB) or 4 (RGBA) channels.
+ */
+struct ImageBuffer {
+    const unsigned char *pixels;
+    int width, height, channels;
+    size_t stride;
+    // Alpha channel is known to be 255 everywhere and is not written by encoders
+    bool opaque;
+};
+
+class Sink {
+public:
+    virtual ~Sink() {}
+
+    virtual bool write(const void *data, size_t size) = 0;
+};
+
+class FileSink : public Sink {
+public:
+    explicit FileSink(FILE *file) : mFile(file), mCount(0) {}
+
+    bool write(const void *data, size_t size) {
+        const size_t written = fwrite(data, 1, size, mFile);
+        mCount += written;
+        return written == size;
+    }
+
+    size_t count() const {
+        return mCount;
+    }
+
+private:
+    FILE *mFile;
+    size_t mCount;
+};
+
+/*
+ * Discards the bytes and only counts them.
+ */
+class CountingSink : public Sink {
+public:
+    CountingSink() : mCount(0) {}
+
+    bool write(const void *data, size_t size) {
+        mCount += size;
+        return true;
+    }
+
+    size_t count() const {
+        return mCount;
+    }
+
+private:
+    size_t mCount;
+};
+
+class MemorySink : public Sink {
+public:
+    bool write(const void *data, size_t size) {
+        const unsigned char *bytes = (const unsigned char *) data;
+        mData.insert(mData.end(), bytes, bytes + size);
+        return true;
+    }
+
+    std::vector<unsigned char> &data() {
+        return mData;
+    }
+
+private:
+    std::vector<unsigned char> mData;
+};
+
+/*
+ * Optional metadata embedded while the image is encoded, so the written file is final and its size is known
+ * up front. Exif is the payload from the TIFF header onwards; JPEG, WebP and AVIF embed it, PNG ignores it.
+ */
+struct EncoderMetadata {
+    const unsigned char *exif;
+    size_t exifSize;
+};
+
+bool isFormatSupported(int format);
+
+/*
+ * Encodes the image with given format and quality (0-100).
+ * Returns false and fills error (if not NULL) when the format is not supported or encoding fails.
+ */
+bool encodeImage(const ImageBuffer &image, int format, int quality, const EncoderMetadata *metadata,
+                 Sink &sink, const char **error);
+
+/*
+ * Streaming encoder that takes the image a few rows at a time, so the whole image never has to be in memory.
+ * Only JPEG and PNG can be encoded this way.
+ */
+struct RowEncoder;
+
+bool isRowEncodable(int format);
+
+/*
+ * Starts encoding of the image with given size and layout, metadata may be NULL.
+ * Returns NULL and fills error on failure.
+ */
+RowEncoder *beginRowEncoding(int width, int height, int channels, bool opaque, int format, int quality,
+                             const EncoderMetadata *metadata, Sink &sink, const char **error);
+
+/*
+ * Encodes the next count rows. After a failure the encoder only has to be released.
+ */
+bool encodeRows(RowEncoder *encoder, const unsigned char *pixels, size_t stride, int count, const char **error);
+
+/*
+ * Completes the image after all rows are written and releases the encoder in any case.
+ */
+bool finishRowEncoding(RowEncoder *encoder, const char **error);
+
+/*
+ * Releases the encoder without completing the image.
+ */
+void releaseRowEncoder(RowEncoder *encoder);
+
+/*
+ * Reads the Exif payload (TIFF header onwards) from a JPEG file and resets its orientation to normal,
+ * because pixels are already rotated. Returns false if there is no Exif segment.
+ */
+bool readExifForOutput(const char *jpegPath, std::vector<unsigned char> &exif);
+
+#endif //UCROP_ENCODER_H
@@ -0,0 +1,124 @@
+//
+// Content analysis behind the automatic output format.
+//
+
+#include "format_analysis.h"
+#include "parallel.h"
+
+#include <stdint.h>
+
+#define STRIP_HEIGHT 64
+
+// One bit per 24-bit RGB color
+#define COLOR_BITMAP_WORDS ((1 << 24) / 32)
+
+// Luma difference between neighbours that counts as a hard edge
+#define EDGE_THRESHOLD 64
+
+// Graphics: palette sized images, or large flat areas, or flat areas with crisp edges (text, UI)
+#define SYNTHETIC_MAX_COLORS 256
+#define SYNTHETIC_FLAT_RATIO 0.6f
+#define SYNTHETIC_TEXT_FLAT_RATIO 0.4f
+#define SYNTHETIC_TEXT_EDGE_RATIO 0.02f
+
+struct StripStats {
+    bool hasAlpha;
+    uint64_t flatPairs, edgePairs, pairs;
+};
+
+struct AnalysisJob {
+    const ImageBuffer *image;
+    uint32_t *colors;
+    StripStats *strips;
+};
+
+static inline int lumaOf(const unsigned char *p, int channels) {
+    return channels >= 3 ? (19595 * p[0] + 38470 * p[1] + 7471 * p[2] + 32768) >> 16 : p[0];
+}
+
+static void analyzeStrip(int index, void *arg) {
+    AnalysisJob *job = (AnalysisJob *) arg;
+    const ImageBuffer &image = *job->image;
+    const int channels = image.channels;
+    const int alphaChannel = channels == 2 || channels == 4 ? channels - 1 : -1;
+    const int yEnd = (index + 1) * STRIP_HEIGHT < image.height ? (index + 1) * STRIP_HEIGHT : image.height;
+
+    StripStats stats = {false, 0, 0, 0};
+    uint32_t lastColor = 0xFFFFFFFF;
+
+    for (int y = index * STRIP_HEIGHT; y < yEnd; y++) {
+        const unsigned char *p = image.pixels + y * image.stride;
+        int previousLuma = -1;
+        for (int x = 0; x < image.width; x++, p += channels) {
+            if (alphaChannel >= 0 && p[alphaChannel] != 255) {
+                stats.hasAlpha = true;
+            }
+
+            const uint32_t color = channels >= 3 ? (p[0] << 16) | (p[1] << 8) | p[2] : p[0] * 0x010101u;
+            // Runs of one color are common in graphics, skip the shared bitmap for them
+            if (color != lastColor) {
+                const uint32_t bit = 1u << (color & 31);
+                if (!(job->colors[color >> 5] & bit)) {
+                    __sync_fetch_and_or(&job->colors[color >> 5], bit);
+                }
+                lastColor = color;
+            }
+
+            const int luma = lumaOf(p, channels);
+            if (previousLuma >= 0) {
+                const int difference = luma > previousLuma ? luma - previousLuma : previousLuma - luma;
+                if (difference == 0) {
+                    stats.flatPairs++;
+                } else if (difference >= EDGE_THRESHOLD) {
+                    stats.edgePairs++;
+                }
+                stats.pairs++;
+            }
+            previousLuma = luma;
+        }
+    }
+    job->strips[index] = stats;
+}
+
+static unsigned int bitCount(uint32_t value) {
+    value = value - ((value >> 1) & 0x55555555u);
+    value = (value & 0x33333333u) + ((value >> 2) & 0x33333333u);
+    return (((value + (value >> 4)) & 0x0F0F0F0Fu) * 0x01010101u) >> 24;
+}
+
+void analyzeImage(const ImageBuffer &image, int threads, ImageStats &stats) {
+    const int stripCount = (image.height + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+    std::vector<uint32_t> colors(COLOR_BITMAP_WORDS, 0);
+    std::vector<StripStats> strips(stripCount);
+
+    AnalysisJob job = {&image, &colors[0], &strips[0]};
+    parallelFor(stripCount, threads, analyzeStrip, &job);
+
+    uint64_t flatPairs = 0, edgePairs = 0, pairs = 0;
+    stats.hasAlpha = false;
+    for (int i = 0; i < stripCount; i++) {
+        stats.hasAlpha |= strips[i].hasAlpha;
+        flatPairs += strips[i].flatPairs;
+        edgePairs += strips[i].edgePairs;
+        pairs += strips[i].pairs;
+    }
+    stats.uniqueColors = 0;
+    for (size_t i = 0; i < colors.size(); i++) {
+        stats.uniqueColors += bitCount(colors[i]);
+    }
+    stats.flatRatio = pairs > 0 ? (float) flatPairs / pairs : 1.0f;
+    stats.edgeRatio = pairs > 0 ? (float) edgePairs / pairs : 0.0f;
+}
+
+int chooseFormat(const ImageStats &stats, int autoFormat) {
+    const bool synthetic = stats.uniqueColors <= SYNTHETIC_MAX_COLORS
+                           || stats.flatRatio >= SYNTHETIC_FLAT_RATIO
+                           || (stats.flatRatio >= SYNTHETIC_TEXT_FLAT_RATIO
+                               && stats.edgeRatio >= SYNTHETIC_TEXT_EDGE_RATIO);
+
+    if (autoFormat == SAVE_FORMAT_AUTO_WEBP) {
+        return synthetic ? SAVE_FORMAT_WEBP_LOSSLESS : SAVE_FORMAT_WEBP_LOSSY;
+    }
+    // JPEG cannot keep transparency
+    return synthetic || stats.hasAlpha ? SAVE_FORMAT_PNG : SAVE_FORMAT_JPEG;
+}
@@ -0,0 +1,34 @@
+//
+// Content analysis behind the automatic output format.
+//
+
+#ifndef UCROP_FORMAT_ANALYSIS_H
+#define UCROP_FORMAT_ANALYSIS_H
+
+#include "encoder.h"
+
+// Requests for automatic format, resolved to one of SAVE_FORMAT_* before encoding
+#define SAVE_FORMAT_AUTO      6
+#define SAVE_FORMAT_AUTO_WEBP 7
+
+struct ImageStats {
+    bool hasAlpha;
+    // Distinct RGB colors, alpha is not taken into account
+    unsigned int uniqueColors;
+    // Share of horizontally adjacent pixels with equal luma
+    float flatRatio;
+    // Share of horizontally adjacent pixels with a hard luma step
+    float edgeRatio;
+};
+
+/*
+ * Collects the stats in parallel over strips of rows.
+ */
+void analyzeImage(const ImageBuffer &image, int threads, ImageStats &stats);
+
+/*
+ * Picks JPEG or PNG for SAVE_FORMAT_AUTO, lossy or lossless WebP for SAVE_FORMAT_AUTO_WEBP.
+ */
+int chooseFormat(const ImageStats &stats, int autoFormat);
+
+#endif //UCROP_FORMAT_ANALYSIS_H
@@ -0,0 +1,99 @@
+//
+// Minimal pthread based work sharing for the crop engine.
+//
+
+#include "parallel.h"
+
+#include <pthread.h>
+#include <stdio.h>
+#include <unistd.h>
+#include <vector>
+
+struct ParallelJob {
+    ParallelTask task;
+    void *arg;
+    int count;
+    volatile int next;
+};
+
+static void *runJob(void *data) {
+    ParallelJob *job = (ParallelJob *) data;
+    int index;
+    while ((index = __sync_fetch_and_add(&job->next, 1)) < job->count) {
+        job->task(index, job->arg);
+    }
+    return NULL;
+}
+
+int getCpuCount() {
+    const long count = sysconf(_SC_NPROCESSORS_ONLN);
+    return count > 0 ? (int) count : 1;
+}
+
+static long readMaxFrequency(int cpu) {
+    char path[96];
+    snprintf(path, sizeof(path), "/sys/devices/system/cpu/cpu%d/cpufreq/cpuinfo_max_freq", cpu);
+    FILE *file = fopen(path, "r");
+    if (file == NULL) {
+        return -1;
+    }
+    long frequency = -1;
+    if (fscanf(file, "%ld", &frequency) != 1) {
+        frequency = -1;
+    }
+    fclose(file);
+    return frequency;
+}
+
+int getBigCoreCount() {
+    const long configured = sysconf(_SC_NPROCESSORS_CONF);
+    const int cpuCount = configured > 0 ? (int) configured : 1;
+    std::vector<long> frequencies;
+    for (int cpu = 0; cpu < cpuCount; cpu++) {
+        const long frequency = readMaxFrequency(cpu);
+        if (frequency > 0) {
+            frequencies.push_back(frequency);
+        }
+    }
+    if (frequencies.empty()) {
+        return getCpuCount();
+    }
+
+    // Little cores are the ones running at the lowest maximum frequency, unless all cores are the same
+    long lowest = frequencies[0];
+    for (size_t i = 1; i < frequencies.size(); i++) {
+        if (frequencies[i] < lowest) lowest = frequencies[i];
+    }
+    int count = 0;
+    for (size_t i = 0; i < frequencies.size(); i++) {
+        if (frequencies[i] > lowest) count++;
+    }
+    if (count == 0) {
+        count = (int) frequencies.size();
+    }
+    const int online = getCpuCount();
+    return count < online ? count : online;
+}
+
+void parallelFor(int count, int threads, ParallelTask task, void *arg) {
+    if (count <= 0) {
+        return;
+    }
+    ParallelJob job = {task, arg, count, 0};
+    if (threads > count) {
+        threads = count;
+    }
+
+    std::vector<pthread_t> workers;
+    for (int i = 1; i < threads; i++) {
+        pthread_t worker;
+        // If a thread cannot be started the remaining work simply runs on fewer threads
+        if (pthread_create(&worker, NULL, runJob, &job) == 0) {
+            workers.push_back(worker);
+        }
+    }
+    runJob(&job);
+    for (size_t i = 0; i < workers.size(); i++) {
+        pthread_join(workers[i], NULL);
+    }
+}
@@ -0,0 +1,28 @@
+//
+// Minimal pthread based work sharing for the crop engine.
+//
+
+#ifndef UCROP_PARALLEL_H
+#define UCROP_PARALLEL_H
+
+typedef void (*ParallelTask)(int index, void *arg);
+
+/*
+ * Number of online CPU cores, at least 1.
+ */
+int getCpuCount();
+
+/*
+ * Number of cores faster than the little ones (those with the lowest maximum frequency) on big.LITTLE,
+ * all online cores if they are the same or frequencies are not readable.
+ */
+int getBigCoreCount();
+
+/*
+ * Runs task for every index in [0, count) on up to threads threads (the calling one included)
+ * and returns when all of them are done. Tasks must only write to their own slots,
+ * so the result does not depend on scheduling.
+ */
+void parallelFor(int count, int threads, ParallelTask task, void *arg);
+
+#endif //UCROP_PARALLEL_H
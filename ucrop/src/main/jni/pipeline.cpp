@@ -0,0 +1,166 @@
+//
+// Warp feeding a streaming encoder band by band, so the result never has to be complete in memory.
+//
+
+#include "pipeline.h"
+
+#include <pthread.h>
+
+#include "adjustments.h"
+
+struct Pipeline {
+    pthread_mutex_t mutex;
+    pthread_cond_t changed;
+    // Bands filled by the producer and written by the encoder, guarded by mutex
+    int produced, consumed;
+    bool failed;
+    const char *error;
+
+    int bandCount, height;
+    unsigned char *ring;
+    size_t stride, slotSize;
+    RowEncoder *encoder;
+
+    CropControl *control;
+    float progressBegin;
+};
+
+static unsigned char *slotOf(const Pipeline &pipeline, int band) {
+    return pipeline.ring + (size_t) (band % PIPELINE_SLOTS) * pipeline.slotSize;
+}
+
+static int rowsOf(const Pipeline &pipeline, int band) {
+    const int rows = pipeline.height - band * PIPELINE_BAND_ROWS;
+    return rows < PIPELINE_BAND_ROWS ? rows : PIPELINE_BAND_ROWS;
+}
+
+static void fail(Pipeline &pipeline, const char *error) {
+    pthread_mutex_lock(&pipeline.mutex);
+    if (!pipeline.failed) {
+        pipeline.failed = true;
+        pipeline.error = error;
+    }
+    pthread_cond_broadcast(&pipeline.changed);
+    pthread_mutex_unlock(&pipeline.mutex);
+}
+
+static bool encodeBand(Pipeline &pipeline, int band) {
+    const char *error = NULL;
+    if (!encodeRows(pipeline.encoder, slotOf(pipeline, band), pipeline.stride, rowsOf(pipeline, band), &error)) {
+        fail(pipeline, error);
+        return false;
+    }
+    pthread_mutex_lock(&pipeline.mutex);
+    pipeline.consumed = band + 1;
+    pthread_cond_broadcast(&pipeline.changed);
+    pthread_mutex_unlock(&pipeline.mutex);
+    reportCropProgress(pipeline.control, pipeline.progressBegin, 1, band + 1, pipeline.bandCount);
+    return true;
+}
+
+static void *runEncoder(void *arg) {
+    Pipeline &pipeline = *(Pipeline *) arg;
+    for (int band = 0; band < pipeline.bandCount; band++) {
+        pthread_mutex_lock(&pipeline.mutex);
+        while (pipeline.produced <= band && !pipeline.failed) {
+            pthread_cond_wait(&pipeline.changed, &pipeline.mutex);
+        }
+        const bool failed = pipeline.failed;
+        pthread_mutex_unlock(&pipeline.mutex);
+
+        if (failed || !encodeBand(pipeline, band)) {
+            break;
+        }
+    }
+    return NULL;
+}
+
+static void produce(Pipeline &pipeline, const WarpPlan &plan, int width, const float *colorMatrix,
+                    int threads, bool threaded) {
+    for (int band = 0; band < pipeline.bandCount; band++) {
+        pthread_mutex_lock(&pipeline.mutex);
+        while (band - pipeline.consumed >= PIPELINE_SLOTS && !pipeline.failed) {
+            pthread_cond_wait(&pipeline.changed, &pipeline.mutex);
+        }
+        const bool failed = pipeline.failed;
+        pthread_mutex_unlock(&pipeline.mutex);
+        if (failed) {
+            return;
+        }
+        if (isCropCancelled(pipeline.control)) {
+            fail(pipeline, "Crop cancelled");
+            return;
+        }
+
+        unsigned char *slot = slotOf(pipeline, band);
+        const int rowBegin = band * PIPELINE_BAND_ROWS, rows = rowsOf(pipeline, band);
+        warpParallel(plan, slot, width, pipeline.stride, rowBegin, rowBegin + rows, threads);
+        if (colorMatrix != NULL) {
+            applyColorMatrix(slot, width, rows, pipeline.stride, colorMatrix, plan.source.opaque);
+        }
+
+        if (!threaded) {
+            if (!encodeBand(pipeline, band)) {
+                return;
+            }
+            continue;
+        }
+        pthread_mutex_lock(&pipeline.mutex);
+        pipeline.produced = band + 1;
+        pthread_cond_broadcast(&pipeline.changed);
+        pthread_mutex_unlock(&pipeline.mutex);
+    }
+}
+
+bool warpAndEncode(const WarpPlan &plan, int width, int height, const float *colorMatrix,
+                   int format, int quality, const EncoderMetadata *metadata, Sink &sink, int threads,
+                   const char **error, CropControl *control, float progressBegin) {
+    Pipeline pipeline;
+    pipeline.control = control;
+    pipeline.progressBegin = progressBegin;
+    pipeline.produced = pipeline.consumed = 0;
+    pipeline.failed = false;
+    pipeline.error = NULL;
+    pipeline.bandCount = (height + PIPELINE_BAND_ROWS - 1) / PIPELINE_BAND_ROWS;
+    pipeline.height = height;
+    pipeline.stride = (size_t) width * WARP_CHANNELS;
+    pipeline.slotSize = pipeline.stride * PIPELINE_BAND_ROWS;
+
+    std::vector<unsigned char> ring(pipeline.slotSize * PIPELINE_SLOTS);
+    pipeline.ring = &ring[0];
+    pipeline.encoder = beginRowEncoding(width, height, WARP_CHANNELS, plan.source.opaque, format, quality,
+                                        metadata, sink, error);
+    if (pipeline.encoder == NULL) {
+        return false;
+    }
+    pthread_mutex_init(&pipeline.mutex, NULL);
+    pthread_cond_init(&pipeline.changed, NULL);
+
+    // The encoder gets a thread of its own, the rest sample. Without it bands are encoded in turn.
+    pthread_t encoderThread;
+    const bool threaded = pthread_create(&encoderThread, NULL, runEncoder, &pipeline) == 0;
+    const int warpThreads = threaded && threads > 1 ? threads - 1 : threads;
+    try {
+        produce(pipeline, plan, width, colorMatrix, warpThreads, threaded);
+    } catch (...) {
+        // Let the encoder thread finish before the ring goes away
+        fail(pipeline, "Warp failed");
+        if (threaded) pthread_join(encoderThread, NULL);
+        releaseRowEncoder(pipeline.encoder);
+        pthread_cond_destroy(&pipeline.changed);
+        pthread_mutex_destroy(&pipeline.mutex);
+        throw;
+    }
+    if (threaded) {
+        pthread_join(encoderThread, NULL);
+    }
+    pthread_cond_destroy(&pipeline.changed);
+    pthread_mutex_destroy(&pipeline.mutex);
+
+    if (pipeline.failed) {
+        releaseRowEncoder(pipeline.encoder);
+        if (error) *error = pipeline.error;
+        return false;
+    }
+    return finishRowEncoding(pipeline.encoder, error);
+}
@@ -0,0 +1,28 @@
+//
+// Warp feeding a streaming encoder band by band, so the result never has to be complete in memory.
+//
+
+#ifndef UCROP_PIPELINE_H
+#define UCROP_PIPELINE_H
+
+#include "encoder.h"
+#include "progress.h"
+#include "warp.h"
+
+#define PIPELINE_BAND_ROWS 64
+#define PIPELINE_SLOTS 4
+
+/*
+ * Warps the result of given size and encodes it with a row encoder (see isRowEncodable).
+ * The calling thread samples bands into a ring of PIPELINE_SLOTS bands with up to threads - 1 helpers
+ * and applies the color matrix (if not NULL) to each band, an encoder thread compresses finished bands in order.
+ * Sampling and compression overlap and output memory is bounded by the ring. Metadata may be NULL.
+ * With control, encoded bands advance progress from progressBegin to the end and no band is sampled
+ * after the crop is cancelled; the result is then false and the caller has to check for the cancellation.
+ */
+bool warpAndEncode(const WarpPlan &plan, int width, int height, const float *colorMatrix,
+                   int format, int quality, const EncoderMetadata *metadata, Sink &sink, int threads,
+                   const char **error,
+                   CropControl *control = NULL, float progressBegin = 0);
+
+#endif //UCROP_PIPELINE_H
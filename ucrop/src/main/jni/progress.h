@@ -0,0 +1,49 @@
+//
+// Progress and cancellation of a crop, shared with BitmapCropTask through a direct buffer.
+//
+
+#ifndef UCROP_PROGRESS_H
+#define UCROP_PROGRESS_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+// Progress is reported in these units, see BitmapCropTask
+#define PROGRESS_SCALE 10000
+
+/*
+ * Layout of the control buffer. Java sets cancelled, crop threads write progress and Java polls it.
+ * Both are aligned 32 bit words, only ever read whole, so volatile accesses are enough for a flag and a counter.
+ */
+struct CropControl {
+    volatile int32_t cancelled;
+    volatile int32_t progress;
+};
+
+/*
+ * Thrown when the crop notices the cancellation, reported to Java as CancellationException.
+ */
+struct CropCancelledException {
+};
+
+inline bool isCropCancelled(const CropControl *control) {
+    return control != NULL && control->cancelled != 0;
+}
+
+inline void throwIfCropCancelled(const CropControl *control) {
+    if (isCropCancelled(control)) {
+        throw CropCancelledException();
+    }
+}
+
+/*
+ * Sets progress to done of total steps of the stage that spans [begin, end) of the whole crop.
+ * Threads may finish steps out of order, so the value can step back slightly; the reader keeps the maximum.
+ */
+inline void reportCropProgress(CropControl *control, float begin, float end, int done, int total) {
+    if (control != NULL && total > 0) {
+        control->progress = (int32_t) ((begin + (end - begin) * done / total) * PROGRESS_SCALE);
+    }
+}
+
+#endif //UCROP_PROGRESS_H
@@ -0,0 +1,113 @@
+//
+// Picks encoder settings for the crop result from the already warped pixels,
+// so the image is never cropped twice.
+//
+
+#include "quality_search.h"
+#include "decoder.h"
+#include "parallel.h"
+
+#define QUALITY_MAX 100
+
+struct SizeProbe {
+    const ImageBuffer *image;
+    int format;
+    const EncoderMetadata *metadata;
+    const int *qualities;
+    size_t *sizes;
+    char *encoded;
+    int threads;
+};
+
+static void probeSize(int index, void *arg) {
+    SizeProbe *probe = (SizeProbe *) arg;
+    CountingSink sink;
+    probe->encoded[index] = encodeImage(*probe->image, probe->format, probe->qualities[index],
+                                        probe->metadata, sink, NULL);
+    probe->sizes[index] = sink.count();
+}
+
+static bool measureSizes(const int *qualities, int count, size_t *sizes, void *arg) {
+    SizeProbe *probe = (SizeProbe *) arg;
+    probe->qualities = qualities;
+    probe->sizes = sizes;
+    parallelFor(count, probe->threads, probeSize, probe);
+    for (int i = 0; i < count; i++) {
+        if (!probe->encoded[i]) {
+            return false;
+        }
+    }
+    return true;
+}
+
+bool isQualitySearchable(int format) {
+    // WEBP is lossless only at quality 100, any lower quality makes it lossy
+    return format == SAVE_FORMAT_JPEG || format == SAVE_FORMAT_WEBP
+           || format == SAVE_FORMAT_WEBP_LOSSY || format == SAVE_FORMAT_AVIF;
+}
+
+bool findQualityForSize(const ImageBuffer &image, int format, int maxQuality, size_t maxBytes,
+                        const EncoderMetadata *metadata, int threads,
+                        QualitySearchResult &result, const char **error) {
+    if (threads < 1) threads = 1;
+    std::vector<char> encoded(threads);
+    SizeProbe probe = {&image, format, metadata, NULL, NULL, &encoded[0], threads};
+    if (!searchQualityForSize(maxQuality, maxBytes, threads, measureSizes, &probe, result)) {
+        if (error) *error = "Encoding failed while searching for quality";
+        return false;
+    }
+    return true;
+}
+
+bool measureScore(const LumaPlane &proxy, int format, int quality, int threads, float *score, const char **error) {
+    const ImageBuffer buffer = {&proxy.pixels[0], proxy.width, proxy.height, 1, (size_t) proxy.width, true};
+    MemorySink sink;
+    if (!encodeImage(buffer, format, quality, NULL, sink, error)) {
+        return false;
+    }
+    std::vector<unsigned char> decoded;
+    if (sink.data().empty()
+        || !decodeLuma(&sink.data()[0], sink.data().size(), format, proxy.width, proxy.height, decoded)) {
+        if (error) *error = "Cannot decode trial image";
+        return false;
+    }
+    *score = computeSsim(proxy, &decoded[0], threads);
+    return true;
+}
+
+bool findQualityForScore(const LumaPlane &proxy, int format, int maxQuality, float targetScore, int threads,
+                         QualitySearchResult &result, const char **error) {
+    if (maxQuality < QUALITY_MIN) maxQuality = QUALITY_MIN;
+    if (maxQuality > QUALITY_MAX) maxQuality = QUALITY_MAX;
+
+    float scores[QUALITY_MAX + 1];
+    for (int i = 0; i <= QUALITY_MAX; i++) {
+        scores[i] = -1;
+    }
+
+    // Highest allowed quality is checked first, it is the answer if it does not reach the target
+    if (!measureScore(proxy, format, maxQuality, threads, &scores[maxQuality], error)) {
+        return false;
+    }
+    int low = QUALITY_MIN, high = maxQuality;
+    if (scores[maxQuality] >= targetScore) {
+        // Score grows with quality, look for the lowest quality that still reaches the target
+        while (low < high) {
+            const int middle = (low + high) / 2;
+            if (!measureScore(proxy, format, middle, threads, &scores[middle], error)) {
+                return false;
+            }
+            if (scores[middle] >= targetScore) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+    }
+
+    result.quality = high;
+    result.score = scores[high];
+    result.fits = scores[high] >= targetScore;
+    result.size = 0;
+    return true;
+}
@@ -0,0 +1,66 @@
+//
+// Picks encoder settings for the crop result from the already warped pixels,
+// so the image is never cropped twice.
+//
+
+#ifndef UCROP_QUALITY_SEARCH_H
+#define UCROP_QUALITY_SEARCH_H
+
+#include "encoder.h"
+#include "ssim.h"
+
+#define QUALITY_MIN 1
+
+// Long side of the luma proxy used to score quality, larger images are downscaled
+#define SCORE_PROXY_MAX_SIZE 1024
+
+struct QualitySearchResult {
+    int quality;
+    // Encoded size, only set by findQualityForSize
+    size_t size;
+    // SSIM at the found quality, only set by findQualityForScore
+    float score;
+    // false if no quality meets the limit; quality is the closest one then
+    bool fits;
+};
+
+/*
+ * Returns true if quality changes the encoded size of given format, i.e. the format is lossy.
+ */
+bool isQualitySearchable(int format);
+
+/*
+ * Finds the largest quality in [QUALITY_MIN, maxQuality] whose encoded size is not above maxBytes.
+ * Every round encodes up to threads candidate qualities concurrently into counting sinks, see searchQualityForSize.
+ */
+bool findQualityForSize(const ImageBuffer &image, int format, int maxQuality, size_t maxBytes,
+                        const EncoderMetadata *metadata, int threads,
+                        QualitySearchResult &result, const char **error);
+
+/*
+ * Measures encoded sizes of count qualities given in ascending order, returns false if encoding failed.
+ */
+typedef bool (*SizeMeasureFunction)(const int *qualities, int count, size_t *sizes, void *arg);
+
+/*
+ * Search behind findQualityForSize, separate from encoding so it can be checked on its own.
+ * Each round splits the range between the largest quality known to fit and the smallest one known not to fit
+ * into probesPerRound + 1 even parts and measures the qualities between them, so one probe per round is
+ * a plain bisection and the search takes log(probesPerRound + 1) of 100 rounds at most.
+ */
+bool searchQualityForSize(int maxQuality, size_t maxBytes, int probesPerRound,
+                          SizeMeasureFunction measure, void *arg, QualitySearchResult &result);
+
+/*
+ * Finds the lowest quality in [QUALITY_MIN, maxQuality] at which SSIM between the proxy and its decoded copy
+ * reaches targetScore. Proxy is a luma plane made with makeLumaProxy, SSIM windows are spread over threads.
+ */
+bool findQualityForScore(const LumaPlane &proxy, int format, int maxQuality, float targetScore, int threads,
+                         QualitySearchResult &result, const char **error);
+
+/*
+ * SSIM between the proxy and its copy encoded with given format and quality.
+ */
+bool measureScore(const LumaPlane &proxy, int format, int quality, int threads, float *score, const char **error);
+
+#endif //UCROP_QUALITY_SEARCH_H
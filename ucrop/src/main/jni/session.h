@@ -0,0 +1,57 @@
+//
+// Buffers that are kept between crops of a NativeCropSession, so repeated crops reuse the memory
+// instead of allocating it again.
+//
+
+#ifndef UCROP_SESSION_H
+#define UCROP_SESSION_H
+
+#include <stddef.h>
+#include <vector>
+
+struct CropSession {
+    // Decoded source, reduced source of the warp pre-pass and the crop result, all RGBA
+    std::vector<unsigned char> source, reduced, output;
+    // Read from other threads while a crop is running
+    volatile size_t currentBytes, peakBytes;
+
+    CropSession() : currentBytes(0), peakBytes(0) {}
+};
+
+/*
+ * Updates current and peak byte counts after the buffers were resized, leasedBytes is the capacity
+ * of buffers that are lent out at the moment.
+ */
+inline void updateSessionBytes(CropSession &session, size_t leasedBytes = 0) {
+    const size_t bytes = session.source.capacity() + session.reduced.capacity() + session.output.capacity()
+                         + leasedBytes;
+    session.currentBytes = bytes;
+    if (bytes > session.peakBytes) {
+        session.peakBytes = bytes;
+    }
+}
+
+/*
+ * Lends a session buffer to an owner for the lifetime of the lease and takes it back with whatever
+ * capacity it has grown to, also when the crop fails.
+ */
+class BufferLease {
+public:
+    BufferLease(std::vector<unsigned char> &arena, std::vector<unsigned char> &owner) : mArena(arena), mOwner(owner) {
+        mArena.swap(mOwner);
+    }
+
+    ~BufferLease() {
+        mArena.swap(mOwner);
+    }
+
+private:
+    std::vector<unsigned char> &mArena;
+    std::vector<unsigned char> &mOwner;
+
+    BufferLease(const BufferLease &);
+
+    BufferLease &operator=(const BufferLease &);
+};
+
+#endif //UCROP_SESSION_H
@@ -0,0 +1,54 @@
+//
+// Search for the largest quality that fits a size limit, see quality_search.h.
+//
+
+#include "quality_search.h"
+
+bool searchQualityForSize(int maxQuality, size_t maxBytes, int probesPerRound,
+                          SizeMeasureFunction measure, void *arg, QualitySearchResult &result) {
+    if (probesPerRound < 1) probesPerRound = 1;
+    if (maxQuality < QUALITY_MIN) maxQuality = QUALITY_MIN;
+
+    // Largest quality known to fit and smallest quality known not to fit
+    int pass = QUALITY_MIN - 1, fail = maxQuality + 1;
+    size_t passSize = 0, failSize = 0;
+
+    std::vector<int> qualities;
+    std::vector<size_t> sizes(probesPerRound);
+
+    while (fail - pass > 1) {
+        // Candidates split (pass, fail) into probesPerRound + 1 even parts, fewer when the range is narrower
+        const int range = fail - pass;
+        qualities.clear();
+        for (int i = 1; i <= probesPerRound; i++) {
+            int quality = pass + range * i / (probesPerRound + 1);
+            if (quality <= pass) quality = pass + 1;
+            if (quality >= fail) break;
+            if (qualities.empty() || qualities.back() != quality) {
+                qualities.push_back(quality);
+            }
+        }
+
+        if (!measure(&qualities[0], (int) qualities.size(), &sizes[0], arg)) {
+            return false;
+        }
+
+        for (size_t i = 0; i < qualities.size(); i++) {
+            if (sizes[i] <= maxBytes) {
+                pass = qualities[i];
+                passSize = sizes[i];
+            } else {
+                // Size grows with quality, so every candidate above fails too
+                fail = qualities[i];
+                failSize = sizes[i];
+                break;
+            }
+        }
+    }
+
+    result.fits = pass >= QUALITY_MIN;
+    result.quality = result.fits ? pass : QUALITY_MIN;
+    result.size = result.fits ? passSize : failSize;
+    result.score = -1;
+    return true;
+}
@@ -0,0 +1,103 @@
+//
+// Fast SSIM on luma, used to judge encoding loss.
+//
+
+#include "ssim.h"
+#include "parallel.h"
+
+#define SSIM_WINDOW 8
+#define SSIM_STEP 4
+
+// (0.01 * 255)^2 and (0.03 * 255)^2
+#define SSIM_C1 6.5025
+#define SSIM_C2 58.5225
+
+struct SsimJob {
+    const unsigned char *reference;
+    const unsigned char *other;
+    int width, height;
+    int windowWidth, windowHeight, windowsPerRow;
+    double *rowSums;
+};
+
+static void computeSsimRow(int row, void *arg) {
+    SsimJob *job = (SsimJob *) arg;
+    const int y0 = row * SSIM_STEP;
+    const double n = (double) job->windowWidth * job->windowHeight;
+    double sum = 0;
+
+    for (int i = 0; i < job->windowsPerRow; i++) {
+        const int x0 = i * SSIM_STEP;
+        unsigned int sa = 0, sb = 0;
+        unsigned long long saa = 0, sbb = 0, sab = 0;
+        for (int y = y0; y < y0 + job->windowHeight; y++) {
+            const unsigned char *a = job->reference + (size_t) y * job->width + x0;
+            const unsigned char *b = job->other + (size_t) y * job->width + x0;
+            for (int x = 0; x < job->windowWidth; x++) {
+                sa += a[x];
+                sb += b[x];
+                saa += a[x] * a[x];
+                sbb += b[x] * b[x];
+                sab += a[x] * b[x];
+            }
+        }
+        const double
+        meanA = sa / n, meanB = sb / n,
+        varA = saa / n - meanA * meanA,
+        varB = sbb / n - meanB * meanB,
+        covariance = sab / n - meanA * meanB;
+        sum += ((2 * meanA * meanB + SSIM_C1) * (2 * covariance + SSIM_C2))
+               / ((meanA * meanA + meanB * meanB + SSIM_C1) * (varA + varB + SSIM_C2));
+    }
+    job->rowSums[row] = sum;
+}
+
+void makeLumaProxy(const ImageBuffer &image, int maxSize, LumaPlane &proxy) {
+    const int longSide = image.width > image.height ? image.width : image.height;
+    const int factor = longSide > maxSize ? (longSide + maxSize - 1) / maxSize : 1;
+    proxy.width = image.width / factor > 0 ? image.width / factor : 1;
+    proxy.height = image.height / factor > 0 ? image.height / factor : 1;
+    proxy.pixels.resize((size_t) proxy.width * proxy.height);
+
+    const int blockWidth = factor < image.width ? factor : image.width;
+    const int blockHeight = factor < image.height ? factor : image.height;
+    const unsigned int area = (unsigned int) (blockWidth * blockHeight);
+
+    for (int py = 0; py < proxy.height; py++) {
+        for (int px = 0; px < proxy.width; px++) {
+            unsigned int sum = 0;
+            for (int y = py * factor; y < py * factor + blockHeight; y++) {
+                const unsigned char *p = image.pixels + y * image.stride + (size_t) px * factor * image.channels;
+                for (int x = 0; x < blockWidth; x++, p += image.channels) {
+                    sum += image.channels >= 3
+                           ? (19595 * p[0] + 38470 * p[1] + 7471 * p[2] + 32768) >> 16
+                           : p[0];
+                }
+            }
+            proxy.pixels[(size_t) py * proxy.width + px] = (unsigned char) ((sum + area / 2) / area);
+        }
+    }
+}
+
+float computeSsim(const LumaPlane &reference, const unsigned char *other, int threads) {
+    SsimJob job;
+    job.reference = &reference.pixels[0];
+    job.other = other;
+    job.width = reference.width;
+    job.height = reference.height;
+    // Images smaller than a window are compared as a whole
+    job.windowWidth = reference.width < SSIM_WINDOW ? reference.width : SSIM_WINDOW;
+    job.windowHeight = reference.height < SSIM_WINDOW ? reference.height : SSIM_WINDOW;
+    job.windowsPerRow = (reference.width - job.windowWidth) / SSIM_STEP + 1;
+    const int rows = (reference.height - job.windowHeight) / SSIM_STEP + 1;
+
+    std::vector<double> rowSums(rows);
+    job.rowSums = &rowSums[0];
+    parallelFor(rows, threads, computeSsimRow, &job);
+
+    double sum = 0;
+    for (int i = 0; i < rows; i++) {
+        sum += rowSums[i];
+    }
+    return (float) (sum / ((double) rows * job.windowsPerRow));
+}
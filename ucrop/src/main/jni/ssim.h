@@ -0,0 +1,28 @@
+//
+// Fast SSIM on luma, used to judge encoding loss.
+//
+
+#ifndef UCROP_SSIM_H
+#define UCROP_SSIM_H
+
+#include "encoder.h"
+
+struct LumaPlane {
+    std::vector<unsigned char> pixels;
+    int width, height;
+};
+
+/*
+ * Luma of the image box-downscaled by an integer factor, so that neither side is larger than maxSize.
+ */
+void makeLumaProxy(const ImageBuffer &image, int maxSize, LumaPlane &proxy);
+
+/*
+ * Mean SSIM of 8x8 windows placed with a step of 4 pixels. Rows of windows are spread over threads,
+ * partial sums are added up in order so the score is the same for any thread count.
+ *
+ * @param other - luma plane of the same size as reference
+ */
+float computeSsim(const LumaPlane &reference, const unsigned char *other, int threads);
+
+#endif //UCROP_SSIM_H
@@ -2,18 +2,33 @@
 // Created by Oleksii Shliama on 3/13/16.
 //
 
+#include <stdint.h>
 #include <stdio.h>
 #include <jni.h>
+#include <new>
 #include <vector>
+#include <android/bitmap.h>
 #include <android/log.h>
 #include "com_yalantis_ucrop_task_BitmapCropTask.h"
+#include "com_yalantis_ucrop_task_NativeCropSession.h"
+#include "adjustments.h"
+#include "affine.h"
+#include "bilinear.h"
+#include "decoder.h"
+#include "encoder.h"
+#include "format_analysis.h"
+#include "parallel.h"
+#include "pipeline.h"
+#include "progress.h"
+#include "quality_search.h"
+#include "session.h"
+#include "warp.h"
 
 using namespace std;
 
 #define cimg_display 0
 #define cimg_use_jpeg
 #define cimg_use_png
-#define cimg_use_openmp
 
 #include "CImg.h"
 
@@ -23,94 +38,489 @@ using namespace cimg_library;
 #define LOGD(...) __android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__)
 #define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
 
-#define SAVE_FORMAT_JPEG 0
-#define SAVE_FORMAT_PNG  1
+// Share of the crop done after each stage, rough weights of their usual cost
+#define PROGRESS_DECODED  0.3f
+#define PROGRESS_WARPED   0.6f
+#define PROGRESS_ADJUSTED 0.65f
+#define PROGRESS_SEARCHED 0.85f
+
+// Slots of the encodeInfo array, see BitmapCropTask
+#define ENCODE_INFO_FORMAT    0
+#define ENCODE_INFO_QUALITY   1
+#define ENCODE_INFO_FILE_SIZE 2
+#define ENCODE_INFO_SCORE     3
+#define ENCODE_INFO_SIZE      4
+
+#define MAX_SEARCH_THREADS 4
+#define MAX_DECODE_DENOMINATOR 8
+
+/*
+ * Modified UTF-8 chars of a Java string, released when leaving the scope whichever way it is left.
+ */
+class ScopedUtfChars {
+public:
+    ScopedUtfChars(JNIEnv *env, jstring string)
+            : mEnv(env), mString(string), mChars(env->GetStringUTFChars(string, NULL)) {}
+
+    ~ScopedUtfChars() {
+        if (mChars != NULL) {
+            mEnv->ReleaseStringUTFChars(mString, mChars);
+        }
+    }
+
+    const char *c_str() const {
+        return mChars;
+    }
+
+private:
+    JNIEnv *mEnv;
+    jstring mString;
+    const char *mChars;
+
+    ScopedUtfChars(const ScopedUtfChars &);
+
+    ScopedUtfChars &operator=(const ScopedUtfChars &);
+};
+
+/*
+ * Pixels of an RGBA_8888 Bitmap, locked for the lifetime of the object. pixels() is NULL if there is no bitmap
+ * or it has another format.
+ */
+class ScopedBitmapPixels {
+public:
+    ScopedBitmapPixels(JNIEnv *env, jobject bitmap) : mEnv(env), mBitmap(bitmap), mPixels(NULL) {
+        if (bitmap != NULL && AndroidBitmap_getInfo(env, bitmap, &mInfo) == ANDROID_BITMAP_RESULT_SUCCESS
+            && mInfo.format == ANDROID_BITMAP_FORMAT_RGBA_8888
+            && AndroidBitmap_lockPixels(env, bitmap, &mPixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
+            mPixels = NULL;
+        }
+    }
+
+    ~ScopedBitmapPixels() {
+        if (mPixels != NULL) {
+            AndroidBitmap_unlockPixels(mEnv, mBitmap);
+        }
+    }
+
+    const unsigned char *pixels() const {
+        return (const unsigned char *) mPixels;
+    }
+
+    const AndroidBitmapInfo &info() const {
+        return mInfo;
+    }
+
+private:
+    JNIEnv *mEnv;
+    jobject mBitmap;
+    AndroidBitmapInfo mInfo;
+    void *mPixels;
+
+    ScopedBitmapPixels(const ScopedBitmapPixels &);
+
+    ScopedBitmapPixels &operator=(const ScopedBitmapPixels &);
+};
+
+/*
+ * CImg keeps channels in separate planes, the warp works on interleaved RGBA.
+ */
+static void toRgba(const CImg<unsigned char> &img, std::vector<unsigned char> &rgba) {
+    const int spectrum = img.spectrum();
+    const size_t planeSize = (size_t) img.width() * img.height();
+    const unsigned char
+    *r = img.data(),
+    *g = spectrum >= 3 ? r + planeSize : r,
+    *b = spectrum >= 3 ? r + 2 * planeSize : r,
+    *a = spectrum == 2 ? r + planeSize : (spectrum >= 4 ? r + 3 * planeSize : NULL);
+
+    rgba.resize(planeSize * WARP_CHANNELS);
+    unsigned char *out = &rgba[0];
+    for (size_t i = 0; i < planeSize; i++, out += WARP_CHANNELS) {
+        out[0] = r[i];
+        out[1] = g[i];
+        out[2] = b[i];
+        out[3] = a != NULL ? a[i] : 255;
+    }
+}
+
+static bool saveImage(const ImageBuffer &image, const char *path, int format, int quality,
+                      const EncoderMetadata *metadata, size_t *fileSize, const char **error) {
+    FILE *file = fopen(path, "wb");
+    if (file == NULL) {
+        *error = "Cannot open output file";
+        return false;
+    }
+    FileSink sink(file);
+    bool saved = encodeImage(image, format, quality, metadata, sink, error);
+    if (fclose(file) != 0 && saved) {
+        *error = "Cannot write output file";
+        saved = false;
+    }
+    *fileSize = sink.count();
+    return saved;
+}
+
+/*
+ * Samples and encodes the result band by band, see warpAndEncode.
+ */
+static bool saveWarped(const WarpPlan &plan, int width, int height, const float *colorMatrix, const char *path,
+                       int format, int quality, const EncoderMetadata *metadata, int threads, CropControl *control,
+                       size_t *fileSize, const char **error) {
+    FILE *file = fopen(path, "wb");
+    if (file == NULL) {
+        *error = "Cannot open output file";
+        return false;
+    }
+    FileSink sink(file);
+    bool saved = false;
+    try {
+        saved = warpAndEncode(plan, width, height, colorMatrix, format, quality, metadata, sink, threads, error,
+                              control, PROGRESS_DECODED);
+    } catch (...) {
+        fclose(file);
+        throw;
+    }
+    if (fclose(file) != 0 && saved) {
+        *error = "Cannot write output file";
+        saved = false;
+    }
+    *fileSize = sink.count();
+    return saved;
+}
+
+static void writeEncodeInfo(JNIEnv *env, jdoubleArray encodeInfo, int format, int quality, size_t fileSize,
+                            float score) {
+    if (encodeInfo != NULL && env->GetArrayLength(encodeInfo) >= ENCODE_INFO_SIZE) {
+        const jdouble info[ENCODE_INFO_SIZE] = {(jdouble) format, (jdouble) quality, (jdouble) fileSize,
+                                                (jdouble) score};
+        env->SetDoubleArrayRegion(encodeInfo, 0, ENCODE_INFO_SIZE, info);
+    }
+}
+
+/*
+ * Maps pixels of the crop result to pixels of the decoded source. Composes what could be done as separate passes
+ * over the image: rotation by EXIF degrees, EXIF mirroring, resize by resizeScale and rotation by angle around
+ * the center, so the result is sampled from the source in a single pass.
+ */
+static AffineTransform planCropTransform(int sourceWidth, int sourceHeight, int exifDegrees, bool mirror,
+                                         float resizeScale, float angle, int left, int top) {
+    const int degrees = ((exifDegrees % 360) + 360) % 360;
+    const bool swapSides = degrees == 90 || degrees == 270;
+    const int
+    orientedWidth = swapSides ? sourceHeight : sourceWidth,
+    orientedHeight = swapSides ? sourceWidth : sourceHeight;
+
+    // Oriented image -> source
+    AffineTransform exifRotation;
+    switch (degrees) {
+        case 90:
+            exifRotation = makeAffine(0, 1, 0, -1, 0, sourceHeight - 1);
+            break;
+        case 180:
+            exifRotation = makeAffine(-1, 0, sourceWidth - 1, 0, -1, sourceHeight - 1);
+            break;
+        case 270:
+            exifRotation = makeAffine(0, -1, sourceWidth - 1, 1, 0, 0);
+            break;
+        default:
+            exifRotation = makeAffine(1, 0, 0, 0, 1, 0);
+            break;
+    }
+    const AffineTransform exifMirror = mirror
+                                       ? makeAffine(-1, 0, orientedWidth - 1, 0, 1, 0)
+                                       : makeAffine(1, 0, 0, 0, 1, 0);
+
+    // Resized image -> oriented image, pixel centers are kept aligned
+    const int
+    resizedWidth = resizeScale != 1 ? (int) (orientedWidth * resizeScale) : orientedWidth,
+    resizedHeight = resizeScale != 1 ? (int) (orientedHeight * resizeScale) : orientedHeight;
+    const double
+    scaleX = (double) orientedWidth / resizedWidth,
+    scaleY = (double) orientedHeight / resizedHeight;
+    const AffineTransform resize = makeAffine(scaleX, 0, 0.5 * scaleX - 0.5, 0, scaleY, 0.5 * scaleY - 0.5);
+
+    // Crop result -> resized image, rotated around the center of the rotated bounding box
+    const double
+    rad = angle * cimg::PI / 180,
+    ca = std::cos(rad), sa = std::sin(rad),
+    w2 = 0.5 * resizedWidth, h2 = 0.5 * resizedHeight,
+    dw2 = 0.5 * (cimg::abs(resizedWidth * ca) + cimg::abs(resizedHeight * sa)),
+    dh2 = 0.5 * (cimg::abs(resizedWidth * sa) + cimg::abs(resizedHeight * ca)),
+    u0 = left - dw2, v0 = top - dh2;
+    const AffineTransform rotation = makeAffine(ca, sa, w2 + u0 * ca + v0 * sa,
+                                                -sa, ca, h2 - u0 * sa + v0 * ca);
+
+    return concatAffine(exifRotation, concatAffine(exifMirror, concatAffine(resize, rotation)));
+}
+
+/*
+ * Largest JPEG IDCT scale denominator (2, 4 or 8) that still decodes at least the resolution
+ * resizeScale asks for, so the warp only does the rest of the downscale. Returns 1 if there is none.
+ */
+static int planDecodeDenominator(float resizeScale) {
+    int denominator = 1;
+    while (denominator < MAX_DECODE_DENOMINATOR && resizeScale * denominator * 2 <= 1) {
+        denominator *= 2;
+    }
+    return denominator;
+}
+
+JNIEXPORT jboolean JNICALL Java_com_yalantis_ucrop_task_BitmapCropTask_isFormatSupported
+    (JNIEnv *env, jclass clazz, jint format) {
+    return isFormatSupported(format);
+}
+
+JNIEXPORT jstring JNICALL Java_com_yalantis_ucrop_task_BitmapCropTask_checkBilinearVariants
+    (JNIEnv *env, jclass clazz) {
+    const char *failed = checkBilinearVariants();
+    return failed == NULL ? NULL : env->NewStringUTF(failed);
+}
 
 JNIEXPORT jboolean JNICALL Java_com_yalantis_ucrop_task_BitmapCropTask_cropCImg
     (JNIEnv *env, jobject obj,
     jstring pathSource, jstring pathResult,
     jint left, jint top, jint width, jint height, jfloat angle, jfloat resizeScale,
     jint format, jint quality,
-    jint exifDegrees, jint exifTranslation) {
+    jint exifDegrees, jint exifTranslation, jint resampling, jint threadCount,
+    jfloatArray colorMatrix, jfloat sharpness,
+    jlong maxFileSize, jfloat targetScore, jdoubleArray encodeInfo, jlong sessionHandle, jobject sourceBitmap,
+    jbyteArray exifPayload, jobject controlBuffer) {
 
     LOGD("Crop image with CImg");
 
-    const char *file_source_path = env->GetStringUTFChars(pathSource, 0);
-    const char *file_result_path = env->GetStringUTFChars(pathResult, 0);
+    const ScopedUtfChars sourcePath(env, pathSource), resultPath(env, pathResult);
+    if (sourcePath.c_str() == NULL || resultPath.c_str() == NULL) {
+        // OutOfMemoryError is already pending
+        return false;
+    }
+    const char *file_source_path = sourcePath.c_str();
+    const char *file_result_path = resultPath.c_str();
+
+    // Without a session buffers only live for this crop
+    CropSession localSession;
+    CropSession &session = sessionHandle != 0 ? *(CropSession *) (intptr_t) sessionHandle : localSession;
+
+    // Threads are started per stage, CImg itself stays single threaded
+    const int threads = threadCount > 0 ? threadCount : getBigCoreCount();
+
+    // Shared with BitmapCropTask: cancellation flag in, progress out
+    CropControl *control = NULL;
+    if (controlBuffer != NULL && env->GetDirectBufferCapacity(controlBuffer) >= (jlong) sizeof(CropControl)) {
+        control = (CropControl *) env->GetDirectBufferAddress(controlBuffer);
+    }
+
+    float matrix[COLOR_MATRIX_SIZE];
+    const bool hasColorMatrix = colorMatrix != NULL && env->GetArrayLength(colorMatrix) == COLOR_MATRIX_SIZE;
+    if (hasColorMatrix) {
+        env->GetFloatArrayRegion(colorMatrix, 0, COLOR_MATRIX_SIZE, matrix);
+    }
 
     try {
-        CImg<unsigned char> img(file_source_path);
-        const int
-        x0 = left, y0 = top,
-        x1 = left + width - 1, y1 = top + height - 1;
-
-        /*
-        LOGD("left %d\ntop: %d", left, top);
-        LOGD("width %d\nheight: %d", width, height);
-        LOGD("angle %f\nresizeScale: %f", angle, resizeScale);
-        LOGD("image size pre: %d x %d", img.width(), img.height());
-        LOGD("exifDegrees: %d \nexifTranslation: %d", exifDegrees, exifTranslation);
-        */
-
-        // Handle exif. However it is slow, maybe calculate warp field according to exif rotation/translation.
-        if (exifDegrees != 0) {
-            img.rotate(exifDegrees);
-        }
-        if (exifTranslation != 1) {
-            img.mirror("x");
+        throwIfCropCancelled(control);
+
+        // Exif from BitmapCropTask is embedded while encoding, so nothing rewrites the result afterwards.
+        // AVIF falls back to the source Exif.
+        std::vector<unsigned char> exif;
+        if (exifPayload != NULL) {
+            exif.resize((size_t) env->GetArrayLength(exifPayload));
+            if (!exif.empty()) {
+                env->GetByteArrayRegion(exifPayload, 0, (jsize) exif.size(), (jbyte *) &exif[0]);
+            }
+        } else if (format == SAVE_FORMAT_AVIF) {
+            readExifForOutput(file_source_path, exif);
         }
+        const EncoderMetadata metadata = {exif.empty() ? NULL : &exif[0], exif.size()};
+
+        const size_t outputStride = (size_t) width * WARP_CHANNELS;
+        std::vector<unsigned char> &output = session.output;
+        bool opaque = true;
+
+        // A plain rectangle of a JPEG is the result as is, only that rectangle gets decoded
+        const bool regionDecoded = sourceBitmap == NULL && angle == 0 && resizeScale == 1 && exifDegrees % 360 == 0 && exifTranslation == 1
+                                   && decodeJpegRegion(file_source_path, left, top, width, height, output);
+        if (!regionDecoded) {
+            // Preview that already holds every source pixel is oriented and opaque, the file is not decoded again
+            const ScopedBitmapPixels bitmapPixels(env, sourceBitmap);
+            const bool bitmapSource = bitmapPixels.pixels() != NULL;
+
+            ImageBuffer sourceBuffer;
+            int imageWidth, imageHeight, denominator = 1;
+            bool scaleDecoded = false;
+            if (bitmapSource) {
+                const AndroidBitmapInfo &info = bitmapPixels.info();
+                const ImageBuffer bitmapBuffer = {bitmapPixels.pixels(), (int) info.width, (int) info.height,
+                                                  WARP_CHANNELS, info.stride, true};
+                sourceBuffer = bitmapBuffer;
+                imageWidth = (int) info.width;
+                imageHeight = (int) info.height;
+            } else {
+                std::vector<unsigned char> &source = session.source;
+                int sourceWidth, sourceHeight;
+                // Downscaled JPEGs are decoded at a fraction of their size right away
+                denominator = planDecodeDenominator(resizeScale);
+                scaleDecoded = denominator > 1
+                               && decodeJpegScaled(file_source_path, denominator, source,
+                                                   sourceWidth, sourceHeight, imageWidth, imageHeight);
+                if (!scaleDecoded) {
+                    const CImg<unsigned char> img(file_source_path);
+                    sourceWidth = img.width();
+                    sourceHeight = img.height();
+                    opaque = img.spectrum() != 2 && img.spectrum() != 4;
+                    toRgba(img, source);
+                    imageWidth = sourceWidth;
+                    imageHeight = sourceHeight;
+                }
+                updateSessionBytes(session);
+                const ImageBuffer decodedBuffer = {&source[0], sourceWidth, sourceHeight, WARP_CHANNELS,
+                                                   (size_t) sourceWidth * WARP_CHANNELS, opaque};
+                sourceBuffer = decodedBuffer;
+            }
 
-        const int
-            size_x = img.width() * resizeScale, size_y = img.height() * resizeScale,
-            size_z = -100, size_c = -100, interpolation_type = 1;
+            AffineTransform transform = planCropTransform(imageWidth, imageHeight,
+                                                          bitmapSource ? 0 : exifDegrees,
+                                                          !bitmapSource && exifTranslation != 1,
+                                                          resizeScale, angle, left, top);
+            if (scaleDecoded) {
+                // Each decoded pixel is the average of a denominator x denominator block of the full image
+                const double scale = 1.0 / denominator;
+                transform = concatAffine(makeAffine(scale, 0, 0.5 * scale - 0.5, 0, scale, 0.5 * scale - 0.5),
+                                         transform);
+            }
+            throwIfCropCancelled(control);
+            reportCropProgress(control, 0, PROGRESS_DECODED, 1, 1);
+
+            WarpPlan plan;
+            const BufferLease reducedLease(session.reduced, plan.reduced);
+            prepareWarp(sourceBuffer, transform, resampling, threads, plan);
+            updateSessionBytes(session, plan.reduced.capacity());
+            throwIfCropCancelled(control);
+
+            // When the encoder does not need to see the whole result first, it gets it band by band as it is sampled
+            if (isRowEncodable(format) && targetScore <= 0 && maxFileSize <= 0 && sharpness == 0) {
+                const char *error = NULL;
+                size_t fileSize = 0;
+                if (!saveWarped(plan, width, height, hasColorMatrix ? matrix : NULL, file_result_path, format,
+                                quality, &metadata, threads, control, &fileSize, &error)) {
+                    throwIfCropCancelled(control);
+                    throw CImgIOException("Cannot save image: %s", error);
+                }
+                reportCropProgress(control, 0, 1, 1, 1);
+                writeEncodeInfo(env, encodeInfo, format, quality, fileSize, -1);
+                return true;
+            }
+
+            // Source is sampled once, straight into the result. Integer offsets are plain row copies.
+            output.resize(outputStride * height);
+            warpParallel(plan, &output[0], width, outputStride, 0, height, threads,
+                         control, PROGRESS_DECODED, PROGRESS_WARPED);
+            updateSessionBytes(session, plan.reduced.capacity());
+        }
+        updateSessionBytes(session);
+        throwIfCropCancelled(control);
+        reportCropProgress(control, 0, PROGRESS_WARPED, 1, 1);
 
-        const unsigned int boundary_conditions = 0;
-        const float
-        centering_x = 0, centering_y = 0, centering_z = 0, centering_c = 0;
-        if (resizeScale != 1) {
-            img.resize(size_x, size_y, size_z, size_c, interpolation_type, boundary_conditions, centering_x, centering_y, centering_z, centering_c);
+        // Adjustments are applied here so the result is encoded and written exactly once.
+        if (hasColorMatrix) {
+            applyColorMatrix(&output[0], width, height, outputStride, matrix, opaque);
         }
+        if (sharpness != 0) {
+            applySharpness(&output[0], width, height, outputStride, sharpness);
+        }
+        throwIfCropCancelled(control);
+        reportCropProgress(control, 0, PROGRESS_ADJUSTED, 1, 1);
 
-        // Create warp field.
-        CImg<float> warp(cimg::abs(x1 - x0 + 1), cimg::abs(y1 - y0 + 1), 1, 2);
+        const ImageBuffer buffer = {&output[0], width, height, WARP_CHANNELS, outputStride, opaque};
 
-        const float
-        rad = angle * cimg::PI/180,
-        ca = std::cos(rad), sa = std::sin(rad),
-        ux = cimg::abs(img.width() * ca), uy = cimg::abs(img.width() * sa),
-        vx = cimg::abs(img.height() * sa), vy = cimg::abs(img.height() * ca),
-        w2 = 0.5f * img.width(), h2 = 0.5f * img.height(),
-        dw2 = 0.5f * (ux + vx), dh2 = 0.5f * (uy + vy);
+        const char *error = NULL;
+        int outputQuality = quality;
+        float score = -1;
 
-        cimg_forXY(warp, x, y) {
-            const float
-            u = x + x0 - dw2, v = y + y0 - dh2;
+        if (format == SAVE_FORMAT_AUTO || format == SAVE_FORMAT_AUTO_WEBP) {
+            ImageStats stats;
+            analyzeImage(buffer, threads, stats);
+            format = chooseFormat(stats, format);
+            LOGD("Auto format %d: alpha %d, colors %u, flat %.3f, edges %.3f",
+                 format, stats.hasAlpha, stats.uniqueColors, stats.flatRatio, stats.edgeRatio);
+        }
 
-            warp(x, y, 0) = w2 + u*ca + v*sa;
-            warp(x, y, 1) = h2 - u*sa + v*ca;
+        LumaPlane proxy;
+        if (targetScore > 0 && isQualitySearchable(format)) {
+            makeLumaProxy(buffer, SCORE_PROXY_MAX_SIZE, proxy);
+            QualitySearchResult searchResult;
+            if (!findQualityForScore(proxy, format, quality, targetScore, threads, searchResult, &error)) {
+                throw CImgIOException("Cannot save image: %s", error);
+            }
+            outputQuality = searchResult.quality;
+            score = searchResult.score;
         }
 
-        img = img.get_warp(warp, 0, 1, 2);
+        if (maxFileSize > 0 && isQualitySearchable(format)) {
+            // Candidates are encoded with the Exif they are written with, so their sizes are exact
+            QualitySearchResult searchResult;
+            if (!findQualityForSize(buffer, format, outputQuality, (size_t) maxFileSize, &metadata,
+                                    std::min(threads, MAX_SEARCH_THREADS), searchResult, &error)) {
+                throw CImgIOException("Cannot save image: %s", error);
+            }
+            if (!searchResult.fits) {
+                throw CImgIOException("Result does not fit %lld bytes even at quality %d",
+                                      (long long) maxFileSize, QUALITY_MIN);
+            }
+            // Size limit wins over the target score
+            if (targetScore > 0 && searchResult.quality != outputQuality
+                && !measureScore(proxy, format, searchResult.quality, threads, &score, &error)) {
+                throw CImgIOException("Cannot save image: %s", error);
+            }
+            outputQuality = searchResult.quality;
+        }
+        throwIfCropCancelled(control);
+        reportCropProgress(control, 0, PROGRESS_SEARCHED, 1, 1);
 
-        if (format == SAVE_FORMAT_JPEG) {
-            img.save_jpeg(file_result_path, quality);
-        } else if (format == SAVE_FORMAT_PNG) {
-            img.save_png(file_result_path, 0);
-        } else {
-            img.save(file_result_path);
+        size_t fileSize = 0;
+        if (!saveImage(buffer, file_result_path, format, outputQuality, &metadata, &fileSize, &error)) {
+            throw CImgIOException("Cannot save image: %s", error);
         }
 
-        ~img;
-        env->ReleaseStringUTFChars(pathSource, file_source_path);
-        env->ReleaseStringUTFChars(pathResult, file_result_path);
+        writeEncodeInfo(env, encodeInfo, format, outputQuality, fileSize, score);
+        reportCropProgress(control, 0, 1, 1, 1);
 
         return true;
 
-    } catch (CImgInstanceException e) {
+    } catch (CropCancelledException &) {
+        env->ThrowNew(env->FindClass("java/util/concurrent/CancellationException"), "Crop was cancelled");
+    } catch (CImgInstanceException &e) {
         env->ThrowNew(env->FindClass("java/lang/OutOfMemoryError"), e.what());
-    } catch (CImgIOException e) {
+    } catch (std::bad_alloc &e) {
+        env->ThrowNew(env->FindClass("java/lang/OutOfMemoryError"), "Not enough memory to crop the image");
+    } catch (CImgIOException &e) {
+        env->ThrowNew(env->FindClass("java/io/IOException"), e.what());
+    } catch (CImgException &e) {
+        // Unsupported or broken source
         env->ThrowNew(env->FindClass("java/io/IOException"), e.what());
     }
 
     return false;
-}
\ No newline at end of file
+}
+
+JNIEXPORT jlong JNICALL Java_com_yalantis_ucrop_task_NativeCropSession_nativeCreate
+    (JNIEnv *env, jclass clazz) {
+    CropSession *session = new(std::nothrow) CropSession();
+    if (session == NULL) {
+        env->ThrowNew(env->FindClass("java/lang/OutOfMemoryError"), "Not enough memory for a crop session");
+    }
+    return (jlong) (intptr_t) session;
+}
+
+JNIEXPORT void JNICALL Java_com_yalantis_ucrop_task_NativeCropSession_nativeRelease
+    (JNIEnv *env, jclass clazz, jlong handle) {
+    delete (CropSession *) (intptr_t) handle;
+}
+
+JNIEXPORT jlong JNICALL Java_com_yalantis_ucrop_task_NativeCropSession_nativeGetCurrentBytes
+    (JNIEnv *env, jclass clazz, jlong handle) {
+    return (jlong) ((CropSession *) (intptr_t) handle)->currentBytes;
+}
+
+JNIEXPORT jlong JNICALL Java_com_yalantis_ucrop_task_NativeCropSession_nativeGetPeakBytes
+    (JNIEnv *env, jclass clazz, jlong handle) {
+    return (jlong) ((CropSession *) (intptr_t) handle)->peakBytes;
+}
@@ -0,0 +1,338 @@
+//
+// Affine warp of RGBA images, output is written directly without an intermediate coordinate field.
+//
+
+#include "warp.h"
+
+#include <math.h>
+#include <algorithm>
+#include <string.h>
+
+#include "parallel.h"
+
+// Sub-pixel positions the kernel weights are tabulated for
+#define WARP_PHASES 64
+
+#define BICUBIC_RADIUS 2
+#define LANCZOS3_RADIUS 3
+#define MAX_TAPS 16
+
+#define PRE_PASS_THRESHOLD 2.0
+// Widest footprint area weights fit in MAX_TAPS, larger downscales get an integer box pre-pass first
+#define AREA_MAX_SCALE (MAX_TAPS - 1)
+// Drift of at most 0.001 pixel over 10000 pixels
+#define COPY_EPSILON 1e-7
+
+// Small enough to balance threads, large enough to keep each band in one pass over a few source rows
+#define WARP_BAND_ROWS 16
+#define WARP_TILE_WIDTH 128
+
+static inline int clampIndex(int value, int max) {
+    return value < 0 ? 0 : (value > max ? max : value);
+}
+
+static inline unsigned char clampToByte(float value) {
+    return (unsigned char) (value <= 0 ? 0 : value >= 255 ? 255 : value + 0.5f);
+}
+
+// Kernels
+
+static double bicubic(double x) {
+    // Keys cubic with a = -0.5 (Catmull-Rom)
+    x = fabs(x);
+    if (x < 1) return (1.5 * x - 2.5) * x * x + 1;
+    if (x < 2) return ((-0.5 * x + 2.5) * x - 4) * x + 2;
+    return 0;
+}
+
+static double sinc(double x) {
+    if (x == 0) return 1;
+    x *= M_PI;
+    return sin(x) / x;
+}
+
+static double lanczos3(double x) {
+    return fabs(x) < LANCZOS3_RADIUS ? sinc(x) * sinc(x / LANCZOS3_RADIUS) : 0;
+}
+
+/*
+ * Share of the source pixel at given distance that is covered by an output pixel footprint of scale source pixels.
+ * Box of the footprint convolved with the pixel box: a trapezoid, the tent of bilinear at scale 1.
+ */
+static double areaCoverage(double distance, double scale) {
+    const double coverage = std::min(distance + 0.5, scale / 2) - std::max(distance - 0.5, -scale / 2);
+    return coverage > 0 ? coverage : 0;
+}
+
+static void buildWeights(WarpPlan &plan, double filterScale) {
+    const bool area = plan.resampling == RESAMPLING_AREA;
+    double (*kernel)(double) = plan.resampling == RESAMPLING_BICUBIC ? bicubic : lanczos3;
+    const int radius = plan.resampling == RESAMPLING_BICUBIC ? BICUBIC_RADIUS : LANCZOS3_RADIUS;
+    plan.taps = 2 * (int) ceil(area ? (filterScale + 1) / 2 : radius * filterScale);
+    if (plan.taps > MAX_TAPS) plan.taps = MAX_TAPS;
+
+    plan.weights.resize((size_t) (WARP_PHASES + 1) * plan.taps);
+    for (int phase = 0; phase <= WARP_PHASES; phase++) {
+        float *row = &plan.weights[(size_t) phase * plan.taps];
+        const double fraction = (double) phase / WARP_PHASES;
+        double sum = 0;
+        for (int i = 0; i < plan.taps; i++) {
+            // Tap i reads pixel floor(x) + i - (taps / 2 - 1)
+            const double distance = (i - (plan.taps / 2 - 1)) - fraction;
+            row[i] = (float) (area ? areaCoverage(distance, filterScale) : kernel(distance / filterScale));
+            sum += row[i];
+        }
+        for (int i = 0; i < plan.taps; i++) {
+            row[i] = (float) (row[i] / sum);
+        }
+    }
+}
+
+// Box pre-pass
+
+struct ReduceJob {
+    const ImageBuffer *source;
+    int factor;
+    unsigned char *reduced;
+    int width, height;
+};
+
+static void reduceRows(int band, void *arg) {
+    const ReduceJob &job = *(const ReduceJob *) arg;
+    const ImageBuffer &source = *job.source;
+    const int factor = job.factor, width = job.width;
+    const int rowEnd = std::min((band + 1) * WARP_BAND_ROWS, job.height);
+    std::vector<unsigned int> sums((size_t) width * WARP_CHANNELS);
+
+    for (int y = band * WARP_BAND_ROWS; y < rowEnd; y++) {
+        const int yEnd = (y + 1) * factor < source.height ? (y + 1) * factor : source.height;
+        std::fill(sums.begin(), sums.end(), 0);
+        for (int sy = y * factor; sy < yEnd; sy++) {
+            const unsigned char *p = source.pixels + sy * source.stride;
+            for (int sx = 0; sx < source.width; sx++, p += WARP_CHANNELS) {
+                unsigned int *sum = &sums[(size_t) (sx / factor) * WARP_CHANNELS];
+                sum[0] += p[0];
+                sum[1] += p[1];
+                sum[2] += p[2];
+                sum[3] += p[3];
+            }
+        }
+        unsigned char *out = job.reduced + (size_t) y * width * WARP_CHANNELS;
+        for (int x = 0; x < width; x++) {
+            const int xEnd = (x + 1) * factor < source.width ? (x + 1) * factor : source.width;
+            const unsigned int area = (unsigned int) ((xEnd - x * factor) * (yEnd - y * factor));
+            for (int c = 0; c < WARP_CHANNELS; c++) {
+                out[x * WARP_CHANNELS + c] = (unsigned char) ((sums[x * WARP_CHANNELS + c] + area / 2) / area);
+            }
+        }
+    }
+}
+
+static void reduceBox(const ImageBuffer &source, int factor, int threads, std::vector<unsigned char> &storage,
+                      ImageBuffer &result) {
+    const int width = (source.width + factor - 1) / factor, height = (source.height + factor - 1) / factor;
+    // Storage may come with capacity from an earlier crop, every pixel is overwritten
+    storage.resize((size_t) width * height * WARP_CHANNELS);
+
+    ReduceJob job = {&source, factor, &storage[0], width, height};
+    parallelFor((height + WARP_BAND_ROWS - 1) / WARP_BAND_ROWS, threads, reduceRows, &job);
+
+    ImageBuffer buffer = {&storage[0], width, height, WARP_CHANNELS, (size_t) width * WARP_CHANNELS, source.opaque};
+    result = buffer;
+}
+
+void prepareWarp(const ImageBuffer &source, const AffineTransform &transform, int resampling, int threads,
+                 WarpPlan &plan) {
+    plan.source = source;
+    plan.transform = transform;
+    plan.resampling = resampling;
+    plan.bilinearRow = getBilinearRowFunction();
+    plan.taps = 0;
+    // Angle and scale from Java may be off by float rounding, such a tiny drift is not worth sampling
+    const double left = floor(transform.c + 0.5), top = floor(transform.f + 0.5);
+    plan.copy = fabs(transform.a - 1) < COPY_EPSILON && fabs(transform.b) < COPY_EPSILON
+                && fabs(transform.d) < COPY_EPSILON && fabs(transform.e - 1) < COPY_EPSILON
+                && fabs(transform.c - left) < COPY_EPSILON && fabs(transform.f - top) < COPY_EPSILON;
+    if (plan.copy) {
+        plan.transform = makeAffine(1, 0, left, 0, 1, top);
+        return;
+    }
+
+    // Source pixels per output pixel, the crop only scales uniformly
+    double scale = sqrt(fabs(transform.a * transform.e - transform.b * transform.d));
+
+    const bool prePass = resampling == RESAMPLING_AREA ? scale > AREA_MAX_SCALE
+                                                       : resampling != RESAMPLING_NEAREST && scale > PRE_PASS_THRESHOLD;
+    if (prePass) {
+        int factor = 1;
+        if (resampling == RESAMPLING_AREA) {
+            factor = (int) ceil(scale / AREA_MAX_SCALE);
+        } else {
+            while (scale / (factor * 2) >= 1) factor *= 2;
+        }
+        reduceBox(source, factor, threads, plan.reduced, plan.source);
+        // Keep pixel centers aligned with the reduced grid
+        const double inverse = 1.0 / factor;
+        plan.transform = concatAffine(makeAffine(inverse, 0, 0.5 * inverse - 0.5, 0, inverse, 0.5 * inverse - 0.5),
+                                      transform);
+        scale /= factor;
+    }
+
+    if (resampling == RESAMPLING_BICUBIC || resampling == RESAMPLING_LANCZOS3) {
+        buildWeights(plan, scale > 1 ? scale : 1);
+    } else if (resampling == RESAMPLING_AREA && scale > 1) {
+        // Up to 1:1 the footprint weights are the bilinear tent
+        buildWeights(plan, scale);
+    }
+}
+
+// Samplers
+
+static void warpRowNearest(const WarpPlan &plan, double sx, double sy, unsigned char *out, int width) {
+    const ImageBuffer &source = plan.source;
+    const int maxX = source.width - 1, maxY = source.height - 1;
+    for (int x = 0; x < width; x++, sx += plan.transform.a, sy += plan.transform.d, out += WARP_CHANNELS) {
+        const int ix = clampIndex((int) floor(sx + 0.5), maxX), iy = clampIndex((int) floor(sy + 0.5), maxY);
+        const unsigned char *p = source.pixels + iy * source.stride + ix * WARP_CHANNELS;
+        out[0] = p[0];
+        out[1] = p[1];
+        out[2] = p[2];
+        out[3] = p[3];
+    }
+}
+
+static void warpRowBilinear(const WarpPlan &plan, double sx, double sy, unsigned char *out, int width) {
+    plan.bilinearRow(plan.source, toBilinearFixed(sx), toBilinearFixed(sy),
+                     toBilinearFixed(plan.transform.a), toBilinearFixed(plan.transform.d), out, width);
+}
+
+static void warpRowKernel(const WarpPlan &plan, double sx, double sy, unsigned char *out, int width) {
+    const ImageBuffer &source = plan.source;
+    const int maxX = source.width - 1, maxY = source.height - 1;
+    const int taps = plan.taps, offset = taps / 2 - 1;
+    int columns[MAX_TAPS];
+
+    for (int x = 0; x < width; x++, sx += plan.transform.a, sy += plan.transform.d, out += WARP_CHANNELS) {
+        const double floorX = floor(sx), floorY = floor(sy);
+        const float
+        *weightsX = &plan.weights[(size_t) (int) ((sx - floorX) * WARP_PHASES + 0.5) * taps],
+        *weightsY = &plan.weights[(size_t) (int) ((sy - floorY) * WARP_PHASES + 0.5) * taps];
+        const int x0 = (int) floorX - offset, y0 = (int) floorY - offset;
+        for (int i = 0; i < taps; i++) {
+            columns[i] = clampIndex(x0 + i, maxX) * WARP_CHANNELS;
+        }
+
+        float sum[WARP_CHANNELS] = {0, 0, 0, 0};
+        for (int j = 0; j < taps; j++) {
+            const unsigned char *row = source.pixels + clampIndex(y0 + j, maxY) * source.stride;
+            float rowSum[WARP_CHANNELS] = {0, 0, 0, 0};
+            for (int i = 0; i < taps; i++) {
+                const unsigned char *p = row + columns[i];
+                rowSum[0] += weightsX[i] * p[0];
+                rowSum[1] += weightsX[i] * p[1];
+                rowSum[2] += weightsX[i] * p[2];
+                rowSum[3] += weightsX[i] * p[3];
+            }
+            for (int c = 0; c < WARP_CHANNELS; c++) {
+                sum[c] += weightsY[j] * rowSum[c];
+            }
+        }
+        for (int c = 0; c < WARP_CHANNELS; c++) {
+            // Negative lobes may overshoot
+            out[c] = clampToByte(sum[c]);
+        }
+    }
+}
+
+static void copyRows(const WarpPlan &plan, unsigned char *output, int outputWidth, size_t outputStride,
+                     int rowBegin, int rowEnd) {
+    const ImageBuffer &source = plan.source;
+    const int left = (int) plan.transform.c, top = (int) plan.transform.f;
+    const int maxX = source.width - 1, maxY = source.height - 1;
+    const bool inside = left >= 0 && left + outputWidth <= source.width;
+    for (int y = rowBegin; y < rowEnd; y++) {
+        const unsigned char *row = source.pixels + clampIndex(top + y, maxY) * source.stride;
+        unsigned char *out = output + (y - rowBegin) * outputStride;
+        if (inside) {
+            memcpy(out, row + left * WARP_CHANNELS, (size_t) outputWidth * WARP_CHANNELS);
+            continue;
+        }
+        for (int x = 0; x < outputWidth; x++) {
+            memcpy(out + x * WARP_CHANNELS, row + clampIndex(left + x, maxX) * WARP_CHANNELS, WARP_CHANNELS);
+        }
+    }
+}
+
+void warpRows(const WarpPlan &plan, unsigned char *output, int outputWidth, size_t outputStride,
+              int rowBegin, int rowEnd) {
+    const AffineTransform &t = plan.transform;
+    if (plan.copy) {
+        copyRows(plan, output, outputWidth, outputStride, rowBegin, rowEnd);
+        return;
+    }
+    // Rotated rows cross many source rows, walking the band in tiles keeps them in cache
+    for (int tileBegin = 0; tileBegin < outputWidth; tileBegin += WARP_TILE_WIDTH) {
+        const int tileWidth = std::min(WARP_TILE_WIDTH, outputWidth - tileBegin);
+        for (int y = rowBegin; y < rowEnd; y++) {
+            // Start of the tile row, then one step per output pixel
+            const double sx = t.a * tileBegin + t.b * y + t.c, sy = t.d * tileBegin + t.e * y + t.f;
+            unsigned char *out = output + (y - rowBegin) * outputStride + tileBegin * WARP_CHANNELS;
+            switch (plan.resampling) {
+                case RESAMPLING_NEAREST:
+                    warpRowNearest(plan, sx, sy, out, tileWidth);
+                    break;
+                case RESAMPLING_BICUBIC:
+                case RESAMPLING_LANCZOS3:
+                    warpRowKernel(plan, sx, sy, out, tileWidth);
+                    break;
+                case RESAMPLING_AREA:
+                    if (plan.taps > 0) {
+                        warpRowKernel(plan, sx, sy, out, tileWidth);
+                    } else {
+                        warpRowBilinear(plan, sx, sy, out, tileWidth);
+                    }
+                    break;
+                default:
+                    warpRowBilinear(plan, sx, sy, out, tileWidth);
+                    break;
+            }
+        }
+    }
+}
+
+struct WarpJob {
+    const WarpPlan *plan;
+    unsigned char *output;
+    int outputWidth;
+    size_t outputStride;
+    int rowBegin, rowEnd;
+
+    CropControl *control;
+    float progressBegin, progressEnd;
+    int bandCount;
+    // Incremented by every thread
+    volatile int bandsDone;
+};
+
+static void warpBand(int band, void *arg) {
+    WarpJob &job = *(WarpJob *) arg;
+    if (isCropCancelled(job.control)) {
+        return;
+    }
+    const int rowBegin = job.rowBegin + band * WARP_BAND_ROWS;
+    warpRows(*job.plan, job.output + (size_t) band * WARP_BAND_ROWS * job.outputStride, job.outputWidth,
+             job.outputStride, rowBegin, std::min(rowBegin + WARP_BAND_ROWS, job.rowEnd));
+    if (job.control != NULL) {
+        reportCropProgress(job.control, job.progressBegin, job.progressEnd,
+                           __sync_add_and_fetch(&job.bandsDone, 1), job.bandCount);
+    }
+}
+
+void warpParallel(const WarpPlan &plan, unsigned char *output, int outputWidth, size_t outputStride,
+                  int rowBegin, int rowEnd, int threads,
+                  CropControl *control, float progressBegin, float progressEnd) {
+    const int bandCount = (rowEnd - rowBegin + WARP_BAND_ROWS - 1) / WARP_BAND_ROWS;
+    WarpJob job = {&plan, output, outputWidth, outputStride, rowBegin, rowEnd,
+                   control, progressBegin, progressEnd, bandCount, 0};
+    parallelFor(bandCount, threads, warpBand, &job);
+}
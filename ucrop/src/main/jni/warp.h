@@ -0,0 +1,68 @@
+//
+// Affine warp of RGBA images, output is written directly without an intermediate coordinate field.
+//
+
+#ifndef UCROP_WARP_H
+#define UCROP_WARP_H
+
+#include "affine.h"
+#include "bilinear.h"
+#include "encoder.h"
+#include "progress.h"
+
+#define WARP_CHANNELS 4
+
+// Values match CropImageView RESAMPLING_* constants
+#define RESAMPLING_NEAREST  0
+#define RESAMPLING_BILINEAR 1
+#define RESAMPLING_BICUBIC  2
+#define RESAMPLING_LANCZOS3 3
+#define RESAMPLING_AREA     4
+
+/*
+ * Everything that can be prepared once per crop: optionally reduced source, the transform into it
+ * and filter weight tables.
+ */
+struct WarpPlan {
+    ImageBuffer source;
+    AffineTransform transform;
+    int resampling;
+    BilinearRowFunction bilinearRow;
+    // Transform is a whole pixel offset, rows are copied whatever the filter
+    bool copy;
+    // Taps per axis and (WARP_PHASES + 1) rows of weights for bicubic, Lanczos and area
+    int taps;
+    std::vector<float> weights;
+    // Storage of the reduced source
+    std::vector<unsigned char> reduced;
+};
+
+/*
+ * Prepares warp of the RGBA source with transform that maps output pixels to source pixels.
+ * Downscales above 2x first go through a box pre-pass in power of two steps, so the sampling cost does not depend
+ * on the scale. Bicubic and Lanczos kernels are stretched by the remaining scale and tabulated for WARP_PHASES
+ * sub-pixel positions, separately per axis.
+ * Area weights are the exact fractional coverage of each source pixel by the output pixel footprint, tabulated
+ * the same way; only downscales beyond what fits MAX_TAPS get an integer box pre-pass. Up to 1:1 area is bilinear.
+ */
+void prepareWarp(const ImageBuffer &source, const AffineTransform &transform, int resampling, int threads,
+                 WarpPlan &plan);
+
+/*
+ * Fills rows [rowBegin, rowEnd) of the result into output, which points to row rowBegin, tile by tile.
+ * Source coordinates are advanced incrementally along each tile row, edges are clamped.
+ */
+void warpRows(const WarpPlan &plan, unsigned char *output, int outputWidth, size_t outputStride,
+              int rowBegin, int rowEnd);
+
+/*
+ * Same as warpRows, bands of rows are spread over threads. Every pixel depends only on its position,
+ * so the result is the same for any thread count.
+ * With control, finished bands advance progress from progressBegin to progressEnd and bands that have not
+ * started yet are skipped once the crop is cancelled, the caller has to check for it.
+ */
+void warpParallel(const WarpPlan &plan, unsigned char *output, int outputWidth, size_t outputStride,
+                  int rowBegin, int rowEnd, int threads,
+                  CropControl *control = NULL, float progressBegin = 0, float progressEnd = 0);
+
+#endif //UCROP_WARP_H